@@ -0,0 +1,284 @@
+// ==================================
+// CallChangeFeed.java
+// Description: Ordered feed of call store changes with batched, non-blocking delivery
+// ==================================
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongFunction;
+
+/**
+ * Publishes every call added to or removed from a CallList as a numbered ChangeEvent.
+ * Sequence numbers start at 1 when the store is opened and increase by one per event.
+ *
+ * Recent events are kept in a fixed-size ring, so publishing never blocks and memory is
+ * bounded. Each subscriber reads the ring from its own position on a delivery thread, in
+ * batches of at most its batch size. A subscriber that falls further behind than the ring
+ * holds is told about the gap and continues with the oldest retained event.
+ *
+ * A feed made with a lookup keeps only call ids in the ring and looks the calls up when
+ * delivering, so the ring holds no calls. An event whose call the store has dropped by
+ * then (compacted away) is reported to the subscriber as a gap.
+ *
+ * A saved position is only meaningful to the feed that issued it: numbering starts over
+ * whenever a store is opened. The resume token is therefore the feed's epoch together
+ * with the position. Resuming with another epoch, or from a position the feed has not
+ * reached, delivers a RESET first and continues with the next event published.
+ */
+public class CallChangeFeed {
+
+    /** Subscribe from this sequence to receive only events published after subscribing. */
+    public static final long LATEST = -1;
+
+    public static final int DEFAULT_CAPACITY = 65_536;
+
+    /** Kinds of change. RESET means the store was reloaded and snapshots must be re-read. */
+    public enum Type { ADDED, REMOVED, RESET }
+
+    /** One change to the store. */
+    public static class ChangeEvent {
+        private final long sequence;
+        private final Type type;
+        private final EmergencyCall call;  // Null for RESET, and in the ring of a feed with a lookup
+        private final long callId;
+
+        ChangeEvent(long sequence, Type type, EmergencyCall call) {
+            this(sequence, type, call, call == null ? 0 : call.getId());
+        }
+
+        private ChangeEvent(long sequence, Type type, EmergencyCall call, long callId) {
+            this.sequence = sequence;
+            this.type = type;
+            this.call = call;
+            this.callId = callId;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        /** The call added or removed; null for RESET. */
+        public EmergencyCall getCall() {
+            return call;
+        }
+
+        @Override
+        public String toString() {
+            return "#" + sequence + " " + type + (type == Type.RESET ? "" : " " + callId);
+        }
+    }
+
+    /** Receives batches of events in sequence order on a delivery thread. */
+    public interface Listener {
+        void onChanges(List<ChangeEvent> batch);
+
+        /**
+         * Events from missedFrom up to resumeAt - 1 were dropped before delivery.
+         * The subscriber should re-read a snapshot of the store.
+         */
+        default void onGap(long missedFrom, long resumeAt) {
+        }
+    }
+
+    /** A live subscription, ended with close(). */
+    public class Subscription implements AutoCloseable {
+        private final Listener listener;
+        private final int maxBatch;
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private volatile long position; // Next sequence to deliver
+        private volatile boolean resetPending; // The requested position was from another feed
+        private volatile boolean closed;
+
+        Subscription(Listener listener, int maxBatch, long position, boolean resetPending) {
+            this.listener = listener;
+            this.maxBatch = maxBatch;
+            this.position = position;
+            this.resetPending = resetPending;
+        }
+
+        /** Sequence of the next event this subscriber will receive; resume later with it and getEpoch(). */
+        public long getPosition() {
+            return position;
+        }
+
+        /** Epoch of the feed the position belongs to. */
+        public long getEpoch() {
+            return epoch;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            subscriptions.remove(this);
+        }
+
+        void schedule() {
+            if (!closed && scheduled.compareAndSet(false, true)) delivery.execute(this::drain);
+        }
+
+        // Delivers batches until caught up; only one drain runs per subscription at a time
+        private void drain() {
+            try {
+                if (resetPending && !closed) {
+                    resetPending = false;
+                    listener.onChanges(Collections.singletonList(new ChangeEvent(position - 1, Type.RESET, null)));
+                }
+                while (!closed) {
+                    List<ChangeEvent> batch = new ArrayList<>();
+                    long resumeAt = read(position, maxBatch, batch);
+                    if (resumeAt > position) {
+                        long missed = position;
+                        position = resumeAt;
+                        listener.onGap(missed, resumeAt);
+                        continue;
+                    }
+                    if (batch.isEmpty()) break;
+                    int resolved = lookup == null ? batch.size() : resolve(batch);
+                    if (resolved > 0) {
+                        List<ChangeEvent> ready = batch.subList(0, resolved);
+                        position = ready.get(ready.size() - 1).getSequence() + 1;
+                        listener.onChanges(Collections.unmodifiableList(ready));
+                    }
+                    if (resolved < batch.size()) {
+                        long missed = batch.get(resolved).getSequence(); // Its call is gone from the store
+                        position = missed + 1;
+                        listener.onGap(missed, position);
+                    }
+                }
+            } catch (RuntimeException e) {
+                System.out.println("Change feed subscriber failed: " + e.getMessage());
+            } finally {
+                scheduled.set(false);
+            }
+            if (!closed && position <= lastSequence()) schedule(); // Events published while finishing
+        }
+    }
+
+    private final ChangeEvent[] ring;
+    private final LongFunction<EmergencyCall> lookup; // Finds calls by id on delivery, null if events hold them
+    private final long epoch = System.nanoTime() ^ System.currentTimeMillis(); // Identifies this feed's numbering
+    private long lastSequence = 0; // Sequence of the newest event, 0 if none
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final ExecutorService delivery = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "call-change-feed");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public CallChangeFeed() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity Number of recent events kept for slow or resuming subscribers.
+     */
+    public CallChangeFeed(int capacity) {
+        this(capacity, null);
+    }
+
+    /**
+     * @param capacity Number of recent events kept for slow or resuming subscribers.
+     * @param lookup   Finds a call by id, removed ones included, when delivering its
+     *                 event, so the ring keeps ids only; null to keep the calls.
+     */
+    public CallChangeFeed(int capacity, LongFunction<EmergencyCall> lookup) {
+        this.ring = new ChangeEvent[capacity];
+        this.lookup = lookup;
+    }
+
+    /**
+     * Records a change and wakes subscribers. Never blocks on subscribers.
+     * @param type The kind of change.
+     * @param call The call added or removed, null for RESET.
+     */
+    public void publish(Type type, EmergencyCall call) {
+        synchronized (this) {
+            lastSequence++;
+            ring[(int) (lastSequence % ring.length)] = new ChangeEvent(lastSequence, type,
+                    lookup == null ? call : null, call == null ? 0 : call.getId());
+        }
+        for (Subscription s : subscriptions) s.schedule();
+    }
+
+    /** Sequence of the newest event, 0 before the first one. */
+    public synchronized long lastSequence() {
+        return lastSequence;
+    }
+
+    /** Identifies this feed; sequence numbers only mean something together with it. */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Starts delivering events to a listener, with sequences of this feed.
+     * @param fromSequence First sequence wanted, or LATEST.
+     * @param maxBatch     Most events delivered in one onChanges call.
+     * @param listener     Receives the events.
+     * @return The subscription.
+     */
+    public Subscription subscribe(long fromSequence, int maxBatch, Listener listener) {
+        return subscribe(epoch, fromSequence, maxBatch, listener);
+    }
+
+    /**
+     * Resumes delivering events to a listener from a saved token. If the token is from
+     * another feed (a different epoch, e.g. before the store was reopened) or ahead of
+     * this one, the listener first gets a RESET and then every event published after it.
+     * @param epoch        Subscription.getEpoch() of the saved subscription.
+     * @param fromSequence Its Subscription.getPosition(), or LATEST.
+     * @param maxBatch     Most events delivered in one onChanges call.
+     * @param listener     Receives the events.
+     * @return The subscription.
+     */
+    public Subscription subscribe(long epoch, long fromSequence, int maxBatch, Listener listener) {
+        long start;
+        boolean reset = false;
+        synchronized (this) {
+            if (fromSequence == LATEST) {
+                start = lastSequence + 1;
+            } else if (epoch != this.epoch || fromSequence > lastSequence + 1) {
+                start = lastSequence + 1; // The position means nothing here
+                reset = true;
+            } else {
+                start = Math.max(1, fromSequence);
+            }
+        }
+        Subscription subscription = new Subscription(listener, Math.max(1, maxBatch), start, reset);
+        subscriptions.add(subscription);
+        subscription.schedule(); // Deliver any retained backlog
+        return subscription;
+    }
+
+    // Replaces events of a feed with a lookup by ones holding their calls, up to the first
+    // whose call is gone; returns how many were resolved
+    private int resolve(List<ChangeEvent> batch) {
+        for (int i = 0; i < batch.size(); i++) {
+            ChangeEvent event = batch.get(i);
+            if (event.type == Type.RESET) continue;
+            EmergencyCall call = lookup.apply(event.callId);
+            if (call == null) return i;
+            batch.set(i, new ChangeEvent(event.sequence, event.type, call, event.callId));
+        }
+        return batch.size();
+    }
+
+    // Copies up to max events from the sequence on; returns a later sequence if some were overwritten
+    private synchronized long read(long from, int max, List<ChangeEvent> out) {
+        long oldest = Math.max(1, lastSequence - ring.length + 1);
+        if (from < oldest) return oldest;
+        for (long seq = from; seq <= lastSequence && out.size() < max; seq++) {
+            out.add(ring[(int) (seq % ring.length)]);
+        }
+        return from;
+    }
+}
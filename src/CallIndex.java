@@ -0,0 +1,261 @@
+// ==================================
+// CallIndex.java
+// Description: Secondary indexes over stored calls and the query planner that uses them
+// ==================================
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.TreeMap;
+
+/**
+ * Secondary indexes of a CallList: by service, timestamp, phone number and caller name.
+ * Together with the CallSearchIndex they let the planner start a CallQuery from the
+ * smallest candidate set instead of scanning every call.
+ */
+public class CallIndex {
+
+    private final EnumMap<Service, IdList> byService = new EnumMap<>(Service.class);
+    private final TreeMap<LocalDateTime, IdList> byTime = new TreeMap<>();
+    private final TreeMap<String, IdList> byPhone = new TreeMap<>();
+    private final Map<String, IdList> byName = new HashMap<>(); // Lowercase caller name
+
+    /** Where a plan takes its candidate ids from. */
+    public enum Source { SCAN, SERVICE, TIME, PHONE, NAME, TEXT }
+
+    /**
+     * The access path chosen for a query. ids() is null for a full scan.
+     */
+    public static class Plan {
+        private final Source source;
+        private final int estimate;
+        private final PrimitiveIterator.OfLong ids;
+        private final boolean ordered; // Candidates already come in the requested order
+
+        Plan(Source source, int estimate, PrimitiveIterator.OfLong ids, boolean ordered) {
+            this.source = source;
+            this.estimate = estimate;
+            this.ids = ids;
+            this.ordered = ordered;
+        }
+
+        public Source getSource() {
+            return source;
+        }
+
+        /** Upper bound on the number of candidates the plan examines. */
+        public int getEstimate() {
+            return estimate;
+        }
+
+        PrimitiveIterator.OfLong ids() {
+            return ids;
+        }
+
+        boolean isOrdered() {
+            return ordered;
+        }
+
+        @Override
+        public String toString() {
+            return source + " (~" + estimate + " candidates" + (ordered ? ", ordered" : "") + ")";
+        }
+    }
+
+    public CallIndex() {
+        for (Service s : Service.values()) byService.put(s, new IdList());
+    }
+
+    /**
+     * Indexes a stored call.
+     * @param call Call with its id assigned.
+     */
+    public void add(EmergencyCall call) {
+        long id = call.getId();
+        for (Service s : call.getServicesRequired()) byService.get(s).add(id);
+        byTime.computeIfAbsent(call.getTimestamp(), t -> new IdList()).add(id);
+        byPhone.computeIfAbsent(CallValidator.canonicalPhone(call.getPhoneNumber()), p -> new IdList()).add(id);
+        byName.computeIfAbsent(call.getCallerName().toLowerCase(), n -> new IdList()).add(id);
+    }
+
+    /**
+     * Removes a call from every index.
+     * @param call The call being removed.
+     */
+    public void remove(EmergencyCall call) {
+        long id = call.getId();
+        for (Service s : call.getServicesRequired()) byService.get(s).remove(id);
+        removeFrom(byTime, call.getTimestamp(), id);
+        removeFrom(byPhone, CallValidator.canonicalPhone(call.getPhoneNumber()), id);
+        removeFrom(byName, call.getCallerName().toLowerCase(), id);
+    }
+
+    /**
+     * Removes many calls from every index, each large list being compacted only once.
+     * @param calls The calls being removed.
+     */
+    public void removeAll(Collection<EmergencyCall> calls) {
+        long[] ids = calls.stream().mapToLong(EmergencyCall::getId).sorted().toArray();
+        for (IdList list : byService.values()) list.removeAll(ids);
+        for (EmergencyCall call : calls) {
+            long id = call.getId();
+            removeFrom(byTime, call.getTimestamp(), id);
+            removeFrom(byPhone, CallValidator.canonicalPhone(call.getPhoneNumber()), id);
+            removeFrom(byName, call.getCallerName().toLowerCase(), id);
+        }
+    }
+
+    // --- Planning ---
+
+    /**
+     * Picks the cheapest way to produce candidates for a query: the index with the
+     * fewest matching ids, or a full scan when no criterion narrows the search.
+     * Estimates stop counting once they exceed the best plan found so far.
+     * @param query       The query.
+     * @param text        Full-text index, for the description criterion.
+     * @param totalCalls  Number of stored calls (the cost of a scan).
+     * @return The chosen plan.
+     */
+    public Plan plan(CallQuery query, CallSearchIndex text, int totalCalls) {
+        Source best = Source.SCAN;
+        int bestCost = totalCalls;
+        boolean timeOrder = query.getOrder() != CallQuery.Order.RECORDED;
+
+        if (query.getServices() != null) {
+            int cost = 0;
+            for (Service s : query.getServices()) cost += byService.get(s).size();
+            if (cost < bestCost) {
+                best = Source.SERVICE;
+                bestCost = cost;
+            }
+        }
+        if (query.getCallerName() != null) {
+            IdList ids = byName.get(query.getCallerName());
+            int cost = ids == null ? 0 : ids.size();
+            if (cost < bestCost) {
+                best = Source.NAME;
+                bestCost = cost;
+            }
+        }
+        if (query.getPhonePrefix() != null) {
+            int cost = countUpTo(phoneRange(query.getPhonePrefix()).values(), bestCost);
+            if (cost < bestCost) {
+                best = Source.PHONE;
+                bestCost = cost;
+            }
+        }
+        if (query.getText() != null) {
+            int cost = text.estimate(query.getText(), bestCost);
+            if (cost < bestCost) {
+                best = Source.TEXT;
+                bestCost = cost;
+            }
+        }
+        // The time index yields candidates already in timestamp order, so prefer it on ties
+        if (query.hasTimeRange() || timeOrder) {
+            int cost = countUpTo(timeRange(query).values(), bestCost + 1);
+            if (cost > bestCost && timeOrder && query.getLimit() < bestCost) {
+                // Walking in time order stops after the limit: expect limit / selectivity candidates
+                long walk = (long) query.getLimit() * totalCalls / Math.max(bestCost, 1);
+                cost = (int) Math.min(walk, (long) bestCost + 1);
+            }
+            if (cost < bestCost || (cost == bestCost && timeOrder)) {
+                best = Source.TIME;
+                bestCost = cost;
+            }
+        }
+
+        switch (best) {
+            case SERVICE: {
+                List<IdList> lists = new ArrayList<>();
+                for (Service s : query.getServices()) lists.add(byService.get(s));
+                return new Plan(best, bestCost, iterate(IdList.union(lists)), !timeOrder);
+            }
+            case NAME: {
+                IdList ids = byName.get(query.getCallerName());
+                return new Plan(best, bestCost, ids == null ? iterate(new long[0]) : ids.iterator(), !timeOrder);
+            }
+            case PHONE:
+                return new Plan(best, bestCost, iterate(IdList.union(phoneRange(query.getPhonePrefix()).values())), !timeOrder);
+            case TEXT:
+                return new Plan(best, bestCost, iterate(text.matchingIds(query.getText())), !timeOrder);
+            case TIME: {
+                NavigableMap<LocalDateTime, IdList> range = timeRange(query);
+                boolean newest = query.getOrder() == CallQuery.Order.NEWEST_FIRST;
+                return new Plan(best, bestCost, flatten(newest ? range.descendingMap() : range, newest), timeOrder);
+            }
+            default:
+                return new Plan(Source.SCAN, totalCalls, null, !timeOrder);
+        }
+    }
+
+    // --- Internals ---
+
+    private NavigableMap<String, IdList> phoneRange(String prefix) {
+        return byPhone.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+    }
+
+    private NavigableMap<LocalDateTime, IdList> timeRange(CallQuery query) {
+        if (query.getFrom() != null && query.getTo() != null) {
+            if (!query.getFrom().isBefore(query.getTo())) return Collections.emptyNavigableMap();
+            return byTime.subMap(query.getFrom(), true, query.getTo(), false);
+        }
+        if (query.getFrom() != null) return byTime.tailMap(query.getFrom(), true);
+        if (query.getTo() != null) return byTime.headMap(query.getTo(), false);
+        return byTime;
+    }
+
+    // Sums list sizes but stops once the total reaches the cap
+    private static int countUpTo(Iterable<IdList> lists, int cap) {
+        int count = 0;
+        for (IdList list : lists) {
+            count += list.size();
+            if (count >= cap) return cap;
+        }
+        return count;
+    }
+
+    private static PrimitiveIterator.OfLong iterate(long[] ids) {
+        return Arrays.stream(ids).iterator();
+    }
+
+    // Lazily walks the id lists of a time range in order
+    private static PrimitiveIterator.OfLong flatten(NavigableMap<LocalDateTime, IdList> range, boolean descending) {
+        Iterator<IdList> lists = range.values().iterator();
+        return new PrimitiveIterator.OfLong() {
+            private PrimitiveIterator.OfLong current = iterate(new long[0]);
+
+            @Override
+            public boolean hasNext() {
+                while (!current.hasNext() && lists.hasNext()) {
+                    IdList next = lists.next();
+                    current = descending ? next.descendingIterator() : next.iterator();
+                }
+                return current.hasNext();
+            }
+
+            @Override
+            public long nextLong() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return current.nextLong();
+            }
+        };
+    }
+
+    private static <K> void removeFrom(Map<K, IdList> index, K key, long id) {
+        IdList ids = index.get(key);
+        if (ids == null) return;
+        ids.remove(id);
+        if (ids.isEmpty()) index.remove(key);
+    }
+}
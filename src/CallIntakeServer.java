@@ -0,0 +1,142 @@
+// ==================================
+// CallIntakeServer.java
+// Description: Accepts emergency calls over a local socket as JSON Lines
+// ==================================
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Network intake path for the call store. Each client sends one call per line in the
+ * JSON Lines format used by CallTransfer, e.g.
+ *
+ * {"callerName":"Jane Doe","phoneNumber":"07123456789","description":"Smoke","services":["Fire"]}
+ *
+ * and gets one reply line per call, in order:
+ *   OK <id> <possible duplicates>
+ *   ERROR <reason>
+ *
+ * Calls are validated with CallValidator and stored with CallStore.addCall, so they are
+ * durable before the reply is sent. Run standalone with:
+ * java CallIntakeServer [port] [dataFile]
+ * Without a data file it opens the configured store (see CallStore.SHARDS_PROPERTY).
+ */
+public class CallIntakeServer implements Closeable {
+
+    public static final int DEFAULT_PORT = 5050;
+
+    private final CallStore callList;
+    private final ServerSocket serverSocket;
+    private final ExecutorService clients = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "call-intake-client");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * Listens on the loopback interface. Call start() to accept clients.
+     * @param callList The store calls are added to.
+     * @param port     Port to listen on, 0 for any free port.
+     * @throws IOException If the port cannot be opened.
+     */
+    public CallIntakeServer(CallStore callList, int port) throws IOException {
+        this.callList = callList;
+        this.serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+    }
+
+    /** The port actually listened on. */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Accepts clients on a background thread until closed.
+     */
+    public void start() {
+        Thread acceptor = new Thread(() -> {
+            try {
+                while (true) {
+                    Socket client = serverSocket.accept();
+                    clients.execute(() -> serve(client));
+                }
+            } catch (IOException e) {
+                // Server closed
+            }
+        }, "call-intake-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        clients.shutdownNow();
+    }
+
+    // Reads calls from one client until it disconnects
+    private void serve(Socket client) {
+        try (Socket socket = client;
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+            socket.setTcpNoDelay(true);
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.trim().isEmpty()) continue;
+                out.write(accept(line));
+                out.write('\n');
+                if (!in.ready()) out.flush(); // Pipelined requests are answered in one write
+            }
+        } catch (SocketException e) {
+            // Client went away
+        } catch (IOException e) {
+            System.out.println("Intake connection failed: " + e.getMessage());
+        }
+    }
+
+    // Validates and stores one JSON line, returning the reply
+    private String accept(String line) {
+        String[] row;
+        try {
+            row = CallTransfer.parseJson(line);
+        } catch (IllegalArgumentException e) {
+            return "ERROR " + e.getMessage();
+        }
+        CallValidator.BatchResult result = CallValidator.validateBatch(Collections.singletonList(row), LocalDateTime.now());
+        if (result.getAccepted().isEmpty()) {
+            return "ERROR " + result.getRejected().get(0).getReason();
+        }
+        EmergencyCall call = result.getAccepted().get(0);
+        try {
+            List<DuplicateDetector.Match> duplicates = callList.addCall(call);
+            return "OK " + call.getId() + " " + duplicates.size();
+        } catch (IllegalStateException e) {
+            return "ERROR " + e.getMessage(); // e.g. a standby that is not promoted yet
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        CallStore callList = args.length > 1 ? new CallList(args[1]) : CallStore.open();
+        CallIntakeServer server = new CallIntakeServer(callList, port);
+        server.start();
+        System.out.println("Accepting calls on 127.0.0.1:" + server.getPort() + " (Ctrl+C to stop)");
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+                callList.close();
+            } catch (IOException e) {
+                System.out.println("Error closing store: " + e.getMessage());
+            }
+        }));
+        Thread.currentThread().join(); // Serve until the process is stopped
+    }
+}
@@ -4,48 +4,243 @@
 // ==================================
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**X* This class manages a list of EmergencyCall objects.
  * Supports add, remove, search, save, and load operations.
+ *
+ * Calls are persisted in a CallLogFile that several processes (e.g. the console and the
+ * GUI) can share: every change is appended under a file lock, and each process watches
+ * the file and applies only the records other processes appended.
+ *
+ * Every add and remove, local or from another process, is published on a CallChangeFeed
+ * so views can apply deltas instead of re-reading the whole list.
+ *
+ * Removing a call only takes it out of the id map, which every scan and index lookup
+ * goes through, so it can be restored within the undo window. Once enough removed calls
+ * pile up, a background compaction drops them from the list, the indexes and the file.
  */
-public class CallList implements Serializable {
+@SuppressWarnings("try") // Log locks are held by try-with-resources variables that are never read
+public class CallList implements CallStore, Serializable {
 
     private ArrayList<EmergencyCall> calls; // Stores all calls
     private static final String DATA_FILE = "calls.dat"; // File to save/load calls
+    private transient volatile DuplicateDetector duplicateDetector; // Flags repeat reports of the same incident
+    private transient Map<Long, EmergencyCall> callsById;  // Lookup by store-assigned id
+    private transient CallSearchIndex searchIndex;         // Full-text index over descriptions
+    private transient CallIndex callIndex;                 // Service, time, phone and name indexes
+    private transient long nextId = 1;                     // Next id to assign
+    private transient int idStride = 1;                    // Gap between ids, the shard count when sharded
+    private transient CallLogFile log;                     // Shared store file, null if unavailable
+    private transient long logOffset;                      // Offset of the first record not yet applied
+    private transient Closeable watcher;                   // Notices appends by other processes
+    private transient ReplicationServer replication;       // Ships the store file to standbys, null if not started
+    private transient CallChangeFeed changes;              // Adds and removes, in the order applied
+    private transient boolean publishing;                  // False while (re)loading the whole store
+    private transient LinkedHashMap<Long, Removed> removed; // Removed calls not yet compacted, in log order
+    private transient boolean compactionScheduled;         // A compaction is waiting to run
+    private transient boolean compacting = true;           // False on a standby, whose log must stay a copy
+    private transient DuplicateDetector sharedDetector;    // Used instead of an own detector when sharded
+
+    // A removed call kept for undo until it is compacted away
+    private static class Removed {
+        final EmergencyCall call;
+        final long removedAt; // Epoch millis
+
+        Removed(EmergencyCall call, long removedAt) {
+            this.call = call;
+            this.removedAt = removedAt;
+        }
+    }
 
     /*** Constructor initializes the list and loads existing calls from the file.*/
     public CallList() {
-        calls = new ArrayList<>();
-        loadFromFile();
+        this(DATA_FILE);
+    }
+
+    /**
+     * Opens the call store in the given file and starts watching it for changes.
+     * @param dataFile The store file, created if missing.
+     */
+    public CallList(String dataFile) {
+        this(dataFile, new CallChangeFeed(), null, 1, 0);
+    }
+
+    /**
+     * Opens one shard of a ShardedCallList. The shard assigns ids offset + 1, offset + 1 + stride, ...
+     * so ids stay unique across shards and the id tells which shard holds a call.
+     * @param dataFile   The shard's store file.
+     * @param changes    Feed shared by all shards.
+     * @param duplicates Detector shared by all shards, so one check covers the whole store.
+     * @param idStride   Number of shards.
+     * @param idOffset   This shard's index.
+     */
+    CallList(String dataFile, CallChangeFeed changes, DuplicateDetector duplicates, int idStride, int idOffset) {
+        this.sharedDetector = duplicates;
+        resetIndexes();
+        this.changes = changes;
+        this.idStride = idStride;
+        this.nextId = idOffset + 1;
+        try {
+            log = new CallLogFile(Paths.get(dataFile));
+            try (CallLogFile.Lock ignored = log.lockShared()) {
+                logOffset = log.read(CallLogFile.HEADER_SIZE, applier);
+            }
+            watcher = log.watch(this::refresh);
+        } catch (IOException e) {
+            System.out.println("Error loading calls: " + e.getMessage() + " (changes will not be saved)");
+            log = null;
+        }
+        publishing = true; // The loaded calls are the starting snapshot, not changes
+    }
+
+    @Override
+    public CallChangeFeed getChangeFeed() {
+        return changes;
     }
 
     /**
      * Adds a new call and automatically saves the list.
      * @param call The EmergencyCall to be added.
+     * @return Recent calls this one probably duplicates, empty if none.
      */
-    public void addCall(EmergencyCall call) {
-        calls.add(call);
-        saveToFile();
+    @Override
+    public synchronized List<DuplicateDetector.Match> addCall(EmergencyCall call) {
+        List<DuplicateDetector.Match> duplicates = duplicateDetector.check(call);
+        persist(Collections.singletonList(call), true);
+        duplicateDetector.index(call); // Once it has its id, so removing it can take it out again
+        return duplicates;
     }
 
     /**
-     * Removes a call and saves the updated list.
+     * Adds many calls and saves the list once.
+     * @param batch The calls to be added.
+     */
+    @Override
+    public synchronized void addCalls(Collection<EmergencyCall> batch) {
+        insertBatch(batch);
+        commit();
+    }
+
+    /**
+     * Appends calls without flushing them to disk, for bulk import. Call commit() afterwards.
+     * Bulk calls are indexed for duplicate detection but not checked.
+     * @param batch The calls to be added.
+     */
+    @Override
+    public synchronized void insertBatch(Collection<EmergencyCall> batch) {
+        calls.ensureCapacity(calls.size() + batch.size());
+        persist(batch, false);
+        for (EmergencyCall call : batch) {
+            duplicateDetector.index(call);
+        }
+    }
+
+    /**
+     * Flushes all calls inserted since the last save to disk.
+     */
+    @Override
+    public synchronized void commit() {
+        if (log == null) return;
+        try {
+            log.force();
+        } catch (IOException e) {
+            System.out.println("Error saving calls: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Removes a call and saves the change. The call stays restorable for the undo window.
      * @param call The EmergencyCall to be removed.
-     * @return true if removal was successful, false otherwise.
+     * @return true if removal was successful, false otherwise, e.g. if it could not be saved.
      */
-    public boolean removeCall(EmergencyCall call) {
-        boolean removed = calls.remove(call);
-        if (removed) saveToFile();
-        return removed;
+    @Override
+    public synchronized boolean removeCall(EmergencyCall call) {
+        long removedAt = System.currentTimeMillis();
+        if (log != null) {
+            try (CallLogFile.Lock ignored = log.lockExclusive()) {
+                catchUp();
+                if (callsById.get(call.getId()) != call) return false; // Already removed elsewhere
+                logOffset = log.append(Collections.singletonList(CallLogFile.encodeRemove(call.getId(), removedAt)));
+                log.force();
+            } catch (IOException e) {
+                System.out.println("Error saving calls: " + e.getMessage());
+                return false; // Still stored, so it must not disappear here only
+            }
+        }
+        return unstore(call.getId(), removedAt);
+    }
+
+    /**
+     * Brings back a call removed within the undo window.
+     * @param id Id of the removed call.
+     * @return The restored call, or null if it is not removed or can no longer be restored.
+     */
+    @Override
+    public synchronized EmergencyCall restoreCall(long id) {
+        if (log != null) {
+            try (CallLogFile.Lock ignored = log.lockExclusive()) {
+                catchUp(); // It may have been restored or compacted elsewhere
+                if (!canRestore(id)) return null;
+                logOffset = log.append(Collections.singletonList(CallLogFile.encodeRestore(id)));
+                log.force();
+            } catch (IOException e) {
+                System.out.println("Error saving calls: " + e.getMessage());
+                return null; // Still removed in the store file
+            }
+        }
+        return canRestore(id) ? revive(id) : null;
     }
 
     /**
      * Returns all calls.
      * @return List of all EmergencyCall objects.
      */
-    public ArrayList<EmergencyCall> getAllCalls() {
-        return new ArrayList<>(calls);
+    @Override
+    public synchronized ArrayList<EmergencyCall> getAllCalls() {
+        return removed.isEmpty() ? new ArrayList<>(calls) : live().collect(Collectors.toCollection(ArrayList::new));
+    }
+
+    /**
+     * Returns the calls with ids above a given id, in id order.
+     * @param afterId Only calls with greater ids; 0 for the first page.
+     * @param limit   Largest number of calls returned.
+     * @return The page, empty once past the last call.
+     */
+    @Override
+    public synchronized ArrayList<EmergencyCall> getCallsAfter(long afterId, int limit) {
+        // The list is in id order: ids are assigned in log order and compaction keeps it
+        int low = 0;
+        int high = calls.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (calls.get(mid).getId() <= afterId) low = mid + 1;
+            else high = mid;
+        }
+        ArrayList<EmergencyCall> page = new ArrayList<>(Math.min(limit, calls.size() - low));
+        for (int i = low; i < calls.size() && page.size() < limit; i++) {
+            EmergencyCall call = calls.get(i);
+            if (!removed.containsKey(call.getId())) page.add(call);
+        }
+        return page;
     }
 
     /**
@@ -53,39 +248,338 @@ public class CallList implements Serializable {
      * @param service Service type to filter by.
      * @return List of calls requiring the specified service.
      */
+    @Override
     public ArrayList<EmergencyCall> getCallsByService(Service service) {
-        ArrayList<EmergencyCall> result = new ArrayList<>();
-        for (EmergencyCall call : calls) {
-            if (call.requiresService(service)) {
-                result.add(call);
-            }
+        return query(CallQuery.create().services(EnumSet.of(service)));
+    }
+
+    /**
+     * Searches call descriptions using the full-text index.
+     * @param query    Words, prefix* terms and "quoted phrases", all of which must match.
+     * @param services Only calls requiring one of these services; null or empty for all.
+     * @return Matching calls in the order they were recorded.
+     */
+    @Override
+    public ArrayList<EmergencyCall> search(String query, EnumSet<Service> services) {
+        if (CallSearchIndex.tokenize(query).isEmpty()) return new ArrayList<>();
+        return query(CallQuery.create().text(query).services(services));
+    }
+
+    /**
+     * Runs a query. Candidates come from the most selective index (see CallIndex.plan)
+     * and are filtered, ordered and limited lazily, so a limited query stops early.
+     * @param query The query.
+     * @return Matching calls in the requested order.
+     */
+    @Override
+    public synchronized ArrayList<EmergencyCall> query(CallQuery query) {
+        CallIndex.Plan plan = callIndex.plan(query, searchIndex, callsById.size());
+        Stream<EmergencyCall> matches = matching(query, plan);
+        if (!plan.isOrdered()) matches = matches.sorted(query.comparator());
+        return matches.limit(query.getLimit()).collect(Collectors.toCollection(ArrayList::new));
+    }
+
+    /**
+     * Counts the calls a query matches without copying or sorting them.
+     * @param query The query; its order is ignored.
+     * @return Number of matching calls, at most the query's limit.
+     */
+    @Override
+    public synchronized int count(CallQuery query) {
+        CallIndex.Plan plan = callIndex.plan(query, searchIndex, callsById.size());
+        return (int) matching(query, plan).limit(query.getLimit()).count();
+    }
+
+    /**
+     * Describes how a query would be run, for diagnostics.
+     * @param query The query.
+     * @return The chosen plan, e.g. "SERVICE (~120 candidates)".
+     */
+    @Override
+    public synchronized String explain(CallQuery query) {
+        return callIndex.plan(query, searchIndex, callsById.size()).toString();
+    }
+
+    /**
+     * Looks up a call by its id.
+     * @param id Store-assigned id.
+     * @return The call, or null if there is none.
+     */
+    @Override
+    public synchronized EmergencyCall getCall(long id) {
+        return callsById.get(id);
+    }
+
+    /**
+     * Applies changes other processes appended to the store file since the last read.
+     * Runs automatically when the file changes; can also be called directly.
+     */
+    @Override
+    public synchronized void refresh() {
+        if (log == null) return;
+        try (CallLogFile.Lock ignored = log.lockShared()) {
+            catchUp();
+        } catch (IOException e) {
+            System.out.println("Error loading calls: " + e.getMessage());
         }
-        return result;
     }
 
     /**
-     * Saves the call list to a local file.
+     * Starts shipping the store file to standbys (see ReplicaCallStore). The server is
+     * closed with the store.
+     * @param port Port to listen on.
      */
-    private void saveToFile() {
-        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(DATA_FILE))) {
-            out.writeObject(calls);
+    synchronized void startReplication(int port) {
+        if (log == null) {
+            System.out.println("Error starting replication: the store file is not open");
+            return;
+        }
+        try {
+            replication = new ReplicationServer(log.getPath(), port);
+            replication.start();
         } catch (IOException e) {
-            System.out.println("Error saving calls: " + e.getMessage());
+            System.out.println("Error starting replication: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Stops replication and watching the store file, and closes it.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (replication != null) replication.close();
+        if (watcher != null) watcher.close();
+        if (log != null) log.close();
+        log = null; // A refresh already waiting for the lock finds nothing to read
+    }
+
+    // Calls in the list that are not removed
+    private Stream<EmergencyCall> live() {
+        return removed.isEmpty() ? calls.stream() : calls.stream().filter(call -> !removed.containsKey(call.getId()));
+    }
+
+    // Candidates from the plan filtered by the criteria the plan's index did not cover, unsorted
+    private Stream<EmergencyCall> matching(CallQuery query, CallIndex.Plan plan) {
+        Stream<EmergencyCall> candidates = plan.ids() == null
+                ? live()
+                : StreamSupport.longStream(Spliterators.spliteratorUnknownSize(plan.ids(), Spliterator.ORDERED), false)
+                        .mapToObj(id -> callsById.get(id))
+                        .filter(Objects::nonNull);
+
+        Stream<EmergencyCall> matches = candidates.filter(query::matchesFields);
+        if (query.getText() != null && plan.getSource() != CallIndex.Source.TEXT) {
+            matches = matches.filter(call -> CallSearchIndex.matches(query.getText(), call));
+        }
+        return matches;
+    }
+
+    // --- Persistence ---
+
+    // Applies records read from the log
+    private final transient CallLogFile.RecordHandler applier = new CallLogFile.RecordHandler() {
+        @Override
+        public void onAdd(EmergencyCall call) {
+            nextId = Math.max(nextId, call.getId() + idStride);
+            index(call);
+            duplicateDetector.index(call);
+        }
+
+        @Override
+        public void onRemove(long id, long removedAt) {
+            unstore(id, removedAt > 0 ? removedAt : System.currentTimeMillis());
+        }
+
+        @Override
+        public void onRestore(long id) {
+            revive(id);
+        }
+    };
+
+    // Assigns ids and appends add records under the exclusive lock, then indexes the calls
+    private void persist(Collection<EmergencyCall> batch, boolean force) {
+        if (log == null) {
+            for (EmergencyCall call : batch) {
+                call.setId(nextId);
+                nextId += idStride;
+            }
+        } else {
+            try (CallLogFile.Lock ignored = log.lockExclusive()) {
+                catchUp(); // Ids must follow those other processes already used
+                List<byte[]> records = new ArrayList<>(batch.size());
+                for (EmergencyCall call : batch) {
+                    call.setId(nextId);
+                    nextId += idStride;
+                    records.add(CallLogFile.encodeAdd(call));
+                }
+                logOffset = log.append(records);
+                if (force) log.force();
+            } catch (IOException e) {
+                System.out.println("Error saving calls: " + e.getMessage());
+            }
+        }
+        for (EmergencyCall call : batch) {
+            index(call);
         }
     }
 
+    // Reads records appended since logOffset; the caller holds a log lock
+    private void catchUp() throws IOException {
+        if (log.generationChanged() || log.size() < logOffset) {
+            // The file was rewritten: offsets no longer apply, so load it again and tell subscribers
+            boolean wasPublishing = publishing;
+            publishing = false;
+            resetIndexes();
+            logOffset = log.read(CallLogFile.HEADER_SIZE, applier);
+            publishing = wasPublishing;
+            if (publishing) changes.publish(CallChangeFeed.Type.RESET, null);
+            return;
+        }
+        logOffset = log.read(logOffset, applier);
+    }
+
+    // --- Indexes ---
+
+    private void resetIndexes() {
+        if (sharedDetector != null && callsById != null) {
+            for (Long id : callsById.keySet()) sharedDetector.remove(id); // Other shards' entries stay
+        }
+        calls = new ArrayList<>();
+        callsById = new HashMap<>();
+        searchIndex = new CallSearchIndex(callsById::get);
+        callIndex = new CallIndex();
+        duplicateDetector = sharedDetector != null ? sharedDetector : new DuplicateDetector();
+        removed = new LinkedHashMap<>();
+    }
+
+    // Adds a call that has its id to the list and indexes
+    private void index(EmergencyCall call) {
+        calls.add(call);
+        callsById.put(call.getId(), call);
+        searchIndex.add(call);
+        callIndex.add(call);
+        if (publishing) changes.publish(CallChangeFeed.Type.ADDED, call);
+    }
+
+    // Marks a call removed. It leaves the id map, so scans and index lookups skip it,
+    // but stays in the list and indexes until compacted.
+    private boolean unstore(long id, long removedAt) {
+        EmergencyCall call = callsById.remove(id);
+        if (call == null) return false;
+        removed.put(id, new Removed(call, removedAt));
+        duplicateDetector.remove(id);
+        if (publishing) changes.publish(CallChangeFeed.Type.REMOVED, call);
+        if (compacting && !compactionScheduled && Compactor.isDue(removed.size(), calls.size())) {
+            compactionScheduled = true;
+            Compactor.schedule(this::compact);
+        }
+        return true;
+    }
+
+    private boolean canRestore(long id) {
+        Removed entry = removed.get(id);
+        return entry != null && System.currentTimeMillis() - entry.removedAt <= UNDO_WINDOW.toMillis();
+    }
+
+    // Puts a removed call back in the id map
+    private EmergencyCall revive(long id) {
+        Removed entry = removed.remove(id);
+        if (entry == null) return null;
+        callsById.put(id, entry.call);
+        duplicateDetector.index(entry.call);
+        if (publishing) changes.publish(CallChangeFeed.Type.ADDED, entry.call);
+        return entry.call;
+    }
+
+    // --- Compaction ---
+
+    /**
+     * Turns background compaction on or off. A standby's replica log must stay a
+     * byte-for-byte copy of the primary's, so it is off until the standby is promoted.
+     */
+    synchronized void setCompacting(boolean enabled) {
+        compacting = enabled;
+    }
+
     /**
-     * Loads the call list from the local file.
+     * Drops calls removed longer ago than the undo window from the list, the indexes and
+     * the store file. The compacted file is written without holding the store lock; the
+     * records appended meanwhile are copied onto it when it is swapped in.
      */
-    @SuppressWarnings("unchecked")
-    private void loadFromFile() {
-        try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(DATA_FILE))) {
-            Object obj = in.readObject();
-            if (obj instanceof ArrayList<?>) {
-                calls = (ArrayList<EmergencyCall>) obj;
+    void compact() {
+        Set<Long> purged = new HashSet<>();
+        List<EmergencyCall> kept;
+        List<byte[]> stillRemoved;
+        long snapshotOffset;
+        CallLogFile file;
+        long generation;
+        long cutoff = System.currentTimeMillis() - UNDO_WINDOW.toMillis();
+        synchronized (this) {
+            compactionScheduled = false;
+            if (!compacting) return;
+            stillRemoved = new ArrayList<>();
+            for (Map.Entry<Long, Removed> entry : removed.entrySet()) {
+                long removedAt = entry.getValue().removedAt;
+                if (removedAt <= cutoff) {
+                    purged.add(entry.getKey());
+                } else {
+                    stillRemoved.add(CallLogFile.encodeRemove(entry.getKey(), removedAt)); // Keeps its undo time
+                }
+            }
+            if (purged.isEmpty()) return;
+            kept = calls.stream().filter(call -> !purged.contains(call.getId())).collect(Collectors.toList());
+            snapshotOffset = logOffset;
+            file = log;
+            generation = file == null ? 0 : file.getGeneration();
+        }
+
+        Path compacted = null;
+        if (file != null) {
+            try {
+                compacted = file.writeCompacted(() -> Stream.concat(
+                        kept.stream().map(CallLogFile::encodeAdd),
+                        stillRemoved.stream()).iterator());
+            } catch (IOException e) {
+                System.out.println("Error compacting calls: " + e.getMessage());
+                return;
+            }
+        }
+
+        synchronized (this) {
+            if (compacted != null && log == null) { // Closed meanwhile
+                compacted.toFile().delete();
+                return;
             }
-        } catch (IOException | ClassNotFoundException e) {
-            calls = new ArrayList<>(); // Start fresh if file is missing or corrupted
+            if (log != null) {
+                try (CallLogFile.Lock ignored = log.lockExclusive()) {
+                    catchUp();
+                    // Give up if the file was replaced or a purged call was restored elsewhere meanwhile
+                    if (log.getGeneration() != generation || !stillPurgeable(purged, cutoff)) {
+                        Files.deleteIfExists(compacted);
+                        return;
+                    }
+                    logOffset = log.replaceWithCompacted(compacted, snapshotOffset);
+                } catch (IOException e) {
+                    System.out.println("Error compacting calls: " + e.getMessage());
+                    return;
+                }
+            } else if (!stillPurgeable(purged, cutoff)) {
+                return;
+            }
+            List<EmergencyCall> dropped = new ArrayList<>(purged.size());
+            for (long id : purged) dropped.add(removed.remove(id).call);
+            calls.removeIf(call -> purged.contains(call.getId()));
+            calls.trimToSize();
+            callIndex.removeAll(dropped);
+            searchIndex.removeAll(dropped);
+        }
+    }
+
+    // Whether every purged call is still removed, and not removed again since the cutoff
+    private boolean stillPurgeable(Set<Long> purged, long cutoff) {
+        for (long id : purged) {
+            Removed entry = removed.get(id);
+            if (entry == null || entry.removedAt > cutoff) return false;
         }
+        return true;
     }
 }
@@ -0,0 +1,580 @@
+// ==================================
+// CallLogFile.java
+// Description: Append-only, lock-coordinated call log shared by several processes
+// ==================================
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * The call store file: a header followed by mutation records (add call, remove call).
+ * Records are only ever appended, so a process that has read up to some offset can
+ * apply just the records written after it.
+ *
+ * Writers hold an exclusive FileChannel lock while they catch up and append; readers
+ * hold a shared lock. A JVM-wide lock per file is taken first, because FileChannel locks
+ * only coordinate between processes and may not overlap within one JVM.
+ *
+ * Record layout: int length, byte type, payload, int CRC32 of type and payload.
+ * A truncated last record (e.g. a crash mid-write) is ignored until it is complete.
+ *
+ * Removed calls keep their add record until the log is compacted: writeCompacted()
+ * writes the surviving records to a new file and replaceWithCompacted() swaps it in
+ * with a new generation.
+ */
+@SuppressWarnings("try") // Log locks are held by try-with-resources variables that are never read
+public class CallLogFile implements Closeable {
+
+    public static final byte ADD = 1;
+    public static final byte REMOVE = 2;
+    public static final byte RESTORE = 3;
+
+    private static final int MAGIC = 0x45434C47;      // "ECLG"
+    private static final short VERSION = 1;
+    public static final int HEADER_SIZE = 4 + 2 + 8;  // magic, version, generation
+    private static final int LEGACY_MAGIC = 0xACED;   // Java serialization stream
+    private static final int APPEND_BUFFER = 1 << 20; // Bytes gathered per write when appending
+
+    // In-JVM locks per file, since FileChannel locks do not exclude threads of the same process
+    private static final ConcurrentHashMap<Path, ReentrantLock> JVM_LOCKS = new ConcurrentHashMap<>();
+
+    /** Receives records as they are read from the log. */
+    public interface RecordHandler {
+        void onAdd(EmergencyCall call);
+
+        /**
+         * @param id        Id of the removed call.
+         * @param removedAt Epoch millis of the removal, 0 if the record predates removal times.
+         */
+        void onRemove(long id, long removedAt);
+
+        void onRestore(long id);
+    }
+
+    /** A held lock on the log, released with close(). */
+    public interface Lock extends AutoCloseable {
+        @Override
+        void close() throws IOException;
+    }
+
+    private final Path path;
+    private final ReentrantLock jvmLock;
+    private FileChannel channel;
+    private final List<FileChannel> retired = new ArrayList<>(); // Replaced files, closed when the lock on them is released
+    private Object fileKey;  // Identity of the open file, to notice when it is replaced
+    private long generation;
+
+    /**
+     * Opens the log, creating it if missing and converting a legacy serialized call list.
+     * @param path Log file.
+     * @throws IOException If the file cannot be opened or is not a call log.
+     */
+    public CallLogFile(Path path) throws IOException {
+        this.path = path.toAbsolutePath();
+        this.jvmLock = JVM_LOCKS.computeIfAbsent(this.path, p -> new ReentrantLock());
+        open();
+        try (Lock ignored = lockExclusive()) {
+            if (migrateLegacyFile()) {
+                retired.add(channel); // Still holds our lock; closed when it is released
+                open();
+            }
+            if (channel.size() == 0) writeHeader(channel, System.nanoTime() ^ System.currentTimeMillis());
+            generation = readGeneration();
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Generation id from the header. It changes when the file is rewritten, which
+     * invalidates every offset into the old file.
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    // --- Locking ---
+
+    /** Takes the lock readers need, shared with other readers. */
+    public Lock lockShared() throws IOException {
+        return lock(true);
+    }
+
+    /** Takes the lock writers need, excluding every other reader and writer. */
+    public Lock lockExclusive() throws IOException {
+        return lock(false);
+    }
+
+    // If another process replaced the file while we waited, the lock is retaken on the new file.
+    // Locks must not be nested.
+    private Lock lock(boolean shared) throws IOException {
+        ReentrantLock local = jvmLock;
+        local.lock();
+        try {
+            FileLock fileLock = channel.lock(0, Long.MAX_VALUE, shared);
+            while (isReplaced()) {
+                fileLock.release();
+                channel.close();
+                open();
+                fileLock = channel.lock(0, Long.MAX_VALUE, shared);
+            }
+            FileLock held = fileLock;
+            return () -> {
+                try {
+                    held.release();
+                    for (FileChannel old : retired) old.close();
+                    retired.clear();
+                } finally {
+                    local.unlock();
+                }
+            };
+        } catch (IOException | RuntimeException e) {
+            local.unlock();
+            throw e;
+        }
+    }
+
+    // --- Reading ---
+
+    /**
+     * Current size of the log in bytes. Caller should hold a lock.
+     */
+    public long size() throws IOException {
+        return channel.size();
+    }
+
+    /**
+     * Re-reads the header generation. Caller should hold a lock.
+     * @return true if the file was rewritten since it was opened or last checked.
+     */
+    public boolean generationChanged() throws IOException {
+        long current = readGeneration();
+        boolean changed = current != generation;
+        generation = current;
+        return changed;
+    }
+
+    /**
+     * Applies every complete record from the offset onwards. Caller should hold a lock.
+     * @param offset  Offset of the first unread record, at least HEADER_SIZE.
+     * @param handler Receives the records.
+     * @return Offset just past the last complete record.
+     */
+    public long read(long offset, RecordHandler handler) throws IOException {
+        long size = channel.size();
+        ByteBuffer lengthBuf = ByteBuffer.allocate(4);
+        while (offset + 4 <= size) {
+            lengthBuf.clear();
+            readFully(lengthBuf, offset);
+            int length = lengthBuf.getInt(0);
+            if (length <= 0 || offset + 4 + length + 4 > size) break; // Incomplete tail
+
+            ByteBuffer record = ByteBuffer.allocate(length + 4);
+            readFully(record, offset + 4);
+            record.flip();
+            CRC32 crc = new CRC32();
+            crc.update(record.array(), 0, length);
+            if ((int) crc.getValue() != record.getInt(length)) {
+                throw new IOException("Corrupt call log record at offset " + offset);
+            }
+            record.limit(length);
+            decode(record, handler);
+            offset += 4 + length + 4;
+        }
+        return offset;
+    }
+
+    /**
+     * Runs onChange on a background thread whenever the log file changes on disk, e.g.
+     * when another process appends to it.
+     * @param onChange Typically a refresh of the store reading this log.
+     * @return Handle that stops watching when closed.
+     */
+    public Closeable watch(Runnable onChange) throws IOException {
+        WatchService watchService = path.getFileSystem().newWatchService();
+        path.getParent().register(watchService,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_CREATE);
+
+        Thread watcher = new Thread(() -> {
+            try {
+                while (true) {
+                    WatchKey key = watchService.take();
+                    boolean logChanged = false;
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (path.getFileName().equals(event.context())) logChanged = true;
+                    }
+                    key.reset();
+                    if (logChanged) onChange.run();
+                }
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                // Watch closed
+            }
+        }, "call-store-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+        return watchService;
+    }
+
+    /**
+     * Copies complete records from the offset onwards without decoding them, for log
+     * shipping. Caller should hold a lock.
+     * @param offset   Offset of a record, at least HEADER_SIZE.
+     * @param maxBytes Stop before this many bytes, though at least one record is returned.
+     * @return The records' bytes as they are in the file; empty if none are complete.
+     */
+    public byte[] readRaw(long offset, int maxBytes) throws IOException {
+        long size = channel.size();
+        long end = offset;
+        ByteBuffer lengthBuf = ByteBuffer.allocate(4);
+        while (end + 4 <= size) {
+            lengthBuf.clear();
+            readFully(lengthBuf, end);
+            int length = lengthBuf.getInt(0);
+            long next = end + 4 + length + 4;
+            if (length <= 0 || next > size) break; // Incomplete tail
+            if (next - offset > maxBytes && end > offset) break;
+            end = next;
+        }
+        ByteBuffer records = ByteBuffer.allocate((int) (end - offset));
+        readFully(records, offset);
+        return records.array();
+    }
+
+    // --- Writing ---
+
+    /**
+     * Appends encoded records at the end of the log. Caller must hold the exclusive lock
+     * and should have caught up first.
+     * @param records Records from encodeAdd / encodeRemove.
+     * @return Offset just past the appended records.
+     */
+    public long append(List<byte[]> records) throws IOException {
+        long position = channel.size();
+        ByteBuffer buffer = ByteBuffer.allocate(APPEND_BUFFER);
+        for (byte[] r : records) {
+            if (r.length > buffer.remaining()) {
+                buffer.flip();
+                position = writeFully(buffer, position);
+                buffer.clear();
+                if (r.length > buffer.capacity()) { // Too large to gather: write it on its own
+                    position = writeFully(ByteBuffer.wrap(r), position);
+                    continue;
+                }
+            }
+            buffer.put(r);
+        }
+        buffer.flip();
+        return writeFully(buffer, position);
+    }
+
+    /**
+     * Writes a compacted log to a temporary file next to this one, with a new generation.
+     * Needs no lock; swap it in with replaceWithCompacted().
+     * @param records Framed records in the order they should be applied.
+     * @return The temporary file.
+     */
+    public Path writeCompacted(Iterable<byte[]> records) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".compact");
+        writeLog(temp, records);
+        return temp;
+    }
+
+    /**
+     * Copies the records appended since a compacted log was written onto its end, then
+     * atomically replaces this log with it. Caller must hold the exclusive lock and
+     * should have caught up first.
+     * @param compacted File from writeCompacted().
+     * @param copyFrom  Offset in this log up to which the compacted file has the records.
+     * @return Offset just past the last record of the new log.
+     */
+    public long replaceWithCompacted(Path compacted, long copyFrom) throws IOException {
+        long end;
+        try (FileChannel out = FileChannel.open(compacted, StandardOpenOption.WRITE)) {
+            end = out.size();
+            long size = channel.size();
+            while (copyFrom < size) {
+                long n = channel.transferTo(copyFrom, size - copyFrom, out.position(end));
+                copyFrom += n;
+                end += n;
+            }
+            out.force(true);
+        }
+        Files.move(compacted, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        retired.add(channel); // Still holds the caller's lock
+        open();
+        generation = readGeneration();
+        return end;
+    }
+
+    /**
+     * Appends records copied from another log with readRaw(). Caller must hold the
+     * exclusive lock.
+     * @param records Complete framed records.
+     * @return Offset just past the appended records.
+     */
+    public long appendRaw(byte[] records) throws IOException {
+        return append(Collections.singletonList(records));
+    }
+
+    /**
+     * Empties the log and gives it the generation of the log it is replicating, so that
+     * offsets in both logs match. Caller must hold the exclusive lock.
+     * @param newGeneration Generation to write in the header.
+     */
+    public void resetTo(long newGeneration) throws IOException {
+        channel.truncate(HEADER_SIZE);
+        writeHeader(channel, newGeneration);
+        channel.force(true);
+    }
+
+    /** Flushes appended records to disk. */
+    public void force() throws IOException {
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (FileChannel old : retired) old.close();
+        channel.close();
+    }
+
+    // --- Encoding ---
+
+    /** Encodes an add record for a call that already has its id. */
+    public static byte[] encodeAdd(EmergencyCall call) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(ADD);
+            out.writeLong(call.getId());
+            writeString(out, call.getCallerName());
+            writeString(out, call.getPhoneNumber());
+            writeString(out, call.getDescription());
+            out.writeByte(serviceMask(call.getServicesRequired()));
+            out.writeLong(call.getTimestamp().toEpochSecond(ZoneOffset.UTC));
+            out.writeInt(call.getTimestamp().getNano());
+            return frame(bytes.toByteArray());
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // In-memory stream cannot fail
+        }
+    }
+
+    /**
+     * Encodes a remove record. The removal time keeps the undo window and compaction
+     * counting from the original removal when the log is read again.
+     * @param id        Id of the removed call.
+     * @param removedAt Epoch millis of the removal.
+     */
+    public static byte[] encodeRemove(long id, long removedAt) {
+        ByteBuffer body = ByteBuffer.allocate(1 + 8 + 8);
+        body.put(REMOVE).putLong(id).putLong(removedAt);
+        return frame(body.array());
+    }
+
+    /** Encodes a restore record, which undoes the remove record of the same id. */
+    public static byte[] encodeRestore(long id) {
+        ByteBuffer body = ByteBuffer.allocate(1 + 8);
+        body.put(RESTORE).putLong(id);
+        return frame(body.array());
+    }
+
+    static int serviceMask(EnumSet<Service> services) {
+        int mask = 0;
+        for (Service s : services) mask |= 1 << s.ordinal();
+        return mask;
+    }
+
+    static EnumSet<Service> services(int mask) {
+        EnumSet<Service> services = EnumSet.noneOf(Service.class);
+        for (Service s : Service.values()) {
+            if ((mask & (1 << s.ordinal())) != 0) services.add(s);
+        }
+        return services;
+    }
+
+    private static byte[] frame(byte[] body) {
+        CRC32 crc = new CRC32();
+        crc.update(body, 0, body.length);
+        ByteBuffer framed = ByteBuffer.allocate(4 + body.length + 4);
+        framed.putInt(body.length).put(body).putInt((int) crc.getValue());
+        return framed.array();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(utf8.length);
+        out.write(utf8);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] utf8 = new byte[in.getInt()];
+        in.get(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Decodes the payload of an add record, from the id onwards, at the buffer's position.
+     * @param record Buffer positioned just after the ADD type byte; its position is advanced.
+     * @return The call, with its id.
+     */
+    static EmergencyCall decodeCall(ByteBuffer record) {
+        long id = record.getLong();
+        String name = readString(record);
+        String phone = readString(record);
+        String description = readString(record);
+        EnumSet<Service> services = services(record.get());
+        LocalDateTime time = LocalDateTime.ofEpochSecond(record.getLong(), record.getInt(), ZoneOffset.UTC);
+        EmergencyCall call = new EmergencyCall(name, phone, description, services, time);
+        call.setId(id);
+        return call;
+    }
+
+    private static void decode(ByteBuffer record, RecordHandler handler) throws IOException {
+        byte type = record.get();
+        switch (type) {
+            case ADD:
+                handler.onAdd(decodeCall(record));
+                break;
+            case REMOVE:
+                long id = record.getLong();
+                handler.onRemove(id, record.remaining() >= 8 ? record.getLong() : 0); // Older records end at the id
+                break;
+            case RESTORE:
+                handler.onRestore(record.getLong());
+                break;
+            default:
+                // Unknown record types are skipped so older readers tolerate newer writers
+        }
+    }
+
+    // --- File management ---
+
+    private void open() throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        fileKey = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+    }
+
+    private boolean isReplaced() throws IOException {
+        if (fileKey == null || !Files.exists(path)) return false; // No file identity on this platform
+        return !fileKey.equals(Files.readAttributes(path, BasicFileAttributes.class).fileKey());
+    }
+
+    private long readGeneration() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(header, 0);
+        if (header.getInt(0) != MAGIC) throw new IOException(path + " is not a call log");
+        return header.getLong(6);
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) throw new IOException("Unexpected end of call log");
+            position += n;
+        }
+    }
+
+    // Writes the buffer's remaining bytes at the position; returns the position after them
+    private long writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        return position;
+    }
+
+    private static void writeHeader(FileChannel channel, long generation) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putShort(VERSION).putLong(generation).flip();
+        while (header.hasRemaining()) channel.write(header, HEADER_SIZE - header.remaining());
+    }
+
+    /**
+     * Writes a fresh log containing the given calls, then atomically replaces the file.
+     * Used to convert legacy files and to compact the log.
+     * @param path  Log file to replace.
+     * @param calls Calls with ids assigned.
+     */
+    public static void rewrite(Path path, List<EmergencyCall> calls) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        writeLog(temp, () -> calls.stream().map(CallLogFile::encodeAdd).iterator());
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Writes a header with a new generation and the records to a file, replacing its contents
+    private static void writeLog(Path file, Iterable<byte[]> records) throws IOException {
+        try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeHeader(out, System.nanoTime() ^ System.currentTimeMillis());
+            out.position(HEADER_SIZE);
+            List<byte[]> batch = new ArrayList<>();
+            for (byte[] record : records) {
+                batch.add(record);
+                if (batch.size() == 10_000) writeAll(out, batch);
+            }
+            writeAll(out, batch);
+            out.force(true);
+        }
+    }
+
+    private static void writeAll(FileChannel out, List<byte[]> batch) throws IOException {
+        for (byte[] r : batch) {
+            ByteBuffer buffer = ByteBuffer.wrap(r);
+            while (buffer.hasRemaining()) out.write(buffer);
+        }
+        batch.clear();
+    }
+
+    // Converts a calls.dat written by older versions (a serialized ArrayList) to the log format.
+    // The caller holds the exclusive lock, so only one process converts it and none reads it meanwhile.
+    // Returns true if the file was replaced.
+    @SuppressWarnings("unchecked")
+    private boolean migrateLegacyFile() throws IOException {
+        if (channel.size() < 2) return false;
+        ByteBuffer magic = ByteBuffer.allocate(2);
+        readFully(magic, 0);
+        if ((magic.getShort(0) & 0xFFFF) != LEGACY_MAGIC) return false;
+
+        List<EmergencyCall> legacy;
+        try (ObjectInputStream in = new ObjectInputStream(Channels.newInputStream(FileChannel.open(path)))) {
+            legacy = (List<EmergencyCall>) in.readObject();
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Unreadable legacy call file: " + e.getMessage(), e);
+        }
+        long nextId = 1;
+        for (EmergencyCall call : legacy) nextId = Math.max(nextId, call.getId() + 1);
+        for (EmergencyCall call : legacy) {
+            if (call.getId() == 0) call.setId(nextId++); // Calls saved before ids existed
+        }
+        rewrite(path, legacy);
+        return true;
+    }
+}
@@ -0,0 +1,204 @@
+// ==================================
+// CallQuery.java
+// Description: Composable filter over stored calls with ordering and limit
+// ==================================
+
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.EnumSet;
+
+/**
+ * Describes which calls to fetch from a CallList. Every criterion is optional and all
+ * given criteria must match. Build one with the fluent setters:
+ *
+ * CallQuery.create().services(EnumSet.of(Service.FIRE)).text("smoke").newestFirst().limit(20)
+ *
+ * CallList.query picks the most selective index for the query (see CallIndex) and
+ * checks the remaining criteria on the candidates only.
+ */
+public class CallQuery {
+
+    /** Result ordering. */
+    public enum Order {
+        RECORDED,     // Order the calls were stored in
+        OLDEST_FIRST, // By timestamp, ascending
+        NEWEST_FIRST  // By timestamp, descending
+    }
+
+    private EnumSet<Service> services;  // Any of these services
+    private LocalDateTime from;         // Inclusive
+    private LocalDateTime to;           // Exclusive
+    private String phonePrefix;         // In stored +44 form, see CallValidator.normalizePhonePrefix
+    private String callerName;          // Lowercase, matched exactly
+    private String text;                // Description query, see CallSearchIndex
+    private Order order = Order.RECORDED;
+    private int limit = Integer.MAX_VALUE;
+
+    public static CallQuery create() {
+        return new CallQuery();
+    }
+
+    /**
+     * A query with the same criteria, order and limit, to adjust without changing this one.
+     */
+    CallQuery copy() {
+        CallQuery copy = new CallQuery();
+        copy.services = services;
+        copy.from = from;
+        copy.to = to;
+        copy.phonePrefix = phonePrefix;
+        copy.callerName = callerName;
+        copy.text = text;
+        copy.order = order;
+        copy.limit = limit;
+        return copy;
+    }
+
+    // --- Criteria ---
+
+    /**
+     * Only calls requiring at least one of the services. Null or empty means any.
+     */
+    public CallQuery services(EnumSet<Service> services) {
+        this.services = services == null || services.isEmpty() ? null : EnumSet.copyOf(services);
+        return this;
+    }
+
+    /**
+     * Only calls recorded in [from, to). Either bound may be null.
+     */
+    public CallQuery between(LocalDateTime from, LocalDateTime to) {
+        this.from = from;
+        this.to = to;
+        return this;
+    }
+
+    /**
+     * Only calls whose phone number starts with the prefix, e.g. "07123" or "+4407123".
+     */
+    public CallQuery phonePrefix(String prefix) {
+        if (prefix == null || prefix.trim().isEmpty()) {
+            phonePrefix = null;
+        } else {
+            phonePrefix = CallValidator.normalizePhonePrefix(prefix.trim());
+        }
+        return this;
+    }
+
+    /**
+     * Only calls from this caller, ignoring case.
+     */
+    public CallQuery callerName(String name) {
+        callerName = name == null || name.trim().isEmpty() ? null : name.trim().toLowerCase();
+        return this;
+    }
+
+    /**
+     * Only calls whose description matches the search query (words, prefix*, "phrases").
+     */
+    public CallQuery text(String query) {
+        text = query == null || CallSearchIndex.tokenize(query).isEmpty() ? null : query;
+        return this;
+    }
+
+    public CallQuery order(Order order) {
+        this.order = order;
+        return this;
+    }
+
+    public CallQuery newestFirst() {
+        return order(Order.NEWEST_FIRST);
+    }
+
+    /**
+     * At most this many results.
+     * @throws IllegalArgumentException If the limit is negative.
+     */
+    public CallQuery limit(int limit) {
+        if (limit < 0) throw new IllegalArgumentException("Query limit must not be negative: " + limit);
+        this.limit = limit;
+        return this;
+    }
+
+    // --- Getters ---
+
+    public EnumSet<Service> getServices() {
+        return services;
+    }
+
+    public LocalDateTime getFrom() {
+        return from;
+    }
+
+    public LocalDateTime getTo() {
+        return to;
+    }
+
+    public String getPhonePrefix() {
+        return phonePrefix;
+    }
+
+    public String getCallerName() {
+        return callerName;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public Order getOrder() {
+        return order;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    boolean hasTimeRange() {
+        return from != null || to != null;
+    }
+
+    /**
+     * Comparator for the requested order. Ids grow as calls are stored, so recorded order is id order.
+     */
+    Comparator<EmergencyCall> comparator() {
+        Comparator<EmergencyCall> byTime = Comparator.comparing(EmergencyCall::getTimestamp)
+                .thenComparingLong(EmergencyCall::getId);
+        switch (order) {
+            case OLDEST_FIRST: return byTime;
+            case NEWEST_FIRST: return byTime.reversed();
+            default: return Comparator.comparingLong(EmergencyCall::getId);
+        }
+    }
+
+    /**
+     * Checks every criterion against one call, e.g. to decide whether a new call belongs in a view.
+     * @param call The candidate call.
+     * @return true if the call matches.
+     */
+    public boolean matches(EmergencyCall call) {
+        return matchesFields(call) && (text == null || CallSearchIndex.matches(text, call));
+    }
+
+    /**
+     * Checks every criterion except the description text, which needs the search index.
+     * @param call The candidate call.
+     * @return true if the call matches.
+     */
+    boolean matchesFields(EmergencyCall call) {
+        if (services != null) {
+            boolean any = false;
+            for (Service s : services) {
+                if (call.requiresService(s)) {
+                    any = true;
+                    break;
+                }
+            }
+            if (!any) return false;
+        }
+        if (from != null && call.getTimestamp().isBefore(from)) return false;
+        if (to != null && !call.getTimestamp().isBefore(to)) return false;
+        if (phonePrefix != null && !CallValidator.canonicalPhone(call.getPhoneNumber()).startsWith(phonePrefix)) return false;
+        return callerName == null || call.getCallerName().equalsIgnoreCase(callerName);
+    }
+}
@@ -0,0 +1,243 @@
+// ==================================
+// CallSearchIndex.java
+// Description: Inverted full-text index over call descriptions
+// ==================================
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.LongFunction;
+
+/**
+ * Maps every lowercased description word to the sorted ids of the calls that use it.
+ * The index is updated as calls are added and removed, so searching never scans the
+ * whole call list.
+ *
+ * Query syntax: words must all appear (smoke baker), a trailing * matches any word
+ * with that prefix (bak*), and double quotes require consecutive words ("baker street").
+ */
+public class CallSearchIndex {
+
+    private final TreeMap<String, IdList> index = new TreeMap<>();
+    private final LongFunction<EmergencyCall> lookup; // Resolves ids for phrase checks and results
+
+    // A query split into its parts
+    private static class ParsedQuery {
+        final List<String> words = new ArrayList<>();         // Exact words, including phrase words
+        final List<String> prefixes = new ArrayList<>();      // Words given as prefix*
+        final List<List<String>> phrases = new ArrayList<>(); // Quoted phrases of two or more words
+
+        boolean isEmpty() {
+            return words.isEmpty() && prefixes.isEmpty();
+        }
+    }
+
+    /**
+     * @param lookup Resolves a call id to the stored call.
+     */
+    public CallSearchIndex(LongFunction<EmergencyCall> lookup) {
+        this.lookup = lookup;
+    }
+
+    /**
+     * Splits text into lowercase words of letters and digits.
+     * @param text Text to tokenize.
+     * @return Words in order of appearance.
+     */
+    public static List<String> tokenize(String text) {
+        List<String> words = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) start = i;
+            else if (!wordChar && start >= 0) {
+                words.add(text.substring(start, i).toLowerCase());
+                start = -1;
+            }
+        }
+        return words;
+    }
+
+    /**
+     * Indexes a stored call's description.
+     * @param call Call with its id assigned.
+     */
+    public synchronized void add(EmergencyCall call) {
+        for (String word : new LinkedHashSet<>(tokenize(call.getDescription()))) {
+            index.computeIfAbsent(word, w -> new IdList()).add(call.getId());
+        }
+    }
+
+    /**
+     * Removes a call's description from the index.
+     * @param call The call being removed.
+     */
+    public synchronized void remove(EmergencyCall call) {
+        for (String word : new LinkedHashSet<>(tokenize(call.getDescription()))) {
+            IdList postings = index.get(word);
+            if (postings == null) continue;
+            postings.remove(call.getId());
+            if (postings.isEmpty()) index.remove(word);
+        }
+    }
+
+    /**
+     * Removes many calls' descriptions, compacting each word's postings only once.
+     * @param calls The calls being removed.
+     */
+    public synchronized void removeAll(Collection<EmergencyCall> calls) {
+        Map<String, List<Long>> byWord = new HashMap<>();
+        for (EmergencyCall call : calls) {
+            for (String word : new LinkedHashSet<>(tokenize(call.getDescription()))) {
+                byWord.computeIfAbsent(word, w -> new ArrayList<>()).add(call.getId());
+            }
+        }
+        for (Map.Entry<String, List<Long>> entry : byWord.entrySet()) {
+            IdList postings = index.get(entry.getKey());
+            if (postings == null) continue;
+            postings.removeAll(entry.getValue().stream().mapToLong(Long::longValue).sorted().toArray());
+            if (postings.isEmpty()) index.remove(entry.getKey());
+        }
+    }
+
+    /**
+     * Ids of calls whose description matches the query, ascending.
+     * @param query Words, prefix* terms and "quoted phrases".
+     * @return Matching ids; empty for a query without words.
+     */
+    public long[] matchingIds(String query) {
+        ParsedQuery parsed = parse(query);
+        if (parsed.isEmpty()) return new long[0];
+
+        List<long[]> clauses = new ArrayList<>();
+        synchronized (this) {
+            for (String word : parsed.words) {
+                IdList postings = index.get(word);
+                clauses.add(postings == null ? new long[0] : postings.toArray());
+            }
+            for (String prefix : parsed.prefixes) {
+                clauses.add(IdList.union(prefixRange(prefix).values()));
+            }
+        }
+
+        clauses.sort((a, b) -> Integer.compare(a.length, b.length)); // Intersect smallest lists first
+        long[] ids = clauses.get(0);
+        for (int c = 1; c < clauses.size() && ids.length > 0; c++) {
+            ids = IdList.intersect(ids, clauses.get(c));
+        }
+        return parsed.phrases.isEmpty() ? ids : verifyPhrases(ids, parsed.phrases);
+    }
+
+    /**
+     * Upper bound on the number of calls matching a query, without evaluating it.
+     * @param query Words, prefix* terms and "quoted phrases".
+     * @param limit Counting stops once the estimate reaches this value.
+     * @return Estimated match count, at most limit.
+     */
+    public synchronized int estimate(String query, int limit) {
+        ParsedQuery parsed = parse(query);
+        if (parsed.isEmpty()) return 0;
+        int best = limit;
+        for (String word : parsed.words) {
+            IdList postings = index.get(word);
+            best = Math.min(best, postings == null ? 0 : postings.size());
+        }
+        for (String prefix : parsed.prefixes) {
+            int count = 0;
+            for (IdList postings : prefixRange(prefix).values()) {
+                count += postings.size();
+                if (count >= best) break;
+            }
+            best = Math.min(best, count);
+        }
+        return best;
+    }
+
+    /**
+     * Checks one call against a query without using the index.
+     * @param query Words, prefix* terms and "quoted phrases".
+     * @param call  The call to check.
+     * @return true if the description matches every part of the query.
+     */
+    public static boolean matches(String query, EmergencyCall call) {
+        ParsedQuery parsed = parse(query);
+        if (parsed.isEmpty()) return false;
+        List<String> tokens = tokenize(call.getDescription());
+        Set<String> words = new HashSet<>(tokens);
+        if (!words.containsAll(parsed.words)) return false;
+        for (String prefix : parsed.prefixes) {
+            boolean found = false;
+            for (String word : words) {
+                if (word.startsWith(prefix)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) return false;
+        }
+        for (List<String> phrase : parsed.phrases) {
+            if (Collections.indexOfSubList(tokens, phrase) < 0) return false;
+        }
+        return true;
+    }
+
+    // --- Internals ---
+
+    private static ParsedQuery parse(String query) {
+        ParsedQuery parsed = new ParsedQuery();
+        int i = 0;
+        while (i < query.length()) {
+            char c = query.charAt(i);
+            if (c == '"') {
+                int end = query.indexOf('"', i + 1);
+                if (end < 0) end = query.length();
+                List<String> phrase = tokenize(query.substring(i + 1, end));
+                parsed.words.addAll(phrase);
+                if (phrase.size() > 1) parsed.phrases.add(phrase);
+                i = end + 1;
+            } else if (Character.isWhitespace(c)) {
+                i++;
+            } else {
+                int end = i;
+                while (end < query.length() && !Character.isWhitespace(query.charAt(end)) && query.charAt(end) != '"') end++;
+                String token = query.substring(i, end);
+                (token.endsWith("*") ? parsed.prefixes : parsed.words).addAll(tokenize(token));
+                i = end;
+            }
+        }
+        return parsed;
+    }
+
+    // Postings of every word starting with the prefix
+    private Map<String, IdList> prefixRange(String prefix) {
+        return index.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+    }
+
+    // Keeps only calls whose description contains every phrase as consecutive words
+    private long[] verifyPhrases(long[] ids, List<List<String>> phrases) {
+        long[] out = new long[ids.length];
+        int n = 0;
+        for (long id : ids) {
+            EmergencyCall call = lookup.apply(id);
+            if (call == null) continue;
+            List<String> words = tokenize(call.getDescription());
+            boolean all = true;
+            for (List<String> phrase : phrases) {
+                if (Collections.indexOfSubList(words, phrase) < 0) {
+                    all = false;
+                    break;
+                }
+            }
+            if (all) out[n++] = id;
+        }
+        return Arrays.copyOf(out, n);
+    }
+}
@@ -0,0 +1,190 @@
+// ==================================
+// CallStore.java
+// Description: Operations every emergency call store provides
+// ==================================
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * A persistent store of emergency calls. CallList keeps every call in one store file;
+ * ShardedCallList spreads calls over several CallLists so writes to different shards
+ * run in parallel; OffHeapCallStore keeps the calls of one store file outside the heap.
+ * Use open() to get the store selected by the system properties.
+ */
+public interface CallStore extends Closeable {
+
+    /** System property with the number of shards, e.g. -Dcalls.shards=4. One or unset means a single CallList. */
+    String SHARDS_PROPERTY = "calls.shards";
+
+    /** System property that keeps calls in direct memory, -Dcalls.offheap=true. Ignored when sharded. */
+    String OFF_HEAP_PROPERTY = "calls.offheap";
+
+    /**
+     * System property that makes this process a standby of the primary on that port, e.g. -Dcalls.replicaOf=5060.
+     * A standby of a sharded primary needs the same calls.shards and follows shard i on that port + i.
+     */
+    String REPLICA_OF_PROPERTY = "calls.replicaOf";
+
+    /**
+     * System property that ships this process's store log to standbys on that port, e.g. -Dcalls.replicationPort=5060.
+     * A sharded store ships shard i on that port + i.
+     */
+    String REPLICATION_PORT_PROPERTY = "calls.replicationPort";
+
+    /** System property with the undo window in seconds, e.g. -Dcalls.undoSeconds=600. */
+    String UNDO_PROPERTY = "calls.undoSeconds";
+
+    /** How long a removed call can be restored. Removed calls are only compacted away after it. */
+    Duration UNDO_WINDOW = Duration.ofSeconds(Long.getLong(UNDO_PROPERTY, 300));
+
+    /** System property with the removed calls a store holds before it is compacted, e.g. -Dcalls.compactMinRemoved=500. */
+    String COMPACT_MIN_REMOVED_PROPERTY = "calls.compactMinRemoved";
+
+    /** System property with the least share of removed calls, in percent, worth compacting, e.g. -Dcalls.compactMinPercent=20. */
+    String COMPACT_MIN_PERCENT_PROPERTY = "calls.compactMinPercent";
+
+    /**
+     * Opens the store the application is configured for, and starts shipping its log to
+     * standbys if a replication port is set.
+     * @return A read-only ReplicaCallStore on a standby, or a ShardedReplicaCallStore if the
+     *         standby is sharded, a ShardedCallList if more than one
+     *         shard is configured, an OffHeapCallStore if off-heap storage is on, otherwise a CallList.
+     */
+    static CallStore open() {
+        int shards = Integer.getInteger(SHARDS_PROPERTY, 1);
+        Integer primaryPort = Integer.getInteger(REPLICA_OF_PROPERTY);
+        if (primaryPort != null) {
+            try {
+                if (shards > 1) return new ShardedReplicaCallStore(primaryPort, ShardedReplicaCallStore.DEFAULT_REPLICA_FILE, shards);
+                return new ReplicaCallStore(primaryPort, ReplicaCallStore.DEFAULT_REPLICA_FILE);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot open the replica: " + e.getMessage(), e);
+            }
+        }
+        Integer replicationPort = Integer.getInteger(REPLICATION_PORT_PROPERTY);
+        if (shards > 1) {
+            ShardedCallList sharded = new ShardedCallList(shards);
+            if (replicationPort != null) sharded.startReplication(replicationPort);
+            return sharded;
+        }
+        if (Boolean.getBoolean(OFF_HEAP_PROPERTY)) {
+            OffHeapCallStore offHeap = new OffHeapCallStore();
+            if (replicationPort != null) offHeap.startReplication(replicationPort);
+            return offHeap;
+        }
+        CallList callList = new CallList();
+        if (replicationPort != null) callList.startReplication(replicationPort);
+        return callList;
+    }
+
+    /**
+     * Adds a new call and saves it.
+     * @param call The EmergencyCall to be added.
+     * @return Recent calls this one probably duplicates, empty if none.
+     */
+    List<DuplicateDetector.Match> addCall(EmergencyCall call);
+
+    /**
+     * Adds many calls and saves them once.
+     * @param batch The calls to be added.
+     */
+    void addCalls(Collection<EmergencyCall> batch);
+
+    /**
+     * Adds calls without flushing them to disk, for bulk import. Call commit() afterwards.
+     * @param batch The calls to be added.
+     */
+    void insertBatch(Collection<EmergencyCall> batch);
+
+    /**
+     * Flushes all calls inserted since the last save to disk.
+     */
+    void commit();
+
+    /**
+     * Removes a call and saves the change.
+     * @param call The EmergencyCall to be removed.
+     * @return true if removal was successful, false otherwise.
+     */
+    boolean removeCall(EmergencyCall call);
+
+    /**
+     * Brings back a call removed within the undo window.
+     * @param id Id of the removed call.
+     * @return The restored call, or null if it is not removed or can no longer be restored.
+     */
+    EmergencyCall restoreCall(long id);
+
+    /**
+     * Returns all calls in the order they were recorded.
+     */
+    ArrayList<EmergencyCall> getAllCalls();
+
+    /**
+     * Returns the calls with ids above a given id, in id order. Paging with the last id
+     * of each page walks the whole store without copying it at once.
+     * @param afterId Only calls with greater ids; 0 for the first page.
+     * @param limit   Largest number of calls returned.
+     * @return The page, empty once past the last call.
+     */
+    ArrayList<EmergencyCall> getCallsAfter(long afterId, int limit);
+
+    /**
+     * Filters calls by a specific service.
+     * @param service Service type to filter by.
+     * @return List of calls requiring the specified service.
+     */
+    ArrayList<EmergencyCall> getCallsByService(Service service);
+
+    /**
+     * Searches call descriptions using the full-text index.
+     * @param query    Words, prefix* terms and "quoted phrases", all of which must match.
+     * @param services Only calls requiring one of these services; null or empty for all.
+     * @return Matching calls in the order they were recorded.
+     */
+    ArrayList<EmergencyCall> search(String query, EnumSet<Service> services);
+
+    /**
+     * Runs a query.
+     * @param query The query.
+     * @return Matching calls in the requested order.
+     */
+    ArrayList<EmergencyCall> query(CallQuery query);
+
+    /**
+     * Counts the calls a query matches without copying or sorting them.
+     * @param query The query; its order is ignored.
+     * @return Number of matching calls, at most the query's limit.
+     */
+    int count(CallQuery query);
+
+    /**
+     * Describes how a query would be run, for diagnostics.
+     */
+    String explain(CallQuery query);
+
+    /**
+     * Looks up a call by its id.
+     * @param id Store-assigned id.
+     * @return The call, or null if there is none.
+     */
+    EmergencyCall getCall(long id);
+
+    /**
+     * Returns the feed of adds and removes to this store. Read its lastSequence() before
+     * taking a snapshot; events after that sequence may already be in the snapshot.
+     */
+    CallChangeFeed getChangeFeed();
+
+    /**
+     * Applies changes other processes made to the store files since the last read.
+     */
+    void refresh();
+}
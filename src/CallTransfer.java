@@ -0,0 +1,506 @@
+// ==================================
+// CallTransfer.java
+// Description: Streaming bulk import and export of calls as CSV or JSON Lines
+// ==================================
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Bulk import and export of emergency calls.
+ *
+ * Import streams the file in chunks: one thread splits records, a worker pool parses
+ * and validates chunks with CallValidator, and accepted calls go into the CallStore in
+ * batches of INSERT_BATCH that are saved once at the end. Only a bounded number of chunks
+ * and one batch are held at any time, so memory use does not depend on the file size.
+ * Other processes see each batch as it is appended; a failed import keeps the batches
+ * appended before the failure.
+ *
+ * Export reads the store a page at a time, so it never copies the whole store at once.
+ *
+ * Columns are callerName, phoneNumber, description, services and an optional ISO-8601
+ * timestamp. Services may be codes ("FP") or names ("Fire;Police").
+ */
+public class CallTransfer {
+
+    public static final String CSV_HEADER = "callerName,phoneNumber,description,services,timestamp";
+
+    private static final int CHUNK_SIZE = 5_000;              // Records parsed per task
+    private static final int INSERT_BATCH = 50_000;           // Calls inserted into the store at once
+    private static final int EXPORT_PAGE = 10_000;            // Calls read from the store at once
+    private static final int MAX_REPORTED_REJECTIONS = 1_000; // Rejections kept in the report
+    private static final String[] JSON_KEYS = {"callerName", "phoneNumber", "description", "services", "timestamp"};
+
+    /** Supported file formats, picked from the file extension. */
+    public enum Format {
+        CSV, JSONL;
+
+        public static Format forFile(Path file) {
+            String name = file.getFileName().toString().toLowerCase();
+            return name.endsWith(".jsonl") || name.endsWith(".json") ? JSONL : CSV;
+        }
+    }
+
+    /** Summary of an import: counts, sample of rejected rows and elapsed time. */
+    public static class ImportReport {
+        private long accepted;
+        private long rejected;
+        private final List<String> rejections = new ArrayList<>();
+        private long elapsedMillis;
+
+        public long getAccepted() {
+            return accepted;
+        }
+
+        public long getRejected() {
+            return rejected;
+        }
+
+        /** The first rejected rows as "Line N: reason". */
+        public List<String> getRejections() {
+            return rejections;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        private void reject(long line, String reason) {
+            rejected++;
+            if (rejections.size() < MAX_REPORTED_REJECTIONS) rejections.add("Line " + line + ": " + reason);
+        }
+
+        @Override
+        public String toString() {
+            return "Imported " + accepted + " calls, rejected " + rejected + " rows in " + elapsedMillis + " ms";
+        }
+    }
+
+    // Raw records of one chunk with the line each record starts on
+    private static class Chunk {
+        final List<String> records = new ArrayList<>(CHUNK_SIZE);
+        final List<Long> lines = new ArrayList<>(CHUNK_SIZE);
+    }
+
+    // A row that failed parsing or validation
+    private static class RejectedRow {
+        final long line;
+        final String reason;
+
+        RejectedRow(long line, String reason) {
+            this.line = line;
+            this.reason = reason;
+        }
+    }
+
+    // Outcome of parsing and validating one chunk
+    private static class ParsedChunk {
+        final List<EmergencyCall> accepted;
+        final List<RejectedRow> rejected;
+
+        ParsedChunk(List<EmergencyCall> accepted, List<RejectedRow> rejected) {
+            this.accepted = accepted;
+            this.rejected = rejected;
+        }
+    }
+
+    private CallTransfer() {
+    }
+
+    // --- Import ---
+
+    /**
+     * Imports calls from a CSV or JSON Lines file using all available cores.
+     * @param callList The store to add the calls to.
+     * @param file     File to read.
+     * @return Import summary with rejected rows.
+     * @throws IOException If the file cannot be read.
+     */
+    public static ImportReport importCalls(CallStore callList, Path file) throws IOException {
+        return importCalls(callList, file, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Imports calls from a CSV or JSON Lines file.
+     * @param callList The store to add the calls to.
+     * @param file     File to read.
+     * @param threads  Number of parser threads.
+     * @return Import summary with rejected rows.
+     * @throws IOException If the file cannot be read.
+     */
+    public static ImportReport importCalls(CallStore callList, Path file, int threads) throws IOException {
+        long start = System.currentTimeMillis();
+        Format format = Format.forFile(file);
+        LocalDateTime importTime = LocalDateTime.now();
+        ImportReport report = new ImportReport();
+        List<EmergencyCall> pending = new ArrayList<>();
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        ArrayDeque<Future<ParsedChunk>> inFlight = new ArrayDeque<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            RecordReader records = new RecordReader(reader, format);
+            Chunk chunk;
+            while ((chunk = records.nextChunk()) != null) {
+                final Chunk task = chunk;
+                inFlight.add(pool.submit(() -> parseChunk(task, format, importTime)));
+                if (inFlight.size() >= threads * 2) {
+                    collect(await(inFlight.poll()), report, pending, callList);
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                collect(await(inFlight.poll()), report, pending, callList);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        callList.insertBatch(pending);
+        callList.commit(); // Single save for the whole import
+        report.elapsedMillis = System.currentTimeMillis() - start;
+        return report;
+    }
+
+    private static ParsedChunk await(Future<ParsedChunk> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Import interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Import failed: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    // Chunks are collected in file order, so rejections are reported in line order
+    private static void collect(ParsedChunk parsed, ImportReport report, List<EmergencyCall> pending, CallStore callList) {
+        for (RejectedRow row : parsed.rejected) {
+            report.reject(row.line, row.reason);
+        }
+        report.accepted += parsed.accepted.size();
+        pending.addAll(parsed.accepted);
+        if (pending.size() >= INSERT_BATCH) {
+            callList.insertBatch(pending);
+            pending.clear();
+        }
+    }
+
+    private static ParsedChunk parseChunk(Chunk chunk, Format format, LocalDateTime importTime) {
+        List<String[]> rows = new ArrayList<>(chunk.records.size());
+        List<Long> rowLines = new ArrayList<>(chunk.records.size());
+        List<RejectedRow> rejected = new ArrayList<>();
+
+        for (int i = 0; i < chunk.records.size(); i++) {
+            try {
+                String record = chunk.records.get(i);
+                rows.add(format == Format.CSV ? parseCsv(record) : parseJson(record));
+                rowLines.add(chunk.lines.get(i));
+            } catch (IllegalArgumentException e) {
+                rejected.add(new RejectedRow(chunk.lines.get(i), e.getMessage()));
+            }
+        }
+
+        CallValidator.BatchResult result = CallValidator.validateBatch(rows, importTime);
+        for (CallValidator.Rejection rejection : result.getRejected()) {
+            rejected.add(new RejectedRow(rowLines.get(rejection.getIndex()), rejection.getReason()));
+        }
+        rejected.sort((a, b) -> Long.compare(a.line, b.line));
+        return new ParsedChunk(result.getAccepted(), rejected);
+    }
+
+    // --- Export ---
+
+    /**
+     * Writes all calls to a CSV or JSON Lines file, reading the store a page at a time.
+     * @param callList The store to export.
+     * @param file     File to write, replaced if it exists.
+     * @return Number of calls written.
+     * @throws IOException If the file cannot be written.
+     */
+    public static long exportCalls(CallStore callList, Path file) throws IOException {
+        Format format = Format.forFile(file);
+        long written = 0;
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            if (format == Format.CSV) {
+                out.write(CSV_HEADER);
+                out.newLine();
+            }
+            long lastId = 0;
+            List<EmergencyCall> page;
+            while (!(page = callList.getCallsAfter(lastId, EXPORT_PAGE)).isEmpty()) {
+                for (EmergencyCall call : page) {
+                    out.write(format == Format.CSV ? toCsv(call) : toJson(call));
+                    out.newLine();
+                    written++;
+                }
+                lastId = page.get(page.size() - 1).getId();
+            }
+        }
+        return written;
+    }
+
+    static String toCsv(EmergencyCall call) {
+        return csvField(call.getCallerName()) + ',' + csvField(call.getPhoneNumber()) + ','
+                + csvField(call.getDescription()) + ',' + csvField(joinServices(call, ";")) + ','
+                + call.getTimestamp();
+    }
+
+    static String toJson(EmergencyCall call) {
+        StringBuilder sb = new StringBuilder(128);
+        sb.append("{\"callerName\":").append(jsonString(call.getCallerName()))
+                .append(",\"phoneNumber\":").append(jsonString(call.getPhoneNumber()))
+                .append(",\"description\":").append(jsonString(call.getDescription()))
+                .append(",\"services\":[");
+        boolean first = true;
+        for (Service s : call.getServicesRequired()) {
+            if (!first) sb.append(',');
+            sb.append(jsonString(s.toString()));
+            first = false;
+        }
+        return sb.append("],\"timestamp\":").append(jsonString(call.getTimestamp().toString())).append('}').toString();
+    }
+
+    private static String joinServices(EmergencyCall call, String separator) {
+        StringBuilder sb = new StringBuilder();
+        for (Service s : call.getServicesRequired()) {
+            if (sb.length() > 0) sb.append(separator);
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+
+    private static String csvField(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    private static String jsonString(String value) {
+        StringBuilder sb = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    // --- Parsing ---
+
+    /**
+     * Splits one CSV record into fields, handling quoted fields with commas, quotes and newlines.
+     * @throws IllegalArgumentException If a quoted field is not closed.
+     */
+    static String[] parseCsv(String record) {
+        List<String> fields = new ArrayList<>(JSON_KEYS.length);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < record.length(); i++) {
+            char c = record.charAt(i);
+            if (quoted) {
+                if (c == '"') {
+                    if (i + 1 < record.length() && record.charAt(i + 1) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) throw new IllegalArgumentException("Unterminated quoted field.");
+        fields.add(field.toString());
+        return fields.toArray(new String[0]);
+    }
+
+    /**
+     * Reads the known keys of one flat JSON object. Services may be an array of names or a string.
+     * @throws IllegalArgumentException If the line is not a valid JSON object.
+     */
+    static String[] parseJson(String line) {
+        String[] row = {"", "", "", "", ""};
+        JsonCursor json = new JsonCursor(line);
+        json.expect('{');
+        if (!json.consume('}')) {
+            do {
+                String key = json.readString();
+                json.expect(':');
+                String value = json.readValue();
+                for (int i = 0; i < JSON_KEYS.length; i++) {
+                    if (JSON_KEYS[i].equals(key)) row[i] = value;
+                }
+            } while (json.consume(','));
+            json.expect('}');
+        }
+        json.expectEnd();
+        return row;
+    }
+
+    // Minimal cursor over a single JSON object line
+    private static class JsonCursor {
+        private final String text;
+        private int pos;
+
+        JsonCursor(String text) {
+            this.text = text;
+        }
+
+        void skipSpace() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) pos++;
+        }
+
+        boolean consume(char c) {
+            skipSpace();
+            if (pos < text.length() && text.charAt(pos) == c) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        void expect(char c) {
+            if (!consume(c)) throw new IllegalArgumentException("Malformed JSON: expected '" + c + "' at " + pos + ".");
+        }
+
+        void expectEnd() {
+            skipSpace();
+            if (pos != text.length()) throw new IllegalArgumentException("Malformed JSON: trailing text at " + pos + ".");
+        }
+
+        String readString() {
+            expect('"');
+            StringBuilder sb = new StringBuilder();
+            while (pos < text.length()) {
+                char c = text.charAt(pos++);
+                if (c == '"') return sb.toString();
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                if (pos >= text.length()) break;
+                char e = text.charAt(pos++);
+                switch (e) {
+                    case 'n': sb.append('\n'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'u':
+                        if (pos + 4 > text.length()) throw new IllegalArgumentException("Malformed JSON: bad escape.");
+                        sb.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                        pos += 4;
+                        break;
+                    default: sb.append(e);
+                }
+            }
+            throw new IllegalArgumentException("Malformed JSON: unterminated string.");
+        }
+
+        // Strings as-is, arrays of strings joined with ';', other scalars as their literal text
+        String readValue() {
+            skipSpace();
+            if (pos >= text.length()) throw new IllegalArgumentException("Malformed JSON: missing value.");
+            char c = text.charAt(pos);
+            if (c == '"') return readString();
+            if (c == '[') {
+                pos++;
+                StringBuilder sb = new StringBuilder();
+                if (!consume(']')) {
+                    do {
+                        if (sb.length() > 0) sb.append(';');
+                        sb.append(readValue());
+                    } while (consume(','));
+                    expect(']');
+                }
+                return sb.toString();
+            }
+            int start = pos;
+            while (pos < text.length() && ",}] \t".indexOf(text.charAt(pos)) < 0) pos++;
+            if (start == pos) throw new IllegalArgumentException("Malformed JSON: unexpected '" + c + "' at " + pos + ".");
+            String literal = text.substring(start, pos);
+            return literal.equals("null") ? "" : literal;
+        }
+    }
+
+    // Groups the file into chunks of records, tracking line numbers and multi-line CSV fields
+    private static class RecordReader {
+        private final BufferedReader reader;
+        private final Format format;
+        private long lineNumber = 0;
+        private boolean headerChecked = false;
+
+        RecordReader(BufferedReader reader, Format format) {
+            this.reader = reader;
+            this.format = format;
+        }
+
+        Chunk nextChunk() throws IOException {
+            Chunk chunk = new Chunk();
+            String line;
+            while (chunk.records.size() < CHUNK_SIZE && (line = reader.readLine()) != null) {
+                lineNumber++;
+                long startLine = lineNumber;
+                if (line.trim().isEmpty()) continue;
+
+                if (format == Format.CSV) {
+                    // A record continues while it has an unclosed quote
+                    int quotes = countQuotes(line);
+                    StringBuilder record = null;
+                    while (quotes % 2 != 0) {
+                        String next = reader.readLine();
+                        if (next == null) break;
+                        lineNumber++;
+                        if (record == null) record = new StringBuilder(line);
+                        record.append('\n').append(next);
+                        quotes += countQuotes(next);
+                    }
+                    if (record != null) line = record.toString();
+                    if (!headerChecked) {
+                        headerChecked = true;
+                        if (line.regionMatches(true, 0, "callerName", 0, "callerName".length())) continue;
+                    }
+                }
+                chunk.records.add(line);
+                chunk.lines.add(startLine);
+            }
+            return chunk.records.isEmpty() ? null : chunk;
+        }
+
+        private static int countQuotes(String text) {
+            int quotes = 0;
+            for (int i = 0; i < text.length(); i++) {
+                if (text.charAt(i) == '"') quotes++;
+            }
+            return quotes;
+        }
+    }
+}
@@ -0,0 +1,353 @@
+// ==================================
+// CallValidator.java
+// Description: Shared validation and normalization for every call intake path
+// ==================================
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * Validates and normalizes caller name, phone number, description and services.
+ * Used by the console menu, the GUI form, EmergencyServiceManager and bulk import,
+ * so every path applies the same rules.
+ *
+ * All checks are hand-written character loops: nothing recompiles a regex and the
+ * single-field checks allocate nothing, so large batches validate quickly.
+ */
+public final class CallValidator {
+
+    public static final String COUNTRY_CODE = "+44";
+
+    // Column positions of a raw row passed to validateBatch
+    public static final int NAME = 0;
+    public static final int PHONE = 1;
+    public static final int DESCRIPTION = 2;
+    public static final int SERVICES = 3;
+    public static final int TIMESTAMP = 4; // Optional ISO-8601 date-time
+
+    private static final int FIRE_BIT = 1;
+    private static final int POLICE_BIT = 2;
+    private static final int AMBULANCE_BIT = 4;
+    private static final int INVALID = -1;
+    private static final int DUPLICATE = -2;
+
+    private CallValidator() {
+    }
+
+    /** A rejected row from validateBatch. */
+    public static class Rejection {
+        private final int index;
+        private final String reason;
+
+        public Rejection(int index, String reason) {
+            this.index = index;
+            this.reason = reason;
+        }
+
+        /** Position of the row in the batch. */
+        public int getIndex() {
+            return index;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+
+        @Override
+        public String toString() {
+            return "Row " + index + ": " + reason;
+        }
+    }
+
+    /** Accepted calls and rejected rows of one batch. */
+    public static class BatchResult {
+        private final List<EmergencyCall> accepted;
+        private final List<Rejection> rejected;
+
+        BatchResult(List<EmergencyCall> accepted, List<Rejection> rejected) {
+            this.accepted = accepted;
+            this.rejected = rejected;
+        }
+
+        public List<EmergencyCall> getAccepted() {
+            return accepted;
+        }
+
+        public List<Rejection> getRejected() {
+            return rejected;
+        }
+    }
+
+    // --- Name ---
+
+    /**
+     * Checks that a name contains only letters and spaces.
+     * @param name Trimmed caller name.
+     * @return true if valid.
+     */
+    public static boolean isValidName(String name) {
+        if (name == null || name.isEmpty()) return false;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (!((c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || c == ' ')) return false;
+        }
+        return true;
+    }
+
+    // --- Phone ---
+
+    /**
+     * Checks for a UK number of 10-11 digits, with or without the +44 prefix.
+     * @param phone Trimmed phone number.
+     * @return true if valid.
+     */
+    public static boolean isValidPhone(String phone) {
+        if (phone == null) return false;
+        int start = phone.startsWith(COUNTRY_CODE) ? COUNTRY_CODE.length() : 0;
+        int digits = phone.length() - start;
+        if (digits < 10 || digits > 11) return false;
+        for (int i = start; i < phone.length(); i++) {
+            char c = phone.charAt(i);
+            if (c < '0' || c > '9') return false;
+        }
+        return true;
+    }
+
+    /**
+     * Normalizes a valid phone number to the stored form: +44 and the national number
+     * without its trunk 0, so "07123456789" and "+4407123456789" are both "+447123456789".
+     * @param phone Trimmed phone number, with or without +44.
+     * @return The normalized number, or null if invalid.
+     */
+    public static String normalizePhone(String phone) {
+        if (!isValidPhone(phone)) return null;
+        return canonicalPhone(phone);
+    }
+
+    /**
+     * The stored form of any phone number, including ones stored before numbers were
+     * normalized this way. Indexes and filters compare numbers in this form.
+     * @param phone Phone number as entered or stored.
+     * @return +44 followed by the national number.
+     */
+    public static String canonicalPhone(String phone) {
+        return COUNTRY_CODE + nationalNumber(phone);
+    }
+
+    /**
+     * Normalizes the start of a phone number the way normalizePhone does a whole one,
+     * so "07123", "7123" and "+4407123" are all "+447123".
+     * @param prefix Trimmed, non-empty start of a phone number.
+     * @return The prefix in stored form; a prefix for another country code is kept as is.
+     */
+    public static String normalizePhonePrefix(String prefix) {
+        StringBuilder digits = new StringBuilder(prefix.length());
+        for (int i = 0; i < prefix.length(); i++) {
+            char c = prefix.charAt(i);
+            if (c >= '0' && c <= '9') digits.append(c);
+        }
+        int start = 0;
+        if (prefix.startsWith("+")) {
+            String countryDigits = COUNTRY_CODE.substring(1);
+            if (countryDigits.startsWith(digits.toString())) return "+" + digits; // Part of the country code
+            if (digits.indexOf(countryDigits) != 0) return "+" + digits;        // Another country: matches nothing stored
+            start = countryDigits.length();
+        }
+        while (start < digits.length() && digits.charAt(start) == '0') start++;
+        return COUNTRY_CODE + digits.substring(start);
+    }
+
+    /**
+     * Reduces any phone number to its national digits so "+4407123..." and "07123..." compare equal.
+     * @param phone Phone number as entered or stored.
+     * @return Digits without country code or trunk prefix.
+     */
+    public static String nationalNumber(String phone) {
+        StringBuilder digits = new StringBuilder(phone.length());
+        for (int i = 0; i < phone.length(); i++) {
+            char c = phone.charAt(i);
+            if (c >= '0' && c <= '9') digits.append(c);
+        }
+        int start = 0;
+        if (digits.length() > 11 && digits.charAt(0) == '4' && digits.charAt(1) == '4') start = 2;
+        while (start < digits.length() && digits.charAt(start) == '0') start++;
+        return digits.substring(start);
+    }
+
+    // --- Description ---
+
+    /**
+     * @param description Trimmed description.
+     * @return true if a description was provided.
+     */
+    public static boolean isValidDescription(String description) {
+        return description != null && !description.isEmpty();
+    }
+
+    // --- Services ---
+
+    /**
+     * Explains why a service code string (e.g. "FP") is invalid.
+     * @param codes Codes as typed, spaces and case are ignored.
+     * @return Error message, or null if the codes are valid.
+     */
+    public static String serviceCodesError(String codes) {
+        int mask = codeMask(codes);
+        if (mask == INVALID) return "Invalid input. Only F, P, A letters are allowed.";
+        if (mask == DUPLICATE) return "Duplicate services are not allowed (e.g., FF, PP). Try again.";
+        if (mask == 0) return "You must select at least one service.";
+        return null;
+    }
+
+    /**
+     * Parses service codes: F = Fire, P = Police, A = Ambulance.
+     * @param codes Codes as typed, spaces and case are ignored.
+     * @return The services, or null if the codes are invalid, duplicated or empty.
+     */
+    public static EnumSet<Service> parseServiceCodes(String codes) {
+        int mask = codeMask(codes);
+        return mask > 0 ? toServices(mask) : null;
+    }
+
+    /**
+     * Parses service names such as "Fire" or "police", ignoring unknown names.
+     * @param names Service names.
+     * @return The services named, possibly empty.
+     */
+    public static EnumSet<Service> parseServiceNames(Collection<String> names) {
+        int mask = 0;
+        for (String name : names) {
+            mask |= nameBit(name, 0, name.length());
+        }
+        return toServices(mask);
+    }
+
+    /**
+     * Parses a services field from a file: either codes ("FP") or names separated
+     * by ',', ';', '|' or spaces ("Fire;Police").
+     * @param field The raw field.
+     * @return The services, or null if the field names no valid service.
+     */
+    public static EnumSet<Service> parseServices(String field) {
+        if (field == null) return null;
+        int mask = codeMask(field);
+        if (mask > 0) return toServices(mask);
+
+        mask = 0;
+        int start = 0;
+        for (int i = 0; i <= field.length(); i++) {
+            if (i == field.length() || isSeparator(field.charAt(i))) {
+                if (i > start) {
+                    int bit = nameBit(field, start, i);
+                    if (bit == 0) return null; // Unknown service name
+                    mask |= bit;
+                }
+                start = i + 1;
+            }
+        }
+        return mask > 0 ? toServices(mask) : null;
+    }
+
+    // --- Whole calls ---
+
+    /**
+     * Validates and normalizes a call from raw fields.
+     * @param name        Caller name.
+     * @param phone       Phone number, with or without +44.
+     * @param description Emergency description.
+     * @param services    Selected services.
+     * @return Error message, or null if all fields are valid.
+     */
+    public static String validate(String name, String phone, String description, EnumSet<Service> services) {
+        if (!isValidName(name)) return "Name must contain only letters.";
+        if (!isValidPhone(phone)) return "Phone must be 10-11 digits.";
+        if (!isValidDescription(description)) return "Description is required.";
+        if (services == null || services.isEmpty()) return "Select at least one service.";
+        return null;
+    }
+
+    /**
+     * Validates many raw rows at once. Each row holds the NAME, PHONE, DESCRIPTION
+     * and SERVICES columns and optionally a TIMESTAMP column.
+     * @param rows      Raw rows, fields are trimmed here.
+     * @param timestamp Time recorded on accepted calls without their own timestamp.
+     * @return Accepted calls and rejected rows with their reasons.
+     */
+    public static BatchResult validateBatch(List<String[]> rows, LocalDateTime timestamp) {
+        List<EmergencyCall> accepted = new ArrayList<>(rows.size());
+        List<Rejection> rejected = new ArrayList<>();
+        for (int i = 0; i < rows.size(); i++) {
+            String[] row = rows.get(i);
+            if (row.length <= SERVICES) {
+                rejected.add(new Rejection(i, "Expected " + (SERVICES + 1) + " fields, found " + row.length + "."));
+                continue;
+            }
+            String name = row[NAME].trim();
+            String phone = row[PHONE].trim();
+            String description = row[DESCRIPTION].trim();
+            EnumSet<Service> services = parseServices(row[SERVICES].trim());
+            String error = validate(name, phone, description, services);
+            LocalDateTime time = timestamp;
+            if (error == null && row.length > TIMESTAMP && !row[TIMESTAMP].trim().isEmpty()) {
+                try {
+                    time = LocalDateTime.parse(row[TIMESTAMP].trim());
+                } catch (DateTimeParseException e) {
+                    error = "Invalid timestamp: " + row[TIMESTAMP].trim();
+                }
+            }
+            if (error != null) {
+                rejected.add(new Rejection(i, error));
+            } else {
+                accepted.add(new EmergencyCall(name, normalizePhone(phone), description, services, time));
+            }
+        }
+        return new BatchResult(accepted, rejected);
+    }
+
+    // --- Internals ---
+
+    // Bit mask of the codes, INVALID for unknown letters or DUPLICATE for repeats
+    private static int codeMask(String codes) {
+        if (codes == null) return INVALID;
+        int mask = 0;
+        for (int i = 0; i < codes.length(); i++) {
+            char c = codes.charAt(i);
+            if (Character.isWhitespace(c)) continue;
+            int bit;
+            switch (Character.toUpperCase(c)) {
+                case 'F': bit = FIRE_BIT; break;
+                case 'P': bit = POLICE_BIT; break;
+                case 'A': bit = AMBULANCE_BIT; break;
+                default: return INVALID;
+            }
+            if ((mask & bit) != 0) return DUPLICATE;
+            mask |= bit;
+        }
+        return mask;
+    }
+
+    // Bit for the service named in text[start, end), 0 if unknown
+    private static int nameBit(String text, int start, int end) {
+        int length = end - start;
+        if (length == 4 && text.regionMatches(true, start, "fire", 0, 4)) return FIRE_BIT;
+        if (length == 6 && text.regionMatches(true, start, "police", 0, 6)) return POLICE_BIT;
+        if (length == 9 && text.regionMatches(true, start, "ambulance", 0, 9)) return AMBULANCE_BIT;
+        return 0;
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == ',' || c == ';' || c == '|' || c == ' ';
+    }
+
+    private static EnumSet<Service> toServices(int mask) {
+        EnumSet<Service> services = EnumSet.noneOf(Service.class);
+        if ((mask & FIRE_BIT) != 0) services.add(Service.FIRE);
+        if ((mask & POLICE_BIT) != 0) services.add(Service.POLICE);
+        if ((mask & AMBULANCE_BIT) != 0) services.add(Service.AMBULANCE);
+        return services;
+    }
+}
@@ -0,0 +1,73 @@
+// ==================================
+// CallValidatorBenchmark.java
+// Description: Measures CallValidator throughput against the old regex checks
+// ==================================
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Simple benchmark for CallValidator. Run with an optional row count:
+ * java CallValidatorBenchmark 2000000
+ */
+public class CallValidatorBenchmark {
+
+    private static final String[] NAMES = {"John Smith", "Jane Doe", "Bad Name 42", "Priya Patel", "O'Neil"};
+    private static final String[] PHONES = {"07123456789", "+447123456789", "0712345", "7123456789", "07abc456789"};
+    private static final String[] DESCRIPTIONS = {"House fire on Baker Street", "Car accident", "", "Break-in reported"};
+    private static final String[] SERVICES = {"F", "FP", "PA", "Fire;Police", "FF", "X"};
+
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        List<String[]> rows = generateRows(count, new Random(42));
+        System.out.println("===== CallValidator Benchmark (" + count + " rows) =====");
+
+        for (int round = 1; round <= ROUNDS; round++) {
+            long regexValid = 0, validatorValid = 0;
+
+            long start = System.nanoTime();
+            for (String[] row : rows) {
+                if (row[CallValidator.NAME].matches("[A-Za-z ]+")
+                        && row[CallValidator.PHONE].matches("\\d{10,11}")) regexValid++;
+            }
+            long regexNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (String[] row : rows) {
+                if (CallValidator.isValidName(row[CallValidator.NAME])
+                        && CallValidator.isValidPhone(row[CallValidator.PHONE])) validatorValid++;
+            }
+            long validatorNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            CallValidator.BatchResult batch = CallValidator.validateBatch(rows, LocalDateTime.now());
+            long batchNanos = System.nanoTime() - start;
+
+            System.out.printf("Round %d: regex %s (%d valid) | validator %s (%d valid) | batch %s (%d accepted, %d rejected)\n",
+                    round, rate(count, regexNanos), regexValid, rate(count, validatorNanos), validatorValid,
+                    rate(count, batchNanos), batch.getAccepted().size(), batch.getRejected().size());
+        }
+    }
+
+    // Random mix of valid and invalid rows
+    private static List<String[]> generateRows(int count, Random random) {
+        List<String[]> rows = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            rows.add(new String[]{
+                    NAMES[random.nextInt(NAMES.length)],
+                    PHONES[random.nextInt(PHONES.length)],
+                    DESCRIPTIONS[random.nextInt(DESCRIPTIONS.length)],
+                    SERVICES[random.nextInt(SERVICES.length)]
+            });
+        }
+        return rows;
+    }
+
+    private static String rate(int count, long nanos) {
+        return String.format("%,.0f rows/s", count / (nanos / 1e9));
+    }
+}
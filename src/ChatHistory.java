@@ -0,0 +1,200 @@
+// ==================================
+// ChatHistory.java
+// Description: Bounded in-memory chat history backed by an append-only chat log file
+// ==================================
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the most recent chat messages in a fixed-size ring and writes every message to
+ * an append-only chat log, so memory use stays flat however long a session runs.
+ * Older messages are read back from the log a page at a time when needed.
+ *
+ * The log holds one record per message: int length, long epoch millis (UTC),
+ * byte sender, UTF-8 text. A companion ".idx" file holds the 8-byte log offset of
+ * every message, so message n is found without scanning the log.
+ * Existing files are reopened, so the history continues across sessions.
+ */
+public class ChatHistory implements Closeable {
+
+    public static final int DEFAULT_CAPACITY = 200;
+
+    private static final int RECORD_HEADER = 4 + 8 + 1; // Length, timestamp, sender
+
+    private final ChatMessage[] ring; // Message n is at ring[n % capacity] while n >= size - capacity
+    private final FileChannel log;
+    private final FileChannel index;
+    private long size;                 // Messages ever added
+    private long logEnd;               // Offset where the next record goes
+
+    /**
+     * Opens the chat log, creating it if missing.
+     * @param logFile  The chat log; the index is kept next to it.
+     * @param capacity Number of recent messages kept in memory.
+     * @throws IOException If the files cannot be opened.
+     */
+    public ChatHistory(Path logFile, int capacity) throws IOException {
+        ring = new ChatMessage[capacity];
+        log = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        index = FileChannel.open(Paths.get(logFile + ".idx"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        recover();
+        for (ChatMessage message : readFromLog(Math.max(0, size - capacity), capacity)) {
+            ring[(int) (message.getIndex() % capacity)] = message;
+        }
+    }
+
+    /**
+     * Adds a message at the end of the history and writes it to the log.
+     * @param sender Author of the message.
+     * @param text   Message text.
+     * @return The stored message.
+     */
+    public synchronized ChatMessage add(ChatMessage.Sender sender, String text) {
+        ChatMessage message = new ChatMessage(size, sender, text, LocalDateTime.now());
+        try {
+            byte[] body = text.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + body.length);
+            record.putInt(8 + 1 + body.length)
+                    .putLong(message.getTimestamp().toInstant(ZoneOffset.UTC).toEpochMilli())
+                    .put((byte) sender.ordinal())
+                    .put(body)
+                    .flip();
+            writeFully(log, record, logEnd);
+            ByteBuffer offset = ByteBuffer.allocate(8);
+            offset.putLong(logEnd).flip();
+            writeFully(index, offset, size * 8); // Written after the record, so a crash never indexes a partial one
+            logEnd += RECORD_HEADER + body.length;
+        } catch (IOException e) {
+            System.out.println("Error saving chat message: " + e.getMessage());
+        }
+        ring[(int) (size % ring.length)] = message;
+        size++;
+        return message;
+    }
+
+    /** Number of messages in the history, including those only in the log. */
+    public synchronized long size() {
+        return size;
+    }
+
+    /**
+     * Reads consecutive messages, from memory when recent and from the log otherwise.
+     * @param from  Index of the first message.
+     * @param count Most messages to return.
+     * @return Messages from..from+count-1 that exist, oldest first.
+     */
+    public synchronized List<ChatMessage> read(long from, int count) {
+        long start = Math.max(0, from);
+        long end = Math.min(size, from + count);
+        if (start >= end) return new ArrayList<>();
+        long oldestInMemory = Math.max(0, size - ring.length);
+        if (start >= oldestInMemory) {
+            List<ChatMessage> page = new ArrayList<>((int) (end - start));
+            for (long i = start; i < end; i++) page.add(ring[(int) (i % ring.length)]);
+            return page;
+        }
+        try {
+            return readFromLog(start, (int) (end - start));
+        } catch (IOException e) {
+            System.out.println("Error loading chat history: " + e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Reads the page of messages just before a given one, for scrolling back.
+     * @param before Index of the oldest message already shown.
+     * @param count  Most messages to return.
+     * @return The older messages, oldest first; empty at the start of the history.
+     */
+    public List<ChatMessage> readBefore(long before, int count) {
+        long from = Math.max(0, before - count);
+        return read(from, (int) (before - from));
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        log.close();
+        index.close();
+    }
+
+    // --- Internals ---
+
+    // Drops a trailing record or index entry left by a crash mid-write
+    private void recover() throws IOException {
+        size = index.size() / 8;
+        long logSize = log.size();
+        while (size > 0) {
+            long offset = readLong(index, (size - 1) * 8);
+            if (offset + 4 <= logSize) {
+                long end = offset + 4 + readInt(log, offset);
+                if (end <= logSize) {
+                    logEnd = end;
+                    break;
+                }
+            }
+            size--;
+        }
+        if (size == 0) logEnd = 0;
+        index.truncate(size * 8);
+        log.truncate(logEnd);
+    }
+
+    private List<ChatMessage> readFromLog(long from, int count) throws IOException {
+        List<ChatMessage> page = new ArrayList<>(count);
+        if (count <= 0 || from >= size) return page;
+        long last = Math.min(size, from + count);
+        long start = readLong(index, from * 8);
+        long end = last == size ? logEnd : readLong(index, last * 8);
+        ByteBuffer buffer = ByteBuffer.allocate((int) (end - start));
+        readFully(log, buffer, start);
+        buffer.flip();
+        for (long i = from; i < last; i++) {
+            int length = buffer.getInt();
+            long millis = buffer.getLong();
+            ChatMessage.Sender sender = ChatMessage.Sender.values()[buffer.get()];
+            byte[] body = new byte[length - 9];
+            buffer.get(body);
+            LocalDateTime time = LocalDateTime.ofEpochSecond(Math.floorDiv(millis, 1000L),
+                    (int) Math.floorMod(millis, 1000L) * 1_000_000, ZoneOffset.UTC);
+            page.add(new ChatMessage(i, sender, new String(body, StandardCharsets.UTF_8), time));
+        }
+        return page;
+    }
+
+    private static long readLong(FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        readFully(channel, buffer, position);
+        return buffer.getLong(0);
+    }
+
+    private static int readInt(FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4);
+        readFully(channel, buffer, position);
+        return buffer.getInt(0);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position + buffer.position());
+            if (n < 0) throw new EOFException("Chat log is truncated.");
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+}
@@ -0,0 +1,59 @@
+// ==================================
+// ChatMessage.java
+// Description: Represents a single message in the assistant/admin chat
+// ==================================
+
+import java.time.LocalDateTime;
+
+/**
+ * ChatMessage holds one chat entry: who sent it, the text and when it was sent.
+ * Messages are numbered by ChatHistory in the order they were added.
+ */
+public class ChatMessage {
+
+    /** Who wrote a message. */
+    public enum Sender { USER, ASSISTANT }
+
+    private final long index;             // Position in the chat history, from 0
+    private final Sender sender;          // Author of the message
+    private final String text;            // Message text, may span several lines
+    private final LocalDateTime timestamp; // Time the message was sent
+
+    /**
+     * Constructor for ChatMessage object.
+     *
+     * @param index     Position in the chat history
+     * @param sender    Author of the message
+     * @param text      Message text
+     * @param timestamp Time the message was sent
+     */
+    public ChatMessage(long index, Sender sender, String text, LocalDateTime timestamp) {
+        this.index = index;
+        this.sender = sender;
+        this.text = text;
+        this.timestamp = timestamp;
+    }
+
+    // --- Getters ---
+
+    public long getIndex() {
+        return index;
+    }
+
+    public Sender getSender() {
+        return sender;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public LocalDateTime getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public String toString() {
+        return sender + ": " + text;
+    }
+}
@@ -0,0 +1,50 @@
+// ==================================
+// Compactor.java
+// Description: Background scheduling of call store compaction
+// ==================================
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when a store has enough removed calls to be worth compacting, and runs the
+ * compactions on one background thread. A compaction runs one undo window after it is
+ * scheduled, so the removals that triggered it can no longer be undone by then.
+ *
+ * The defaults suit stores of a few hundred to a few thousand calls, where the removed
+ * calls would otherwise pile up for good; larger stores can raise them (see
+ * CallStore.COMPACT_MIN_REMOVED_PROPERTY and COMPACT_MIN_PERCENT_PROPERTY).
+ */
+final class Compactor {
+
+    static final int MIN_REMOVED = Integer.getInteger(CallStore.COMPACT_MIN_REMOVED_PROPERTY, 50); // Removed calls before compacting is worthwhile
+    static final int MIN_PERCENT = Integer.getInteger(CallStore.COMPACT_MIN_PERCENT_PROPERTY, 10); // ... and their share of all stored calls
+
+    // One thread for every store, since each compaction rewrites a whole store file
+    private static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "call-store-compactor");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private Compactor() {
+    }
+
+    /**
+     * @param removed Removed calls still held by the store.
+     * @param total   All calls held, removed ones included.
+     * @return true if the store should be compacted.
+     */
+    static boolean isDue(int removed, int total) {
+        return removed >= MIN_REMOVED && removed * 100L >= (long) total * MIN_PERCENT;
+    }
+
+    /**
+     * Runs a compaction once the undo window has passed.
+     * @param compaction The store's compaction.
+     */
+    static void schedule(Runnable compaction) {
+        EXECUTOR.schedule(compaction, CallStore.UNDO_WINDOW.toMillis(), TimeUnit.MILLISECONDS);
+    }
+}
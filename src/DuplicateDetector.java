@@ -0,0 +1,325 @@
+// ==================================
+// DuplicateDetector.java
+// Description: Flags likely duplicate reports of the same incident at ingest time
+// ==================================
+
+import java.time.Duration;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.LongFunction;
+
+/**
+ * Detects near-duplicate emergency calls within a sliding time window.
+ * A call is flagged when the same (normalized) phone number called recently, or when
+ * a recent call has a highly similar description and shares at least one service.
+ *
+ * Descriptions are reduced to MinHash signatures and bucketed with LSH banding, and
+ * every bucket is capped, so each check touches a bounded number of candidates no
+ * matter how many calls are in the window.
+ *
+ * Calls need not arrive in time order (bulk imports, log replay): the window follows
+ * the most recent call seen, and a candidate only matches when the two calls are within
+ * the window of each other.
+ *
+ * A detector made with a lookup keeps only ids and keys in the window and asks the
+ * store for the original calls it reports, for stores that hold calls off the heap.
+ */
+public class DuplicateDetector {
+
+    public static final Duration DEFAULT_WINDOW = Duration.ofMinutes(15);
+
+    private static final int BANDS = 6;                     // LSH bands per signature
+    private static final int ROWS_PER_BAND = 4;             // Hashes per band
+    private static final int NUM_HASHES = BANDS * ROWS_PER_BAND;
+    private static final double SIMILARITY_THRESHOLD = 0.6; // Minimum estimated Jaccard similarity
+    private static final int MAX_BUCKET_SIZE = 32;          // Candidates kept per bucket
+    private static final int MAX_MATCHES = 5;               // Matches reported per call
+
+    private static final long[] SEEDS = new long[NUM_HASHES];
+    static {
+        long seed = 0x9E3779B97F4A7C15L;
+        for (int i = 0; i < NUM_HASHES; i++) {
+            seed = mix(seed + i);
+            SEEDS[i] = seed;
+        }
+    }
+
+    /** Why a call was flagged as a possible duplicate. */
+    public enum Reason { SAME_CALLER, SIMILAR_DESCRIPTION }
+
+    /** A recent call that the new call probably duplicates. */
+    public static class Match {
+        private final EmergencyCall original;
+        private final Reason reason;
+        private final double similarity;
+
+        Match(EmergencyCall original, Reason reason, double similarity) {
+            this.original = original;
+            this.reason = reason;
+            this.similarity = similarity;
+        }
+
+        public EmergencyCall getOriginal() {
+            return original;
+        }
+
+        public Reason getReason() {
+            return reason;
+        }
+
+        /** Estimated description similarity between 0 and 1. */
+        public double getSimilarity() {
+            return similarity;
+        }
+
+        @Override
+        public String toString() {
+            return (reason == Reason.SAME_CALLER ? "Same caller" : "Similar description")
+                    + " as " + original.getCallerName() + " (" + original.getPhoneNumber() + ")";
+        }
+    }
+
+    // One call held in the window with its precomputed keys
+    private static class Entry {
+        final long id;
+        final EmergencyCall call;           // Null when the detector looks calls up by id
+        final EnumSet<Service> services;
+        final long timeMillis;
+        final long sequence;   // Ingest order, breaks ties between equal times
+        final String phoneKey; // Empty when the number has no digits
+        final int[] signature;
+        final long[] bandKeys;
+
+        Entry(long id, EmergencyCall call, EnumSet<Service> services, long timeMillis, long sequence,
+              String phoneKey, int[] signature, long[] bandKeys) {
+            this.id = id;
+            this.call = call;
+            this.services = services;
+            this.timeMillis = timeMillis;
+            this.sequence = sequence;
+            this.phoneKey = phoneKey;
+            this.signature = signature;
+            this.bandKeys = bandKeys;
+        }
+    }
+
+    private final long windowMillis;
+    private final LongFunction<EmergencyCall> lookup;        // Finds indexed calls by id, null if entries hold them
+    private final TreeSet<Entry> window = new TreeSet<>(     // Entries in time order
+            Comparator.comparingLong((Entry e) -> e.timeMillis).thenComparingLong(e -> e.sequence));
+    private final Map<Long, Entry> byId = new HashMap<>();   // Entries of calls that have an id
+    private final Map<String, ArrayDeque<Entry>> byPhone = new HashMap<>();
+    private final Map<Long, ArrayDeque<Entry>> byBand = new HashMap<>();
+    private long latestMillis = Long.MIN_VALUE;              // Time of the most recent call seen
+    private long nextSequence;
+
+    public DuplicateDetector() {
+        this(DEFAULT_WINDOW);
+    }
+
+    /**
+     * @param window How far back a call can be and still count as a duplicate.
+     */
+    public DuplicateDetector(Duration window) {
+        this(window, null);
+    }
+
+    /**
+     * @param window How far back a call can be and still count as a duplicate.
+     * @param lookup Finds an indexed call by id when reporting it as an original, so
+     *               the window holds ids instead of calls; null to hold the calls.
+     */
+    public DuplicateDetector(Duration window, LongFunction<EmergencyCall> lookup) {
+        this.windowMillis = window.toMillis();
+        this.lookup = lookup;
+    }
+
+    /**
+     * Checks a new call against the window without indexing it. Call index() once the
+     * call has its id.
+     * @param call The call being ingested.
+     * @return Possible duplicates, empty if none were found.
+     */
+    public synchronized List<Match> check(EmergencyCall call) {
+        Entry entry = toEntry(call, true);
+
+        List<Match> matches = new ArrayList<>();
+        Set<Entry> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        ArrayDeque<Entry> samePhone = entry.phoneKey.isEmpty() ? null : byPhone.get(entry.phoneKey);
+        if (samePhone != null) {
+            for (Entry other : samePhone) {
+                if (matches.size() >= MAX_MATCHES) break;
+                if (!withinWindow(entry, other) || !seen.add(other)) continue;
+                EmergencyCall original = original(other);
+                if (original != null) matches.add(new Match(original, Reason.SAME_CALLER, similarity(entry, other)));
+            }
+        }
+
+        for (long bandKey : entry.bandKeys) {
+            ArrayDeque<Entry> bucket = byBand.get(bandKey);
+            if (bucket == null) continue;
+            for (Entry other : bucket) {
+                if (matches.size() >= MAX_MATCHES) break;
+                if (seen.contains(other) || !withinWindow(entry, other) || !sharesService(entry.services, other.services)) continue;
+                double similarity = similarity(entry, other);
+                if (similarity >= SIMILARITY_THRESHOLD) {
+                    seen.add(other);
+                    EmergencyCall original = original(other);
+                    if (original != null) matches.add(new Match(original, Reason.SIMILAR_DESCRIPTION, similarity));
+                }
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Adds a call to the window, e.g. after check() or when replaying stored calls on load.
+     * A call older than the window is not kept.
+     * @param call The call to index; replaces an earlier entry with the same id.
+     */
+    public synchronized void index(EmergencyCall call) {
+        remove(call.getId());
+        Entry entry = toEntry(call, lookup == null);
+        latestMillis = Math.max(latestMillis, entry.timeMillis);
+        evictBefore(latestMillis - windowMillis);
+        if (entry.timeMillis < latestMillis - windowMillis) return;
+        insert(entry);
+    }
+
+    /**
+     * Takes a removed call out of the window so it is no longer reported as a duplicate.
+     * @param id Id of the removed call.
+     */
+    public synchronized void remove(long id) {
+        Entry entry = byId.get(id);
+        if (entry != null) {
+            window.remove(entry);
+            unlink(entry);
+        }
+    }
+
+    // --- Internals ---
+
+    private Entry toEntry(EmergencyCall call, boolean keepCall) {
+        long time = call.getTimestamp().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        int[] signature = signature(call.getDescription());
+        long[] bandKeys = signature == null ? new long[0] : bandKeys(signature);
+        EnumSet<Service> services = keepCall ? call.getServicesRequired() : EnumSet.copyOf(call.getServicesRequired());
+        return new Entry(call.getId(), keepCall ? call : null, services, time, nextSequence++,
+                CallValidator.nationalNumber(call.getPhoneNumber()), signature, bandKeys);
+    }
+
+    // The call an entry stands for, null if the store no longer has it
+    private EmergencyCall original(Entry entry) {
+        return entry.call != null ? entry.call : lookup.apply(entry.id);
+    }
+
+    private boolean withinWindow(Entry a, Entry b) {
+        return Math.abs(a.timeMillis - b.timeMillis) <= windowMillis;
+    }
+
+    private void insert(Entry entry) {
+        window.add(entry);
+        if (entry.id != 0) byId.put(entry.id, entry);
+        if (!entry.phoneKey.isEmpty()) {
+            addToBucket(byPhone.computeIfAbsent(entry.phoneKey, k -> new ArrayDeque<>()), entry);
+        }
+        for (long bandKey : entry.bandKeys) {
+            addToBucket(byBand.computeIfAbsent(bandKey, k -> new ArrayDeque<>()), entry);
+        }
+    }
+
+    private static void addToBucket(ArrayDeque<Entry> bucket, Entry entry) {
+        bucket.addLast(entry);
+        if (bucket.size() > MAX_BUCKET_SIZE) bucket.pollFirst(); // Oldest candidate drops out
+    }
+
+    private void evictBefore(long cutoffMillis) {
+        while (!window.isEmpty() && window.first().timeMillis < cutoffMillis) {
+            unlink(window.pollFirst());
+        }
+    }
+
+    // Removes an entry that has left the window from the id map and its buckets
+    private void unlink(Entry entry) {
+        if (byId.get(entry.id) == entry) byId.remove(entry.id);
+        if (!entry.phoneKey.isEmpty()) removeFromBucket(byPhone, entry.phoneKey, entry);
+        for (long bandKey : entry.bandKeys) {
+            removeFromBucket(byBand, bandKey, entry);
+        }
+    }
+
+    // Entries do not override equals, so this removes this very entry wherever it is in the bucket
+    private static <K> void removeFromBucket(Map<K, ArrayDeque<Entry>> index, K key, Entry entry) {
+        ArrayDeque<Entry> bucket = index.get(key);
+        if (bucket == null) return;
+        bucket.removeFirstOccurrence(entry);
+        if (bucket.isEmpty()) index.remove(key);
+    }
+
+    private static boolean sharesService(EnumSet<Service> a, EnumSet<Service> b) {
+        for (Service s : a) {
+            if (b.contains(s)) return true;
+        }
+        return false;
+    }
+
+    // Fraction of agreeing MinHash values, an estimate of the Jaccard similarity of the word sets
+    private static double similarity(Entry a, Entry b) {
+        if (a.signature == null || b.signature == null) return 0;
+        int same = 0;
+        for (int i = 0; i < NUM_HASHES; i++) {
+            if (a.signature[i] == b.signature[i]) same++;
+        }
+        return (double) same / NUM_HASHES;
+    }
+
+    // MinHash signature of the description's word set, or null when it has no words
+    private static int[] signature(String description) {
+        Set<String> words = new HashSet<>(CallSearchIndex.tokenize(description));
+        if (words.isEmpty()) return null;
+
+        int[] signature = new int[NUM_HASHES];
+        Arrays.fill(signature, Integer.MAX_VALUE);
+        for (String word : words) {
+            long h = word.hashCode();
+            for (int i = 0; i < NUM_HASHES; i++) {
+                int value = (int) mix(h ^ SEEDS[i]);
+                if (value < signature[i]) signature[i] = value;
+            }
+        }
+        return signature;
+    }
+
+    private static long[] bandKeys(int[] signature) {
+        long[] keys = new long[BANDS];
+        for (int band = 0; band < BANDS; band++) {
+            long key = band;
+            for (int row = 0; row < ROWS_PER_BAND; row++) {
+                key = key * 31 + signature[band * ROWS_PER_BAND + row];
+            }
+            keys[band] = mix(key);
+        }
+        return keys;
+    }
+
+    // 64-bit finalizer from SplitMix64
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -13,6 +13,7 @@ import java.util.EnumSet;
  */
 public class EmergencyCall implements Serializable {
 
+    private long id;                               // Store-assigned id, 0 until stored
     private String callerName;                     // Name of the caller
     private String phoneNumber;                    // Phone number (+44 formatted)
     private String description;                    // Description of emergency
@@ -41,6 +42,19 @@ public class EmergencyCall implements Serializable {
 
     // --- Getters ---
 
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Assigns the store id. Only the call store sets this.
+     *
+     * @param id Unique id within the store
+     */
+    void setId(long id) {
+        this.id = id;
+    }
+
     public String getCallerName() {
         return callerName;
     }
@@ -71,6 +85,24 @@ public class EmergencyCall implements Serializable {
         return servicesRequired.contains(service);
     }
 
+    /**
+     * Stored calls are equal when they have the same id, so a call decoded again from a
+     * store (see OffHeapCallStore) matches the copy already shown. Unstored calls (id 0)
+     * are only equal to themselves.
+     */
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) return true;
+        if (!(other instanceof EmergencyCall)) return false;
+        EmergencyCall call = (EmergencyCall) other;
+        return id != 0 && id == call.id;
+    }
+
+    @Override
+    public int hashCode() {
+        return id != 0 ? Long.hashCode(id) : System.identityHashCode(this);
+    }
+
     /**
      * String representation of the Emergency Call.
      */
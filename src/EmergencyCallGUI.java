@@ -1,13 +1,18 @@
 // EmergencyCallGUI.java
 
 
+import javafx.animation.AnimationTimer;
 import javafx.animation.PauseTransition;
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.beans.property.ReadOnlyStringWrapper;
 import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
 import javafx.geometry.Insets;
+import javafx.geometry.Orientation;
 import javafx.geometry.Pos;
+import javafx.scene.Node;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
 import javafx.scene.control.cell.PropertyValueFactory;
@@ -21,28 +26,63 @@ import javafx.stage.Stage;
 import javafx.util.Duration;
 import java.io.*;
 import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class EmergencyCallGUI extends Application {
     // Main layout components
     private BorderPane mainLayout;
-    private VBox chatMessages;
-    private ScrollPane chatScrollPane;
+    private ListView<ChatMessage> chatList; // Shows a window of the chat history, reusing cells
+    private ChatHistory chatHistory; // Recent messages in memory, the rest in the chat log
+    private long chatWindowStart; // History index of the first message in chatList
     private TextField userInput;
-    private Label typingIndicator;
+    private final IntentEngine intentEngine = loadIntents(); // Picks the assistant's replies
     private VBox chatPanel;
-    private CallList callList = new CallList();
+    private CallStore callList; // Loaded in the background, null until ready
     private VBox detailBox;
     private TableView<EmergencyCall> tableView;
+    private String tableFilter = "Filter by: All"; // Filter last applied to the table
+    private String tableSearch = ""; // Description search applied to the table, empty for none
+    private AnimationTimer tableFiller; // Appends rows to the table a chunk per frame
+    private boolean tableFilling; // True until the filler has appended every row
+    private CallQuery tableQuery; // Query behind the rows shown, null until the store is loaded
+    private long tableSequence; // Last change-feed sequence the table reflects
+    private final Set<Long> tableIds = new HashSet<>(); // Ids of the table's calls, including rows not appended yet
+    private final List<CallChangeFeed.ChangeEvent> queuedChanges = new ArrayList<>(); // Arrived while the table was filling
+    private HBox loadingBox; // Loading state shown in the navigation bar
+    private VBox homeView; // Built once and reused on every Home click
     private boolean chattingWithAdmin = false;
 
+    // Shared resources cached so navigation does not reload them
+    private static final Map<String, Image> IMAGE_CACHE = new HashMap<>();
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm");
+    private static final int ROWS_PER_FRAME = 250;
+    private static final String CHAT_LOG_FILE = "chat_history.log";
+    private static final int CHAT_WINDOW = 150; // Most messages the chat list holds at once
+    private static final int CHAT_PAGE = 50; // Messages paged in per scroll step
+    private static final String USER_BUBBLE = "-fx-background-color: #25D366; -fx-text-fill: white; -fx-background-radius: 15 15 0 15;";
+    private static final String ASSISTANT_BUBBLE = "-fx-background-color: #d2e3fc; -fx-text-fill: black; -fx-background-radius: 15 15 15 0;";
+
     public static void main(String[] args) {
         launch(args);
     }
 
+    @Override
+    public void stop() throws IOException {
+        if (chatHistory != null) chatHistory.close();
+    }
+
     @Override
     public void start(Stage stage) {
         // Set up main scene and layout
@@ -66,12 +106,20 @@ public class EmergencyCallGUI extends Application {
         view.setOnAction(e -> showView());
         remove.setOnAction(e -> showRemove());
 
-        nav.getChildren().addAll(home, add, view, remove);
+        // Loading state, hidden once the call store is ready
+        ProgressIndicator loadingProgress = new ProgressIndicator();
+        loadingProgress.setPrefSize(18, 18);
+        Label loadingLabel = new Label("Loading calls...");
+        loadingLabel.setTextFill(Color.WHITE);
+        loadingBox = new HBox(8, loadingProgress, loadingLabel);
+        loadingBox.setAlignment(Pos.CENTER);
+
+        nav.getChildren().addAll(home, add, view, remove, loadingBox);
         mainLayout.setTop(nav);
         showHome(); // Initial view
 
         // Chat icon setup
-        ImageView chatIcon = new ImageView(new Image("images/chat_icon.png"));
+        ImageView chatIcon = new ImageView(cachedImage("/images/chat_icon.png"));
         chatIcon.setFitWidth(45);
         chatIcon.setFitHeight(45);
         StackPane.setAlignment(chatIcon, Pos.BOTTOM_RIGHT);
@@ -87,6 +135,52 @@ public class EmergencyCallGUI extends Application {
         stage.setTitle("Emergency Call System with AI Assistant");
         stage.setScene(scene);
         stage.show();
+
+        loadCallsInBackground(); // Window is already visible while the store loads
+    }
+
+    // Loads the call store off the JavaFX thread and refreshes the current table once ready
+    private void loadCallsInBackground() {
+        Task<CallStore> loadTask = new Task<CallStore>() {
+            @Override
+            protected CallStore call() {
+                return CallStore.open(); // Single file or sharded, see CallStore.SHARDS_PROPERTY
+            }
+        };
+        loadTask.setOnSucceeded(e -> {
+            callList = loadTask.getValue();
+            // Apply adds and removes, including other operator stations', to the table as they land
+            callList.getChangeFeed().subscribe(CallChangeFeed.LATEST, 500, new CallChangeFeed.Listener() {
+                @Override
+                public void onChanges(List<CallChangeFeed.ChangeEvent> batch) {
+                    Platform.runLater(() -> applyChanges(batch));
+                }
+
+                @Override
+                public void onGap(long missedFrom, long resumeAt) {
+                    Platform.runLater(() -> {
+                        if (tableView != null) refreshTable(tableFilter);
+                    });
+                }
+            });
+            loadingBox.setVisible(false);
+            if (tableView != null) refreshTable(tableFilter);
+        });
+        loadTask.setOnFailed(e -> {
+            Label failed = (Label) loadingBox.getChildren().get(1);
+            failed.setText("❌ Could not load calls.");
+            loadingBox.getChildren().get(0).setVisible(false);
+        });
+
+        Thread loader = new Thread(loadTask, "call-store-loader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    // Returns the image for a classpath resource, loading it only on first use
+    private static Image cachedImage(String path) {
+        return IMAGE_CACHE.computeIfAbsent(path,
+                p -> new Image(EmergencyCallGUI.class.getResourceAsStream(p)));
     }
 
     // Creates chat panel UI and adds AI assistant intro messages
@@ -102,18 +196,16 @@ public class EmergencyCallGUI extends Application {
         header.setFont(Font.font("Arial", 18));
         header.setTextFill(Color.DARKGREEN);
 
-        chatMessages = new VBox(10);
-        chatMessages.setPadding(new Insets(10));
-        chatMessages.setPrefHeight(400);
-
-        chatScrollPane = new ScrollPane(chatMessages);
-        chatScrollPane.setFitToWidth(true);
-        chatScrollPane.setVbarPolicy(ScrollPane.ScrollBarPolicy.AS_NEEDED);
-        chatScrollPane.setStyle("-fx-background: transparent;");
-
-        typingIndicator = new Label("");
-        typingIndicator.setFont(Font.font("Arial", 12));
-        typingIndicator.setTextFill(Color.GRAY);
+        // Only the visible bubbles exist as nodes; the list starts with the latest page of history
+        chatHistory = openChatHistory();
+        chatList = new ListView<>();
+        chatList.setPrefHeight(400);
+        chatList.setFocusTraversable(false);
+        chatList.setStyle("-fx-background-color: transparent; -fx-control-inner-background: #ece5dd;");
+        chatList.setCellFactory(list -> new ChatCell());
+        chatWindowStart = Math.max(0, chatHistory.size() - CHAT_PAGE);
+        chatList.getItems().setAll(chatHistory.read(chatWindowStart, CHAT_PAGE));
+        chatList.skinProperty().addListener((obs, oldSkin, newSkin) -> Platform.runLater(this::watchChatScrolling));
 
         userInput = new TextField();
         userInput.setPromptText("Type a message...");
@@ -134,7 +226,7 @@ public class EmergencyCallGUI extends Application {
 
         VBox.setMargin(inputBox, new Insets(10, 0, 0, 0));
 
-        VBox chatContainer = new VBox(10, header, chatScrollPane, typingIndicator, inputBox);
+        VBox chatContainer = new VBox(10, header, chatList, inputBox);
         panel.getChildren().add(chatContainer);
 
         Platform.runLater(() -> {
@@ -145,76 +237,155 @@ public class EmergencyCallGUI extends Application {
         return panel;
     }
 
-    // Handles user's input in the chat and simulates AI typing delay
+    // Handles user's input in the chat and replies straight away
     private void handleUserInput() {
         String input = userInput.getText().trim();
         if (input.isEmpty()) return;
 
         addMessage(input, "user");
         userInput.clear();
-
-        typingIndicator.setText("AI Assistant is typing...");
-        PauseTransition pause = new PauseTransition(Duration.seconds(1.5));
-        pause.setOnFinished(e -> {
-            typingIndicator.setText("");
-            processAIResponse(input);
-        });
-        pause.play();
+        processAIResponse(input);
     }
 
-    // Adds a new message to the chat UI from user or assistant
+    // Adds a new message from user or assistant to the chat history and shows it
     private void addMessage(String msg, String sender) {
-        Label bubble = new Label(msg);
-        bubble.setWrapText(true);
-        bubble.setMaxWidth(260);
-        bubble.setFont(Font.font("Arial", 13));
-        bubble.setPadding(new Insets(10));
-        bubble.setMinHeight(Region.USE_PREF_SIZE);
-
-        HBox container = new HBox(bubble);
-        container.setPadding(new Insets(5, 10, 5, 10));
-
-        if (sender.equalsIgnoreCase("user")) {
-            bubble.setStyle("-fx-background-color: #25D366; -fx-text-fill: white; -fx-background-radius: 15 15 0 15;");
-            container.setAlignment(Pos.CENTER_LEFT);
-        } else {
-            bubble.setStyle("-fx-background-color: #d2e3fc; -fx-text-fill: black; -fx-background-radius: 15 15 15 0;");
-            container.setAlignment(Pos.CENTER_LEFT);
-        }
+        ChatMessage message = chatHistory.add(
+                sender.equalsIgnoreCase("user") ? ChatMessage.Sender.USER : ChatMessage.Sender.ASSISTANT, msg);
 
         Platform.runLater(() -> {
-            chatMessages.getChildren().add(container);
-            chatScrollPane.setVvalue(1.0);
+            ObservableList<ChatMessage> items = chatList.getItems();
+            if (chatWindowStart + items.size() == message.getIndex()) {
+                items.add(message);
+                trimChatWindow(true);
+            } else {
+                // Scrolled back through older messages: jump to the latest page
+                chatWindowStart = Math.max(0, message.getIndex() + 1 - CHAT_PAGE);
+                items.setAll(chatHistory.read(chatWindowStart, CHAT_PAGE));
+            }
+            chatList.scrollTo(items.size() - 1);
         });
     }
 
-    // Determines how AI responds to user queries
-    private void processAIResponse(String input) {
-        String lower = input.toLowerCase();
+    // Chat bubble cell; its label and box are built once and reused as the list scrolls
+    private static class ChatCell extends ListCell<ChatMessage> {
+        private final Label bubble = new Label();
+        private final HBox container = new HBox(bubble);
+
+        ChatCell() {
+            bubble.setWrapText(true);
+            bubble.setMaxWidth(260);
+            bubble.setFont(Font.font("Arial", 13));
+            bubble.setPadding(new Insets(10));
+            bubble.setMinHeight(Region.USE_PREF_SIZE);
+            container.setPadding(new Insets(5, 10, 5, 10));
+            container.setAlignment(Pos.CENTER_LEFT);
+            setStyle("-fx-background-color: transparent; -fx-padding: 0;");
+            setPrefWidth(0); // Follow the list's width rather than the bubble's
+        }
 
-        if (chattingWithAdmin) return;
+        @Override
+        protected void updateItem(ChatMessage message, boolean empty) {
+            super.updateItem(message, empty);
+            setText(null);
+            if (empty || message == null) {
+                setGraphic(null);
+                return;
+            }
+            bubble.setText(message.getText());
+            bubble.setStyle(message.getSender() == ChatMessage.Sender.USER ? USER_BUBBLE : ASSISTANT_BUBBLE);
+            setGraphic(container);
+        }
+    }
 
-        if (lower.contains("add")) {
-            addMessage("📋 To add a new emergency call:\n• Click 'Add Call'.\n• Fill in a valid name (letters only).\n• Phone: 10-11 digits.\n• Add a description.\n• Select service(s).\n• Click 'Submit'.", "assistant");
-        } else if (lower.contains("view")) {
-            addMessage("📑 To view calls:\n• Click 'View Calls'.\n• Use filters.\n• Click a row to view details.", "assistant");
-        } else if (lower.contains("remove")) {
-            addMessage("🗑️ To remove a call:\n• Click 'Remove Call'.\n• Select and click 'Remove Selected Call'.", "assistant");
-        } else if (lower.contains("admin") || lower.contains("talk")) {
-            addMessage("🔔 Connecting you to a live admin... Please wait.", "assistant");
-            PauseTransition pause = new PauseTransition(Duration.seconds(1.5));
-            pause.setOnFinished(e -> {
-                addMessage("👨‍💼 Admin: Hello User, my name is Manish. How can I help you today? Call us at 07123457892.", "assistant");
-                addMessage("Please also type your emergency message in the 'Add Call' form.", "assistant");
-                addMessage("You can continue chatting or click 'Add Call' to submit details.", "assistant");
+    // Opens the chat log, falling back to a temporary one so the chat always works
+    private static ChatHistory openChatHistory() {
+        try {
+            return new ChatHistory(Paths.get(CHAT_LOG_FILE), ChatHistory.DEFAULT_CAPACITY);
+        } catch (IOException e) {
+            System.out.println("Error opening chat log: " + e.getMessage() + " (history will not be kept)");
+            try {
+                return new ChatHistory(Files.createTempFile("chat_history", ".log"), ChatHistory.DEFAULT_CAPACITY);
+            } catch (IOException again) {
+                throw new UncheckedIOException(again);
+            }
+        }
+    }
+
+    // Pages older messages in when the chat is scrolled to the top, newer ones at the bottom
+    private void watchChatScrolling() {
+        for (Node node : chatList.lookupAll(".scroll-bar")) {
+            if (!(node instanceof ScrollBar) || ((ScrollBar) node).getOrientation() != Orientation.VERTICAL) continue;
+            ScrollBar bar = (ScrollBar) node;
+            bar.valueProperty().addListener((obs, oldValue, value) -> {
+                if (value.doubleValue() <= bar.getMin()) loadOlderMessages();
+                else if (value.doubleValue() >= bar.getMax()) loadNewerMessages();
             });
-            pause.play();
+        }
+    }
+
+    private void loadOlderMessages() {
+        List<ChatMessage> older = chatHistory.readBefore(chatWindowStart, CHAT_PAGE);
+        if (older.isEmpty()) return;
+        chatList.getItems().addAll(0, older);
+        chatWindowStart -= older.size();
+        trimChatWindow(false);
+        chatList.scrollTo(older.size()); // Keep the message that was at the top in view
+    }
+
+    private void loadNewerMessages() {
+        ObservableList<ChatMessage> items = chatList.getItems();
+        List<ChatMessage> newer = chatHistory.read(chatWindowStart + items.size(), CHAT_PAGE);
+        if (newer.isEmpty()) return;
+        int lastShown = items.size() - 1;
+        items.addAll(newer);
+        chatList.scrollTo(Math.max(0, lastShown - trimChatWindow(true)));
+    }
+
+    // Drops messages beyond CHAT_WINDOW from one end of the list; returns how many
+    private int trimChatWindow(boolean dropOldest) {
+        ObservableList<ChatMessage> items = chatList.getItems();
+        int excess = items.size() - CHAT_WINDOW;
+        if (excess <= 0) return 0;
+        if (dropOldest) {
+            items.remove(0, excess);
+            chatWindowStart += excess;
         } else {
-            addMessage("🤖 I'm here to assist with emergency calls. Try: 'Add Call', 'View Call', or 'Talk to admin'.", "assistant");
+            items.remove(items.size() - excess, items.size());
+        }
+        return excess;
+    }
+
+    // Determines how AI responds to user queries, using the intents in intents.txt
+    private void processAIResponse(String input) {
+        if (chattingWithAdmin) return;
+
+        for (String reply : intentEngine.respond(input, callList)) {
+            addMessage(reply, "assistant");
+        }
+    }
+
+    // Loads the assistant's intents; without them it can only give a generic reply
+    private static IntentEngine loadIntents() {
+        try {
+            return IntentEngine.loadDefault();
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Error loading intents: " + e.getMessage());
+            try {
+                return IntentEngine.load(new StringReader(
+                        "[fallback]\nreply: 🤖 I'm here to assist with emergency calls. Try: 'Add Call', 'View Call', or 'Remove Call'."));
+            } catch (IOException again) {
+                throw new UncheckedIOException(again);
+            }
         }
     }
     // Displays the home screen with title, subtitle, and service icons
     private void showHome() {
+        if (homeView == null) homeView = createHomeView();
+        mainLayout.setCenter(homeView);
+    }
+
+    // Builds the home screen layout once
+    private VBox createHomeView() {
         VBox home = new VBox(25);
         home.setAlignment(Pos.CENTER);
         home.setPadding(new Insets(30));
@@ -238,7 +409,7 @@ public class EmergencyCallGUI extends Application {
         );
 
         home.getChildren().addAll(title, subtitle, iconsRow);
-        mainLayout.setCenter(home);
+        return home;
     }
 
     // Helper method to create service icon boxes
@@ -246,7 +417,7 @@ public class EmergencyCallGUI extends Application {
         VBox box = new VBox(10);
         box.setAlignment(Pos.CENTER);
 
-        ImageView icon = new ImageView(new Image(getClass().getResourceAsStream(imagePath)));
+        ImageView icon = new ImageView(cachedImage(imagePath));
         icon.setFitWidth(90);
         icon.setFitHeight(90);
 
@@ -301,25 +472,30 @@ public class EmergencyCallGUI extends Application {
             String phone = phoneField.getText().trim();
             String desc = descField.getText().trim();
 
-            if (!name.matches("[A-Za-z ]+")) status.setText("❌ Name must contain only letters.");
-            else if (!phone.matches("\\d{10,11}")) status.setText("❌ Phone must be 10-11 digits.");
-            else if (desc.isEmpty()) status.setText("❌ Description is required.");
-            else if (!fire.isSelected() && !police.isSelected() && !ambulance.isSelected()) status.setText("❌ Select at least one service.");
+            EnumSet<Service> services = EnumSet.noneOf(Service.class);
+            if (fire.isSelected()) services.add(Service.FIRE);
+            if (police.isSelected()) services.add(Service.POLICE);
+            if (ambulance.isSelected()) services.add(Service.AMBULANCE);
+
+            String error = CallValidator.validate(name, phone, desc, services);
+            if (error != null) status.setText("❌ " + error);
+            else if (callList == null) status.setText("⏳ Calls are still loading, please try again in a moment.");
             else {
                 addProgress.setVisible(true);
                 PauseTransition pause = new PauseTransition(Duration.seconds(2));
                 pause.setOnFinished(event -> {
-                    EnumSet<Service> services = EnumSet.noneOf(Service.class);
-                    if (fire.isSelected()) services.add(Service.FIRE);
-                    if (police.isSelected()) services.add(Service.POLICE);
-                    if (ambulance.isSelected()) services.add(Service.AMBULANCE);
-                    EmergencyCall call = new EmergencyCall(name, "+44" + phone, desc, services, LocalDateTime.now());
-                    callList.addCall(call);
+                    EmergencyCall call = new EmergencyCall(name, CallValidator.normalizePhone(phone), desc, services, LocalDateTime.now());
+                    List<DuplicateDetector.Match> duplicates = callList.addCall(call);
                     nameField.clear(); phoneField.clear(); descField.clear();
                     fire.setSelected(false); police.setSelected(false); ambulance.setSelected(false);
                     addProgress.setVisible(false);
-                    status.setTextFill(Color.GREEN);
-                    status.setText("✅ Call successfully submitted.");
+                    if (duplicates.isEmpty()) {
+                        status.setTextFill(Color.GREEN);
+                        status.setText("✅ Call successfully submitted.");
+                    } else {
+                        status.setTextFill(Color.DARKORANGE);
+                        status.setText("⚠️ Call submitted. Possible duplicate: " + duplicates.get(0));
+                    }
                 });
                 pause.play();
             }
@@ -350,13 +526,25 @@ public class EmergencyCallGUI extends Application {
         tableView.setColumnResizePolicy(TableView.CONSTRAINED_RESIZE_POLICY);
         setupTable();
 
+        TextField search = new TextField();
+        search.setPromptText("Search descriptions (e.g. smoke baker, smo*, \"baker street\")");
+        search.setPrefWidth(360);
+        search.textProperty().addListener((obs, oldVal, newVal) -> {
+            tableSearch = newVal.trim();
+            refreshTable(filter.getValue());
+        });
+        tableSearch = "";
+
         filter.setOnAction(e -> refreshTable(filter.getValue()));
         refreshTable("Filter by: All");
 
         tableView.getSelectionModel().selectedItemProperty().addListener((obs, oldVal, newVal) -> showDetails(newVal));
 
+        HBox controls = new HBox(10, filter, search);
+        controls.setAlignment(Pos.CENTER);
+
         HBox content = new HBox(20, tableView, detailBox);
-        view.getChildren().addAll(title, filter, content);
+        view.getChildren().addAll(title, controls, content);
         mainLayout.setCenter(view);
     }
 
@@ -368,7 +556,7 @@ public class EmergencyCallGUI extends Application {
                     new Label("Caller: " + call.getCallerName()),
                     new Label("Phone: " + call.getPhoneNumber()),
                     new Label("Description: " + call.getDescription()),
-                    new Label("Time: " + call.getTimestamp().format(DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm"))),
+                    new Label("Time: " + call.getTimestamp().format(TIME_FORMAT)),
                     new Label("Services: " + call.getServicesRequired().toString())
             );
         }
@@ -391,6 +579,7 @@ public class EmergencyCallGUI extends Application {
         tableView.setPrefWidth(700);
         tableView.setColumnResizePolicy(TableView.CONSTRAINED_RESIZE_POLICY);
         setupTable();
+        tableSearch = "";
         filter.setOnAction(e -> refreshTable(filter.getValue()));
         refreshTable("Filter by: All");
 
@@ -398,16 +587,28 @@ public class EmergencyCallGUI extends Application {
         removeProgress.setVisible(false);
 
         Button removeBtn = new Button("Remove Selected Call");
+        Button undoBtn = new Button("Undo");
+        undoBtn.setVisible(false);
         Label status = new Label();
+        PauseTransition undoExpiry = new PauseTransition(Duration.millis(CallStore.UNDO_WINDOW.toMillis()));
+        undoExpiry.setOnFinished(event -> undoBtn.setVisible(false));
 
         removeBtn.setOnAction(e -> {
             EmergencyCall selected = tableView.getSelectionModel().getSelectedItem();
-            if (selected != null) {
+            if (callList == null) {
+                status.setText("⏳ Calls are still loading, please try again in a moment.");
+            } else if (selected != null) {
                 removeProgress.setVisible(true);
                 PauseTransition pause = new PauseTransition(Duration.seconds(2));
                 pause.setOnFinished(event -> {
-                    callList.removeCall(selected);
-                    status.setText("✅ Selected Call removed.");
+                    if (callList.removeCall(selected)) {
+                        status.setText("✅ Selected Call removed.");
+                        undoBtn.setUserData(selected.getId());
+                        undoBtn.setVisible(true);
+                        undoExpiry.playFromStart();
+                    } else {
+                        status.setText("❌ The call was already removed.");
+                    }
                     removeProgress.setVisible(false);
                     refreshTable(filter.getValue());
                 });
@@ -417,7 +618,17 @@ public class EmergencyCallGUI extends Application {
             }
         });
 
-        VBox layout = new VBox(10, title, filter, tableView, removeBtn, removeProgress, status);
+        undoBtn.setOnAction(e -> {
+            undoBtn.setVisible(false);
+            undoExpiry.stop();
+            EmergencyCall restored = callList.restoreCall((Long) undoBtn.getUserData());
+            status.setText(restored != null ? "↩️ Call restored." : "❌ The call can no longer be restored.");
+            refreshTable(filter.getValue());
+        });
+
+        HBox actions = new HBox(10, removeBtn, undoBtn);
+        actions.setAlignment(Pos.CENTER);
+        VBox layout = new VBox(10, title, filter, tableView, actions, removeProgress, status);
         layout.setAlignment(Pos.CENTER);
         mainLayout.setCenter(layout);
     }
@@ -445,7 +656,7 @@ public class EmergencyCallGUI extends Application {
 
         TableColumn<EmergencyCall, String> timeCol = new TableColumn<>("Time");
         timeCol.setCellValueFactory(data -> new ReadOnlyStringWrapper(
-                data.getValue().getTimestamp().format(DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm"))));
+                data.getValue().getTimestamp().format(TIME_FORMAT)));
 
         TableColumn<EmergencyCall, String> serviceCol = new TableColumn<>("Services");
         serviceCol.setCellValueFactory(data -> {
@@ -462,13 +673,98 @@ public class EmergencyCallGUI extends Application {
 
     // Filters and refreshes the data shown in the call table
     private void refreshTable(String filter) {
-        ArrayList<EmergencyCall> filtered;
+        tableFilter = filter;
+        if (callList == null) {
+            // Store not loaded yet: the loader refreshes the table once it is ready
+            tableView.setPlaceholder(new Label("Loading calls..."));
+            tableView.setItems(FXCollections.observableArrayList());
+            return;
+        }
+        tableView.setPlaceholder(new Label("No calls found."));
+
+        Service service;
         switch (filter) {
-            case "Filter by: Fire": filtered = callList.getCallsByService(Service.FIRE); break;
-            case "Filter by: Police": filtered = callList.getCallsByService(Service.POLICE); break;
-            case "Filter by: Ambulance": filtered = callList.getCallsByService(Service.AMBULANCE); break;
-            default: filtered = callList.getAllCalls();
+            case "Filter by: Fire": service = Service.FIRE; break;
+            case "Filter by: Police": service = Service.POLICE; break;
+            case "Filter by: Ambulance": service = Service.AMBULANCE; break;
+            default: service = null;
+        }
+
+        CallQuery query = CallQuery.create()
+                .services(service == null ? null : EnumSet.of(service))
+                .text(tableSearch);
+        // No lock is held: changes published while the query runs may or may not be in the
+        // snapshot, so applyChanges checks the snapshot's ids before adding a call
+        ArrayList<EmergencyCall> filtered;
+        tableSequence = callList.getChangeFeed().lastSequence();
+        filtered = callList.query(query);
+        tableQuery = query;
+        tableIds.clear();
+        for (EmergencyCall call : filtered) tableIds.add(call.getId());
+        queuedChanges.clear(); // The new snapshot is at least as recent
+        fillTableProgressively(filtered);
+    }
+
+    // Applies a batch of store changes to the visible table instead of reloading it
+    private void applyChanges(List<CallChangeFeed.ChangeEvent> batch) {
+        if (tableView == null || tableQuery == null) return;
+        if (tableFilling) {
+            queuedChanges.addAll(batch); // Applied once every snapshot row is in the table
+            return;
         }
-        tableView.setItems(FXCollections.observableArrayList(filtered));
+        ObservableList<EmergencyCall> items = tableView.getItems();
+        Map<Long, EmergencyCall> added = new LinkedHashMap<>(); // By id, in event order
+        Set<EmergencyCall> removed = new HashSet<>();
+        for (CallChangeFeed.ChangeEvent event : batch) {
+            if (event.getSequence() <= tableSequence) continue; // Already in the snapshot
+            EmergencyCall call = event.getCall();
+            switch (event.getType()) {
+                case ADDED:
+                    if (removed.remove(call)) break; // Restored before its row was taken out
+                    // Calls added while the snapshot was read may already be in it
+                    if (!tableIds.contains(call.getId()) && tableQuery.matches(call)) added.put(call.getId(), call);
+                    break;
+                case REMOVED:
+                    if (added.remove(call.getId()) == null) removed.add(call);
+                    break;
+                default: // RESET: the store was reloaded
+                    refreshTable(tableFilter);
+                    return;
+            }
+            tableSequence = event.getSequence();
+        }
+        for (EmergencyCall call : removed) tableIds.remove(call.getId());
+        tableIds.addAll(added.keySet());
+        if (!removed.isEmpty()) items.removeAll(removed);
+        items.addAll(added.values());
+    }
+
+    // Appends rows in chunks across animation frames so large tables never stall the UI
+    private void fillTableProgressively(List<EmergencyCall> calls) {
+        if (tableFiller != null) tableFiller.stop();
+
+        ObservableList<EmergencyCall> items = FXCollections.observableArrayList();
+        tableView.setItems(items);
+        Iterator<EmergencyCall> pending = calls.iterator();
+        tableFilling = true;
+
+        tableFiller = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                List<EmergencyCall> chunk = new ArrayList<>(ROWS_PER_FRAME);
+                while (pending.hasNext() && chunk.size() < ROWS_PER_FRAME) chunk.add(pending.next());
+                items.addAll(chunk);
+                if (!pending.hasNext()) {
+                    tableFilling = false;
+                    stop();
+                    if (!queuedChanges.isEmpty()) {
+                        List<CallChangeFeed.ChangeEvent> queued = new ArrayList<>(queuedChanges);
+                        queuedChanges.clear();
+                        applyChanges(queued);
+                    }
+                }
+            }
+        };
+        tableFiller.start();
     }
 }
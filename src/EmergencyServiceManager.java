@@ -14,12 +14,22 @@ import java.util.*;
 public class EmergencyServiceManager {
 
     private List<EmergencyCall> callList; // Internal list to store calls
-    private final String FILE_NAME = "emergency_calls.dat"; // Separate file for GUI usage
+    private static final String FILE_NAME = "emergency_calls.dat"; // Separate file for GUI usage
+    private final String dataFile; // File the list is loaded from and saved to
 
     /**
      * Constructor loads existing calls if available.
      */
     public EmergencyServiceManager() {
+        this(FILE_NAME);
+    }
+
+    /**
+     * Uses another file than the GUI's, e.g. for load tests.
+     * @param dataFile File to load calls from and save them to.
+     */
+    public EmergencyServiceManager(String dataFile) {
+        this.dataFile = dataFile;
         callList = loadCallsFromFile();
     }
 
@@ -32,17 +42,25 @@ public class EmergencyServiceManager {
     }
 
     /**
-     * Adds a new call from the GUI form.
+     * Adds a new call from the GUI form after shared validation.
      *
      * @param name     Caller name
      * @param phone    Caller phone number
      * @param desc     Description of emergency
      * @param services Services selected by the user
+     * @return true if the call was valid and saved, false otherwise
      */
-    public void addCallFromGUI(String name, String phone, String desc, List<String> services) {
-        EnumSet<Service> serviceEnums = convertToEnumSet(services);
-        callList.add(new EmergencyCall(name, phone, desc, serviceEnums, LocalDateTime.now()));
+    public boolean addCallFromGUI(String name, String phone, String desc, List<String> services) {
+        EnumSet<Service> serviceEnums = CallValidator.parseServiceNames(services);
+        String error = CallValidator.validate(name.trim(), phone.trim(), desc.trim(), serviceEnums);
+        if (error != null) {
+            System.out.println("Rejected call: " + error);
+            return false;
+        }
+        callList.add(new EmergencyCall(name.trim(), CallValidator.normalizePhone(phone.trim()), desc.trim(),
+                serviceEnums, LocalDateTime.now()));
         saveCallsToFile();
+        return true;
     }
 
     /**
@@ -53,36 +71,15 @@ public class EmergencyServiceManager {
      */
     public void removeCallFromGUI(String name, String phone) {
         callList.removeIf(call -> call.getCallerName().equalsIgnoreCase(name)
-                && call.getPhoneNumber().equals(phone));
+                && CallValidator.canonicalPhone(call.getPhoneNumber()).equals(CallValidator.canonicalPhone(phone)));
         saveCallsToFile();
     }
 
-    /**
-     * Converts service names to EnumSet<Service>.
-     */
-    private EnumSet<Service> convertToEnumSet(List<String> serviceStrings) {
-        EnumSet<Service> services = EnumSet.noneOf(Service.class);
-        for (String s : serviceStrings) {
-            switch (s.toLowerCase()) {
-                case "fire":
-                    services.add(Service.FIRE);
-                    break;
-                case "police":
-                    services.add(Service.POLICE);
-                    break;
-                case "ambulance":
-                    services.add(Service.AMBULANCE);
-                    break;
-            }
-        }
-        return services;
-    }
-
     /**
      * Saves the call list to the GUI file.
      */
     private void saveCallsToFile() {
-        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(FILE_NAME))) {
+        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(dataFile))) {
             out.writeObject(callList);
         } catch (IOException e) {
             System.out.println("Error saving to file: " + e.getMessage());
@@ -94,7 +91,7 @@ public class EmergencyServiceManager {
      */
     @SuppressWarnings("unchecked")
     private List<EmergencyCall> loadCallsFromFile() {
-        File file = new File(FILE_NAME);
+        File file = new File(dataFile);
         if (!file.exists()) return new ArrayList<>();
         try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(file))) {
             return (List<EmergencyCall>) in.readObject();
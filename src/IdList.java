@@ -0,0 +1,140 @@
+// ==================================
+// IdList.java
+// Description: Sorted, growable list of call ids used by the store indexes
+// ==================================
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * A sorted set of call ids backed by a primitive array. Ids are normally added in
+ * increasing order, which makes adding O(1); out-of-order ids are inserted in place.
+ */
+public class IdList {
+
+    private long[] ids = new long[4];
+    private int size;
+
+    /**
+     * Adds an id, keeping the list sorted and free of duplicates.
+     * @param id The call id.
+     */
+    public void add(long id) {
+        if (size == ids.length) ids = Arrays.copyOf(ids, size * 2);
+        if (size == 0 || ids[size - 1] < id) {
+            ids[size++] = id;
+            return;
+        }
+        int pos = Arrays.binarySearch(ids, 0, size, id);
+        if (pos >= 0) return;
+        pos = -pos - 1;
+        System.arraycopy(ids, pos, ids, pos + 1, size - pos);
+        ids[pos] = id;
+        size++;
+    }
+
+    /**
+     * Removes an id if present.
+     * @param id The call id.
+     */
+    public void remove(long id) {
+        int pos = Arrays.binarySearch(ids, 0, size, id);
+        if (pos < 0) return;
+        System.arraycopy(ids, pos + 1, ids, pos, size - pos - 1);
+        size--;
+    }
+
+    /**
+     * Removes every id in a sorted array, in a single pass over the list.
+     * @param sorted Ids to remove, ascending.
+     */
+    public void removeAll(long[] sorted) {
+        int kept = 0;
+        int j = 0;
+        for (int i = 0; i < size; i++) {
+            long id = ids[i];
+            while (j < sorted.length && sorted[j] < id) j++;
+            if (j < sorted.length && sorted[j] == id) continue;
+            ids[kept++] = id;
+        }
+        size = kept;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** Copies the ids into a new sorted array. */
+    public long[] toArray() {
+        return Arrays.copyOf(ids, size);
+    }
+
+    /** Iterates the ids in ascending order. The list must not change meanwhile. */
+    public PrimitiveIterator.OfLong iterator() {
+        return Arrays.stream(ids, 0, size).iterator();
+    }
+
+    /** Iterates the ids in descending order. The list must not change meanwhile. */
+    public PrimitiveIterator.OfLong descendingIterator() {
+        return new PrimitiveIterator.OfLong() {
+            private int next = size - 1;
+
+            @Override
+            public boolean hasNext() {
+                return next >= 0;
+            }
+
+            @Override
+            public long nextLong() {
+                if (next < 0) throw new NoSuchElementException();
+                return ids[next--];
+            }
+        };
+    }
+
+    /**
+     * Copies the ids of several lists into one sorted array without duplicates.
+     * @param lists Lists to merge.
+     * @return Union of all ids, ascending.
+     */
+    public static long[] union(Iterable<IdList> lists) {
+        int total = 0;
+        for (IdList list : lists) total += list.size;
+        long[] all = new long[total];
+        int pos = 0;
+        for (IdList list : lists) {
+            System.arraycopy(list.ids, 0, all, pos, list.size);
+            pos += list.size;
+        }
+        Arrays.sort(all);
+        int unique = 0;
+        for (int i = 0; i < all.length; i++) {
+            if (i == 0 || all[i] != all[i - 1]) all[unique++] = all[i];
+        }
+        return Arrays.copyOf(all, unique);
+    }
+
+    /**
+     * Intersects two sorted id arrays.
+     * @return Ids present in both, ascending.
+     */
+    public static long[] intersect(long[] a, long[] b) {
+        long[] out = new long[Math.min(a.length, b.length)];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) i++;
+            else if (a[i] > b[j]) j++;
+            else {
+                out[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(out, n);
+    }
+}
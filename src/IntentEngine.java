@@ -0,0 +1,376 @@
+// ==================================
+// IntentEngine.java
+// Description: Table-driven intent matching and replies for the chat assistant
+// ==================================
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Picks the chat assistant's reply to a message. Intents, their keywords and replies
+ * are loaded from a data file (see intents.txt for the format), so new intents need no
+ * code changes.
+ *
+ * All keywords of all intents are compiled into one Aho-Corasick automaton, so a
+ * message is matched against every keyword in a single pass whatever the number of
+ * intents. Each whole-word keyword found scores one point per word for its intent;
+ * the highest score wins, then the higher priority, then the earlier intent.
+ *
+ * Intents with an action answer from the call store, e.g.
+ * "how many fire calls in the last hour" counts calls using the service and time indexes.
+ */
+public class IntentEngine {
+
+    public static final String DEFAULT_RESOURCE = "/intents.txt";
+
+    private static final int LATEST_LIMIT = 5;
+    private static final DateTimeFormatter LIST_TIME = DateTimeFormatter.ofPattern("dd-MM HH:mm");
+    private static final Pattern WINDOW = Pattern.compile(
+            "\\b(?:last|past|previous) (?:(\\d+|an|a|one) )?(minute|min|hour|hr|day|week)s?\\b");
+
+    /** What an intent does besides replying. */
+    public enum Action { NONE, COUNT, LATEST }
+
+    // One intent from the data file
+    private static class Intent {
+        private final String name;
+        private final int order; // Position in the file, the last tie-breaker
+        private int priority;
+        private Action action = Action.NONE;
+        private final List<String> replies = new ArrayList<>();
+
+        Intent(String name, int order) {
+            this.name = name;
+            this.order = order;
+        }
+    }
+
+    // A keyword in the automaton; it belongs to an intent or names a service
+    private static class Keyword {
+        private final int length;      // Characters, after normalizing
+        private final int weight;      // Words in the keyword
+        private final Intent intent;   // Null for a service keyword
+        private final Service service; // Null for an intent keyword
+
+        Keyword(String text, Intent intent, Service service) {
+            this.length = text.length();
+            this.weight = text.split(" ").length;
+            this.intent = intent;
+            this.service = service;
+        }
+    }
+
+    private final List<Intent> intents = new ArrayList<>();
+    private final List<String> fallback = new ArrayList<>();
+    private final List<Keyword> keywords = new ArrayList<>();
+
+    // Aho-Corasick automaton over the normalized keywords
+    private final List<Map<Character, Integer>> transitions = new ArrayList<>();
+    private final List<List<Integer>> outputs = new ArrayList<>(); // Keywords ending at each node
+    private int[] fail;       // Longest proper suffix that is also a trie path
+    private int[] outputLink; // Nearest node on the fail chain with outputs, -1 if none
+
+    // --- Loading ---
+
+    /**
+     * Loads the intents bundled with the application.
+     * @return The engine.
+     * @throws IOException If the resource is missing or unreadable.
+     */
+    public static IntentEngine loadDefault() throws IOException {
+        InputStream in = IntentEngine.class.getResourceAsStream(DEFAULT_RESOURCE);
+        if (in == null) throw new FileNotFoundException("Missing resource " + DEFAULT_RESOURCE);
+        try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            return load(reader);
+        }
+    }
+
+    /**
+     * Loads intents from a data file.
+     * @param file The intents file.
+     * @return The engine.
+     * @throws IOException If the file cannot be read.
+     */
+    public static IntentEngine load(Path file) throws IOException {
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return load(reader);
+        }
+    }
+
+    /**
+     * Parses intents in the intents.txt format.
+     * @throws IllegalArgumentException If a line is not understood.
+     */
+    public static IntentEngine load(Reader reader) throws IOException {
+        IntentEngine engine = new IntentEngine();
+        BufferedReader lines = new BufferedReader(reader);
+        Intent intent = null;
+        Service service = null;
+        boolean inFallback = false;
+        String line;
+        int lineNumber = 0;
+        while ((line = lines.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+
+            if (line.startsWith("[") && line.endsWith("]")) {
+                String section = line.substring(1, line.length() - 1).trim();
+                intent = null;
+                service = null;
+                inFallback = false;
+                if (section.equals("fallback")) {
+                    inFallback = true;
+                } else if (section.startsWith("service ")) {
+                    try {
+                        service = Service.valueOf(section.substring(8).trim().toUpperCase());
+                    } catch (IllegalArgumentException e) {
+                        throw new IllegalArgumentException("Line " + lineNumber + ": unknown service " + section);
+                    }
+                } else {
+                    intent = new Intent(section, engine.intents.size());
+                    engine.intents.add(intent);
+                }
+                continue;
+            }
+
+            int colon = line.indexOf(':');
+            if (colon < 0) throw new IllegalArgumentException("Line " + lineNumber + ": expected 'key: value'");
+            String key = line.substring(0, colon).trim().toLowerCase();
+            String value = line.substring(colon + 1).trim();
+
+            if (key.equals("reply") && (intent != null || inFallback)) {
+                (inFallback ? engine.fallback : intent.replies).add(value.replace("\\n", "\n"));
+            } else if (key.equals("keywords") && (intent != null || service != null)) {
+                for (String keyword : value.split(",")) {
+                    String normalized = normalize(keyword);
+                    if (!normalized.isEmpty()) engine.addKeyword(normalized, new Keyword(normalized, intent, service));
+                }
+            } else if (key.equals("priority") && intent != null) {
+                intent.priority = Integer.parseInt(value);
+            } else if (key.equals("action") && intent != null) {
+                intent.action = Action.valueOf(value.toUpperCase());
+            } else {
+                throw new IllegalArgumentException("Line " + lineNumber + ": unexpected '" + key + "' here");
+            }
+        }
+        engine.buildFailLinks();
+        return engine;
+    }
+
+    // --- Answering ---
+
+    /**
+     * Chooses the reply to a chat message.
+     * @param input    The user's message.
+     * @param callList Store for questions about calls, or null while it is loading.
+     * @return The reply messages, in order.
+     */
+    public List<String> respond(String input, CallStore callList) {
+        String text = normalize(input);
+        Map<Intent, Integer> scores = new HashMap<>();
+        EnumSet<Service> services = EnumSet.noneOf(Service.class);
+        for (Keyword keyword : scan(text)) {
+            if (keyword.intent != null) scores.merge(keyword.intent, keyword.weight, Integer::sum);
+            else services.add(keyword.service);
+        }
+
+        Intent best = null;
+        for (Map.Entry<Intent, Integer> entry : scores.entrySet()) {
+            if (best == null || compare(entry.getKey(), entry.getValue(), best, scores.get(best)) > 0) {
+                best = entry.getKey();
+            }
+        }
+        if (best == null) return new ArrayList<>(fallback);
+        if (best.action == Action.NONE) return new ArrayList<>(best.replies);
+        if (callList == null) return Collections.singletonList("⏳ Calls are still loading, please ask again in a moment.");
+        return answerFromStore(best, text, services, callList);
+    }
+
+    /**
+     * Names of the intents a message matches, best first, for tuning the data file.
+     * @param input The user's message.
+     * @return Matching intent names with their scores, e.g. "count_calls=2".
+     */
+    public List<String> rank(String input) {
+        Map<Intent, Integer> scores = new HashMap<>();
+        for (Keyword keyword : scan(normalize(input))) {
+            if (keyword.intent != null) scores.merge(keyword.intent, keyword.weight, Integer::sum);
+        }
+        List<Map.Entry<Intent, Integer>> ranked = new ArrayList<>(scores.entrySet());
+        ranked.sort((a, b) -> compare(b.getKey(), b.getValue(), a.getKey(), a.getValue()));
+        List<String> names = new ArrayList<>();
+        for (Map.Entry<Intent, Integer> entry : ranked) names.add(entry.getKey().name + "=" + entry.getValue());
+        return names;
+    }
+
+    // Fills a count or latest reply from the store's indexes
+    private List<String> answerFromStore(Intent intent, String text, EnumSet<Service> services, CallStore callList) {
+        LocalDateTime from = null;
+        String window = "so far";
+        Matcher m = WINDOW.matcher(text);
+        if (m.find()) {
+            String amount = m.group(1);
+            long n = amount == null || !Character.isDigit(amount.charAt(0)) ? 1 : Long.parseLong(amount);
+            String unit = m.group(2).startsWith("min") ? "minute" : m.group(2).startsWith("h") ? "hour" : m.group(2);
+            LocalDateTime now = LocalDateTime.now();
+            switch (unit) {
+                case "minute": from = now.minusMinutes(n); break;
+                case "hour": from = now.minusHours(n); break;
+                case "day": from = now.minusDays(n); break;
+                default: from = now.minusWeeks(n);
+            }
+            window = "in the last " + (n == 1 ? unit : n + " " + unit + "s");
+        } else if (text.contains("today")) {
+            from = LocalDate.now().atStartOfDay();
+            window = "today";
+        }
+
+        CallQuery query = CallQuery.create().services(services).between(from, null);
+        String count = "";
+        String list = "";
+        String what;
+        if (intent.action == Action.COUNT) {
+            int n = callList.count(query);
+            count = String.valueOf(n);
+            what = describe(services, n != 1);
+        } else {
+            List<EmergencyCall> latest = callList.query(query.newestFirst().limit(LATEST_LIMIT));
+            StringBuilder sb = new StringBuilder();
+            for (EmergencyCall call : latest) {
+                if (sb.length() > 0) sb.append('\n');
+                String description = call.getDescription();
+                if (description.length() > 40) description = description.substring(0, 37) + "...";
+                sb.append("• ").append(call.getTimestamp().format(LIST_TIME)).append(' ')
+                        .append(call.getCallerName()).append(": ").append(description);
+            }
+            list = latest.isEmpty() ? "• none" : sb.toString();
+            what = describe(services, true);
+        }
+
+        List<String> replies = new ArrayList<>();
+        for (String reply : intent.replies) {
+            replies.add(reply.replace("{count}", count).replace("{what}", what)
+                    .replace("{window}", window).replace("{list}", list));
+        }
+        return replies;
+    }
+
+    // e.g. "fire or police calls"
+    private static String describe(EnumSet<Service> services, boolean plural) {
+        StringBuilder sb = new StringBuilder();
+        for (Service s : services) {
+            if (sb.length() > 0) sb.append(" or ");
+            sb.append(s.toString().toLowerCase());
+        }
+        if (sb.length() > 0) sb.append(' ');
+        return sb.append(plural ? "calls" : "call").toString();
+    }
+
+    private static int compare(Intent a, int scoreA, Intent b, int scoreB) {
+        if (scoreA != scoreB) return Integer.compare(scoreA, scoreB);
+        if (a.priority != b.priority) return Integer.compare(a.priority, b.priority);
+        return Integer.compare(b.order, a.order); // Earlier in the file wins
+    }
+
+    // --- Automaton ---
+
+    // Lowercase letters and digits separated by single spaces
+    static String normalize(String text) {
+        StringBuilder sb = new StringBuilder(text.length());
+        boolean space = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = Character.toLowerCase(text.charAt(i));
+            if (Character.isLetterOrDigit(c)) {
+                if (space && sb.length() > 0) sb.append(' ');
+                sb.append(c);
+                space = false;
+            } else {
+                space = true;
+            }
+        }
+        return sb.toString();
+    }
+
+    private IntentEngine() {
+        transitions.add(new HashMap<>());
+        outputs.add(new ArrayList<>());
+    }
+
+    private void addKeyword(String text, Keyword keyword) {
+        int node = 0;
+        for (int i = 0; i < text.length(); i++) {
+            Integer next = transitions.get(node).get(text.charAt(i));
+            if (next == null) {
+                next = transitions.size();
+                transitions.add(new HashMap<>());
+                outputs.add(new ArrayList<>());
+                transitions.get(node).put(text.charAt(i), next);
+            }
+            node = next;
+        }
+        outputs.get(node).add(keywords.size());
+        keywords.add(keyword);
+    }
+
+    // Breadth-first pass computing fail and output links
+    private void buildFailLinks() {
+        fail = new int[transitions.size()];
+        outputLink = new int[transitions.size()];
+        Arrays.fill(outputLink, -1);
+        Queue<Integer> queue = new ArrayDeque<>(transitions.get(0).values());
+        while (!queue.isEmpty()) {
+            int node = queue.remove();
+            for (Map.Entry<Character, Integer> edge : transitions.get(node).entrySet()) {
+                int child = edge.getValue();
+                int f = fail[node];
+                while (f != 0 && !transitions.get(f).containsKey(edge.getKey())) f = fail[f];
+                Integer target = transitions.get(f).get(edge.getKey());
+                fail[child] = target != null && target != child ? target : 0;
+                outputLink[child] = outputs.get(fail[child]).isEmpty() ? outputLink[fail[child]] : fail[child];
+                queue.add(child);
+            }
+        }
+    }
+
+    // Every whole-word keyword in the normalized text, each counted once
+    private List<Keyword> scan(String text) {
+        List<Keyword> found = new ArrayList<>();
+        boolean[] seen = new boolean[keywords.size()];
+        int node = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            while (node != 0 && !transitions.get(node).containsKey(c)) node = fail[node];
+            Integer next = transitions.get(node).get(c);
+            node = next == null ? 0 : next;
+            boolean wordEnd = i + 1 == text.length() || text.charAt(i + 1) == ' ';
+            if (!wordEnd) continue;
+            for (int n = node; n > 0; n = outputLink[n]) {
+                for (int id : outputs.get(n)) {
+                    int start = i + 1 - keywords.get(id).length;
+                    if (!seen[id] && (start == 0 || text.charAt(start - 1) == ' ')) {
+                        seen[id] = true;
+                        found.add(keywords.get(id));
+                    }
+                }
+            }
+        }
+        return found;
+    }
+}
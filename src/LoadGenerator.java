@@ -0,0 +1,515 @@
+// ==================================
+// LoadGenerator.java
+// Description: Generates synthetic call traffic against an intake path and reports how it holds up
+// ==================================
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+/**
+ * Soak and saturation test for the call intake paths. Produces a stream of realistic
+ * calls at a fixed rate and reports sustained throughput, latency percentiles, heap use
+ * and store file size at every interval and at the end. Options, all optional:
+ *
+ *   --target=store|manager|socket  Call store in a temporary directory (default), an
+ *                                  EmergencyServiceManager on a file in a temporary
+ *                                  directory, or a CallIntakeServer
+ *   --shards=1           Store and in-process socket targets: shards of a ShardedCallList
+ *   --offheap            Store and in-process socket targets: use an OffHeapCallStore
+ *   --rate=200           Calls per second across all threads, 0 for as fast as possible
+ *   --duration=60        Seconds to run; hours are fine, memory use is fixed
+ *   --threads=4          Concurrent callers (socket target: one connection each)
+ *   --callers=10000      Distinct callers
+ *   --zipf=1.0           Caller skew: 0 is uniform, higher means a few callers call often
+ *   --mix=F:40,P:35,A:15,FA:5,PA:5  Service codes and their weights
+ *   --corpus=file        One description per line instead of the built-in ones
+ *   --port=5050          Socket target: server to use; without it one is started in-process
+ *   --data=calls.dat     Socket target: store file of that server, for its size
+ *   --report=10          Seconds between progress lines
+ *   --seed=42
+ *
+ * Latency is measured from when each call was due, not when it was sent, so a target
+ * that falls behind shows the queueing delay instead of hiding it. A call that throws
+ * instead of being accepted or rejected is counted as an error and the run goes on.
+ */
+public class LoadGenerator {
+
+    private static final String[] FIRST_NAMES = {"James", "Olivia", "Amelia", "Noah", "Priya", "Mohammed",
+            "Isla", "George", "Ava", "Leo", "Grace", "Arthur", "Freya", "Oscar", "Siobhan", "Tomasz"};
+    private static final String[] LAST_NAMES = {"Smith", "Jones", "Taylor", "Brown", "Patel", "Khan",
+            "Evans", "Wilson", "Walker", "Murphy", "Byrne", "Kowalski", "Hughes", "Wright", "Ahmed", "Clarke"};
+    private static final String[] STREETS = {"Baker Street", "High Street", "Station Road", "Church Lane",
+            "Victoria Road", "Park Avenue", "Mill Lane", "Queen Street"};
+    private static final String[] DEFAULT_CORPUS = {
+            "Smoke coming from a house on %s",
+            "Kitchen fire spreading to the roof on %s",
+            "Car crash with two vehicles at the junction of %s",
+            "Person collapsed and not breathing outside %s station",
+            "Break-in in progress at a shop on %s",
+            "Elderly man fallen down the stairs at home on %s",
+            "Gas smell and a loud bang near %s",
+            "Fight outside a pub on %s, one person injured",
+            "Child with severe allergic reaction at a school on %s",
+            "Motorbike accident, rider bleeding heavily on %s",
+            "Suspicious package left at the bus stop on %s",
+            "Flooding in a basement flat with exposed wiring on %s"};
+
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    // --- Targets ---
+
+    /** An intake path under test. */
+    private interface Target extends Closeable {
+        /** A connection for one caller thread. */
+        Client newClient() throws IOException;
+
+        /** Size of the store file in bytes, or -1 if unknown. */
+        long storeBytes();
+    }
+
+    /** Submits calls on one thread. */
+    private interface Client extends Closeable {
+        /** @return null if the call was accepted, otherwise the reason it was not. */
+        String send(EmergencyCall call) throws IOException;
+
+        @Override
+        default void close() throws IOException {
+        }
+    }
+
+    // CallList, ShardedCallList or OffHeapCallStore on fresh store files
+    private static class StoreTarget implements Target {
+        private final Path dir;
+        private final CallStore callList;
+
+        StoreTarget(Path dir, int shards, boolean offHeap) {
+            this.dir = dir;
+            if (shards > 1) {
+                this.callList = new ShardedCallList(dir.resolve("calls-shard-%d.dat").toString(), shards);
+            } else if (offHeap) {
+                this.callList = new OffHeapCallStore(dir.resolve("calls.dat").toString());
+            } else {
+                this.callList = new CallList(dir.resolve("calls.dat").toString());
+            }
+        }
+
+        @Override
+        public Client newClient() {
+            return call -> {
+                callList.addCall(call);
+                return null;
+            };
+        }
+
+        @Override
+        public long storeBytes() {
+            try (Stream<Path> files = Files.list(dir)) {
+                return files.mapToLong(LoadGenerator::fileSize).sum();
+            } catch (IOException e) {
+                return -1;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            callList.close();
+        }
+    }
+
+    // EmergencyServiceManager, which is not thread-safe and rewrites its file on every add
+    private static class ManagerTarget implements Target {
+        private final Path dataFile;
+        private final EmergencyServiceManager manager;
+
+        ManagerTarget(Path dir) {
+            this.dataFile = dir.resolve("emergency_calls.dat");
+            this.manager = new EmergencyServiceManager(dataFile.toString());
+        }
+
+        @Override
+        public Client newClient() {
+            return call -> {
+                List<String> services = new ArrayList<>();
+                for (Service s : call.getServicesRequired()) services.add(s.toString());
+                boolean added;
+                synchronized (manager) {
+                    added = manager.addCallFromGUI(call.getCallerName(), call.getPhoneNumber(),
+                            call.getDescription(), services);
+                }
+                return added ? null : "rejected";
+            };
+        }
+
+        @Override
+        public long storeBytes() {
+            return fileSize(dataFile);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    // CallIntakeServer over a loopback socket, one connection per caller thread
+    private static class SocketTarget implements Target {
+        private final int port;
+        private final Path storeFile;    // External server's store file, if given
+        private final StoreTarget local; // In-process server's store, null for an external server
+        private final CallIntakeServer server;
+
+        SocketTarget(Integer port, Path storeFile, Path tempDir, int shards, boolean offHeap) throws IOException {
+            if (port == null) {
+                this.local = new StoreTarget(tempDir, shards, offHeap);
+                this.server = new CallIntakeServer(local.callList, 0);
+                this.server.start();
+                this.port = server.getPort();
+                this.storeFile = null;
+            } else {
+                this.local = null;
+                this.server = null;
+                this.port = port;
+                this.storeFile = storeFile;
+            }
+        }
+
+        @Override
+        public Client newClient() throws IOException {
+            Socket socket = new Socket("127.0.0.1", port);
+            socket.setTcpNoDelay(true);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+            return new Client() {
+                @Override
+                public String send(EmergencyCall call) throws IOException {
+                    out.write(CallTransfer.toJson(call));
+                    out.write('\n');
+                    out.flush();
+                    String reply = in.readLine();
+                    if (reply == null) throw new EOFException("Server closed the connection.");
+                    return reply.startsWith("OK") ? null : reply;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    socket.close();
+                }
+            };
+        }
+
+        @Override
+        public long storeBytes() {
+            if (local != null) return local.storeBytes();
+            return storeFile == null ? -1 : fileSize(storeFile);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (server != null) server.close();
+            if (local != null) local.close();
+        }
+    }
+
+    // --- Traffic model ---
+
+    /** Picks callers, services and descriptions with the configured distributions. */
+    private static class TrafficModel {
+        private final double[] callerCdf;
+        private final List<EnumSet<Service>> serviceChoices;
+        private final double[] serviceCdf;
+        private final String[] corpus;
+
+        TrafficModel(int callers, double zipf, String mix, String[] corpus) {
+            callerCdf = new double[callers];
+            double total = 0;
+            for (int i = 0; i < callers; i++) {
+                total += 1 / Math.pow(i + 1, zipf);
+                callerCdf[i] = total;
+            }
+            for (int i = 0; i < callers; i++) callerCdf[i] /= total;
+
+            String[] parts = mix.split(",");
+            serviceChoices = new ArrayList<>(parts.length);
+            serviceCdf = new double[parts.length];
+            double weights = 0;
+            for (int i = 0; i < parts.length; i++) {
+                String[] codeAndWeight = parts[i].split(":");
+                String error = CallValidator.serviceCodesError(codeAndWeight[0].trim());
+                if (error != null) throw new IllegalArgumentException("Bad --mix entry " + parts[i] + ": " + error);
+                serviceChoices.add(CallValidator.parseServiceCodes(codeAndWeight[0].trim()));
+                weights += codeAndWeight.length > 1 ? Double.parseDouble(codeAndWeight[1].trim()) : 1;
+                serviceCdf[i] = weights;
+            }
+            for (int i = 0; i < serviceCdf.length; i++) serviceCdf[i] /= weights;
+            this.corpus = corpus;
+        }
+
+        EmergencyCall next(SplittableRandom random) {
+            int caller = pick(callerCdf, random.nextDouble());
+            String name = FIRST_NAMES[caller % FIRST_NAMES.length] + " "
+                    + LAST_NAMES[(caller / FIRST_NAMES.length) % LAST_NAMES.length];
+            String phone = CallValidator.normalizePhone("07" + (100_000_000 + caller));
+            String template = corpus[random.nextInt(corpus.length)];
+            String description = template.contains("%s")
+                    ? String.format(template, STREETS[random.nextInt(STREETS.length)])
+                    : template;
+            EnumSet<Service> services = serviceChoices.get(pick(serviceCdf, random.nextDouble()));
+            return new EmergencyCall(name, phone, description, EnumSet.copyOf(services), LocalDateTime.now());
+        }
+
+        // First index whose cumulative weight reaches u
+        private static int pick(double[] cdf, double u) {
+            int pos = Arrays.binarySearch(cdf, u);
+            return Math.min(pos >= 0 ? pos : -pos - 1, cdf.length - 1);
+        }
+    }
+
+    // --- Measurement ---
+
+    /**
+     * Thread-safe latency histogram in microseconds with 16 buckets per power of two,
+     * so percentiles are within about 6% and memory stays fixed however long the run.
+     */
+    private static class LatencyHistogram {
+        private static final int SUB_BUCKETS = 16;
+        private final AtomicLongArray counts = new AtomicLongArray(64 * SUB_BUCKETS);
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long micros) {
+            long v = Math.max(0, micros);
+            counts.incrementAndGet(bucket(v));
+            max.accumulateAndGet(v, Math::max);
+        }
+
+        long count() {
+            long total = 0;
+            for (int i = 0; i < counts.length(); i++) total += counts.get(i);
+            return total;
+        }
+
+        /** Upper bound of the bucket holding the given percentile, in microseconds. */
+        long percentile(double percent) {
+            long total = count();
+            if (total == 0) return 0;
+            long rank = (long) Math.ceil(total * percent / 100);
+            long seen = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                seen += counts.get(i);
+                if (seen >= Math.max(rank, 1)) return Math.min(upperBound(i), max.get());
+            }
+            return max.get();
+        }
+
+        long max() {
+            return max.get();
+        }
+
+        void reset() {
+            for (int i = 0; i < counts.length(); i++) counts.set(i, 0);
+            max.set(0);
+        }
+
+        private static int bucket(long v) {
+            if (v < SUB_BUCKETS) return (int) v;
+            int msb = 63 - Long.numberOfLeadingZeros(v);
+            int sub = (int) (v >>> (msb - 4)) & (SUB_BUCKETS - 1);
+            return (msb - 3) * SUB_BUCKETS + sub;
+        }
+
+        private static long upperBound(int bucket) {
+            if (bucket < SUB_BUCKETS) return bucket;
+            int msb = bucket / SUB_BUCKETS + 3;
+            int sub = bucket % SUB_BUCKETS;
+            return ((long) (SUB_BUCKETS + sub + 1) << (msb - 4)) - 1;
+        }
+    }
+
+    // --- Run ---
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        String targetName = options.getOrDefault("target", "store");
+        double rate = Double.parseDouble(options.getOrDefault("rate", "200"));
+        long durationNanos = (long) (Double.parseDouble(options.getOrDefault("duration", "60")) * NANOS_PER_SECOND);
+        int threads = Integer.parseInt(options.getOrDefault("threads", "4"));
+        int callers = Integer.parseInt(options.getOrDefault("callers", "10000"));
+        double zipf = Double.parseDouble(options.getOrDefault("zipf", "1.0"));
+        String mix = options.getOrDefault("mix", "F:40,P:35,A:15,FA:5,PA:5");
+        long reportNanos = (long) (Double.parseDouble(options.getOrDefault("report", "10")) * NANOS_PER_SECOND);
+        long seed = Long.parseLong(options.getOrDefault("seed", "42"));
+        int shards = Integer.parseInt(options.getOrDefault("shards", "1"));
+        boolean offHeap = options.containsKey("offheap");
+
+        String[] corpus = DEFAULT_CORPUS;
+        if (options.containsKey("corpus")) {
+            corpus = Files.readAllLines(Paths.get(options.get("corpus")), StandardCharsets.UTF_8).stream()
+                    .map(String::trim).filter(line -> !line.isEmpty()).toArray(String[]::new);
+            if (corpus.length == 0) throw new IllegalArgumentException("Corpus file has no descriptions.");
+        }
+        TrafficModel model = new TrafficModel(callers, zipf, mix, corpus);
+
+        Path tempDir = Files.createTempDirectory("call-load");
+        Target target;
+        switch (targetName) {
+            case "store": target = new StoreTarget(tempDir, shards, offHeap); break;
+            case "manager": target = new ManagerTarget(tempDir); break;
+            case "socket":
+                target = new SocketTarget(options.containsKey("port") ? Integer.valueOf(options.get("port")) : null,
+                        options.containsKey("data") ? Paths.get(options.get("data")) : null, tempDir, shards, offHeap);
+                break;
+            default: throw new IllegalArgumentException("Unknown --target " + targetName);
+        }
+
+        System.out.printf("===== Load test: %s%s, %s, %d threads, %d callers (zipf %.2f), %s =====\n",
+                targetName, shards > 1 ? " (" + shards + " shards)" : offHeap ? " (off-heap)" : "", rate > 0 ? String.format("%.0f calls/s", rate) : "max rate", threads, callers, zipf,
+                formatSeconds(durationNanos));
+
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        System.gc();
+        long heapBefore = memory.getHeapMemoryUsage().getUsed();
+
+        LatencyHistogram total = new LatencyHistogram();
+        LatencyHistogram interval = new LatencyHistogram();
+        AtomicLong sequence = new AtomicLong();
+        AtomicLong accepted = new AtomicLong();
+        AtomicLong rejected = new AtomicLong();
+        AtomicLong errors = new AtomicLong();   // Calls that threw instead of returning
+        AtomicLong failed = new AtomicLong();   // Caller threads that stopped early
+        long start = System.nanoTime();
+        long end = start + durationNanos;
+
+        List<Thread> workers = new ArrayList<>();
+        for (int w = 0; w < threads; w++) {
+            SplittableRandom random = new SplittableRandom(seed + w);
+            Thread worker = new Thread(() -> {
+                try (Client client = target.newClient()) {
+                    while (true) {
+                        long due;
+                        if (rate > 0) {
+                            due = start + (long) (sequence.getAndIncrement() * NANOS_PER_SECOND / rate);
+                            if (due >= end) break;
+                            long wait;
+                            while ((wait = due - System.nanoTime()) > 0) LockSupport.parkNanos(wait);
+                        } else {
+                            due = System.nanoTime();
+                            if (due >= end) break;
+                        }
+                        String error;
+                        try {
+                            error = client.send(model.next(random));
+                        } catch (RuntimeException e) {
+                            if (errors.getAndIncrement() == 0) System.out.println("Call failed: " + e);
+                            continue;
+                        }
+                        long micros = (System.nanoTime() - due) / 1_000;
+                        total.record(micros);
+                        interval.record(micros);
+                        (error == null ? accepted : rejected).incrementAndGet();
+                    }
+                } catch (IOException | RuntimeException e) {
+                    failed.incrementAndGet();
+                    System.out.println("Caller thread stopped: " + e);
+                }
+            }, "load-caller-" + w);
+            workers.add(worker);
+            worker.start();
+        }
+
+        long lastReport = start;
+        long lastCount = 0;
+        while (workers.stream().anyMatch(Thread::isAlive)) {
+            Thread.sleep(100);
+            long now = System.nanoTime();
+            if (now - lastReport < reportNanos) continue;
+            long count = accepted.get() + rejected.get();
+            System.out.printf("[%s] %,d calls%s | %,.0f calls/s | p50 %s p99 %s max %s | heap %s | file %s\n",
+                    formatSeconds(now - start), count, errors.get() > 0 ? String.format(" (%,d errors)", errors.get()) : "", (count - lastCount) * (double) NANOS_PER_SECOND / (now - lastReport),
+                    formatMicros(interval.percentile(50)), formatMicros(interval.percentile(99)),
+                    formatMicros(interval.max()), formatBytes(memory.getHeapMemoryUsage().getUsed()),
+                    formatBytes(target.storeBytes()));
+            interval.reset();
+            lastReport = now;
+            lastCount = count;
+        }
+        for (Thread worker : workers) worker.join();
+        long elapsed = System.nanoTime() - start;
+
+        System.gc();
+        long heapAfter = memory.getHeapMemoryUsage().getUsed();
+        long count = accepted.get() + rejected.get();
+        System.out.println("===== Summary =====");
+        System.out.printf("Calls: %,d accepted, %,d rejected, %,d errors, %d caller threads failed\n",
+                accepted.get(), rejected.get(), errors.get(), failed.get());
+        System.out.printf("Throughput: %,.0f calls/s sustained over %s%s\n",
+                count * (double) NANOS_PER_SECOND / elapsed, formatSeconds(elapsed),
+                rate > 0 && count < 0.95 * rate * elapsed / NANOS_PER_SECOND ? " (below target rate: saturated)" : "");
+        System.out.printf("Latency: p50 %s | p90 %s | p99 %s | p99.9 %s | max %s\n",
+                formatMicros(total.percentile(50)), formatMicros(total.percentile(90)),
+                formatMicros(total.percentile(99)), formatMicros(total.percentile(99.9)), formatMicros(total.max()));
+        System.out.printf("Heap after GC: %s -> %s (%s per call)\n", formatBytes(heapBefore), formatBytes(heapAfter),
+                count == 0 ? "-" : formatBytes((heapAfter - heapBefore) / count));
+        System.out.println("Store file: " + formatBytes(target.storeBytes()));
+
+        target.close();
+        if (!options.containsKey("keep")) deleteTree(tempDir);
+        else System.out.println("Kept temporary store in " + tempDir);
+    }
+
+    // --name=value pairs; a bare --name means true
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) throw new IllegalArgumentException("Unexpected argument " + arg);
+            int eq = arg.indexOf('=');
+            if (eq < 0) options.put(arg.substring(2), "true");
+            else options.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        return options;
+    }
+
+    private static long fileSize(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private static void deleteTree(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted((a, b) -> b.compareTo(a)).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    private static String formatMicros(long micros) {
+        return micros < 1_000 ? micros + "us" : String.format("%.1fms", micros / 1_000.0);
+    }
+
+    private static String formatBytes(long bytes) {
+        if (bytes < 0) return "n/a";
+        if (bytes < 1024 * 1024) return String.format("%.1f KB", bytes / 1024.0);
+        return String.format("%.1f MB", bytes / (1024.0 * 1024));
+    }
+
+    private static String formatSeconds(long nanos) {
+        long seconds = nanos / NANOS_PER_SECOND;
+        return String.format("%d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+    }
+}
@@ -2,13 +2,15 @@
 // MainMenu.java
 // ==================================
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.EnumSet;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Scanner;
-import java.util.Set;
 
 /**
  * MainMenu provides the console interface for recording, viewing, and resolving emergency calls.
@@ -19,7 +21,7 @@ public class MainMenu {
     private static Scanner scanner = new Scanner(System.in);
 
     // List to store all emergency calls
-    private static CallList callList = new CallList();
+    private static CallStore callList = CallStore.open(); // Single file or sharded, see CallStore.SHARDS_PROPERTY
 
     public static void main(String[] args) {
         // Display welcome message
@@ -30,18 +32,25 @@ public class MainMenu {
         while (!exit) {
             printMenu();
             String choice = scanner.nextLine().trim();
-            switch (choice) {
-                case "1": addNewCall(); break; // Record new call
-                case "2": viewCallsByService(Service.FIRE); break; // View Fire calls
-                case "3": viewCallsByService(Service.POLICE); break; // View Police calls
-                case "4": viewCallsByService(Service.AMBULANCE); break; // View Ambulance calls
-                case "5": removeCall(); break; // Remove resolved call
-                case "6":
-                    System.out.println("✅ Goodbye!"); // Exit message
-                    exit = true;
-                    break;
-                default:
-                    System.out.println("❌ Invalid choice."); // Handle invalid input
+            try {
+                switch (choice) {
+                    case "1": addNewCall(); break; // Record new call
+                    case "2": viewCallsByService(Service.FIRE); break; // View Fire calls
+                    case "3": viewCallsByService(Service.POLICE); break; // View Police calls
+                    case "4": viewCallsByService(Service.AMBULANCE); break; // View Ambulance calls
+                    case "5": removeCall(); break; // Remove resolved call
+                    case "6": searchCalls(); break; // Full-text search over descriptions
+                    case "7": importCalls(); break; // Bulk import from CSV / JSON Lines
+                    case "8": exportCalls(); break; // Bulk export to CSV / JSON Lines
+                    case "9":
+                        System.out.println("✅ Goodbye!"); // Exit message
+                        exit = true;
+                        break;
+                    default:
+                        System.out.println("❌ Invalid choice."); // Handle invalid input
+                }
+            } catch (IllegalStateException e) {
+                System.out.println("❌ " + e.getMessage()); // e.g. changes on a read-only standby
             }
         }
     }
@@ -54,7 +63,10 @@ public class MainMenu {
         System.out.println("3. View Police service calls");
         System.out.println("4. View Ambulance service calls");
         System.out.println("5. Remove a resolved call");
-        System.out.println("6. Exit");
+        System.out.println("6. Search calls by description");
+        System.out.println("7. Import calls from file (CSV / JSON Lines)");
+        System.out.println("8. Export calls to file (CSV / JSON Lines)");
+        System.out.println("9. Exit");
         System.out.print("Enter your choice: ");
     }
 
@@ -67,7 +79,7 @@ public class MainMenu {
         while (true) {
             System.out.print("Enter caller name (letters only): ");
             name = scanner.nextLine().trim();
-            if (!name.matches("[A-Za-z ]+")) System.out.println("❌ Name must contain only letters.");
+            if (!CallValidator.isValidName(name)) System.out.println("❌ Name must contain only letters.");
             else break;
         }
 
@@ -75,12 +87,9 @@ public class MainMenu {
         String phone;
         while (true) {
             System.out.print("Enter phone number (10-11 digits): ");
-            phone = scanner.nextLine().trim();
-            if (!phone.matches("\\d{10,11}")) System.out.println("❌ Invalid phone number.");
-            else {
-                phone = "+44" + phone; // Automatically add UK country code
-                break;
-            }
+            phone = CallValidator.normalizePhone(scanner.nextLine().trim()); // Adds UK country code
+            if (phone == null) System.out.println("❌ Invalid phone number.");
+            else break;
         }
 
         // Emergency description input
@@ -89,48 +98,29 @@ public class MainMenu {
         if (description.isEmpty()) description = "No description provided";
 
         // Services selection with validation
-        EnumSet<Service> services = EnumSet.noneOf(Service.class);
-        while (services.isEmpty()) {
+        EnumSet<Service> services;
+        while (true) {
             System.out.println("Enter required services (Example: FP = Fire & Police):");
             System.out.println("F = Fire, P = Police, A = Ambulance");
             System.out.print("Your input: ");
-            String input = scanner.nextLine().toUpperCase().replaceAll("\\s+", "");
+            String input = scanner.nextLine();
 
-            if (!input.matches("^[FPA]+$")) {
-                System.out.println("❌ Invalid input. Only F, P, A letters are allowed.");
+            String error = CallValidator.serviceCodesError(input);
+            if (error != null) {
+                System.out.println("❌ " + error);
                 continue;
             }
-
-            // Ensure no duplicate services
-            Set<Character> unique = new HashSet<>();
-            boolean valid = true;
-            for (char c : input.toCharArray()) {
-                if (!unique.add(c)) {
-                    System.out.println("❌ Duplicate services are not allowed (e.g., FF, PP). Try again.");
-                    valid = false;
-                    break;
-                }
-            }
-            if (!valid) continue;
-
-            // Add selected services
-            for (char c : unique) {
-                switch (c) {
-                    case 'F': services.add(Service.FIRE); break;
-                    case 'P': services.add(Service.POLICE); break;
-                    case 'A': services.add(Service.AMBULANCE); break;
-                }
-            }
-
-            if (services.isEmpty()) {
-                System.out.println("❌ You must select at least one service.");
-            }
+            services = CallValidator.parseServiceCodes(input);
+            break;
         }
 
         // Create and add the call to the list
         EmergencyCall call = new EmergencyCall(name, phone, description, services, LocalDateTime.now());
-        callList.addCall(call);
+        List<DuplicateDetector.Match> duplicates = callList.addCall(call);
         System.out.println("✅ Emergency call recorded successfully.");
+        for (DuplicateDetector.Match match : duplicates) {
+            System.out.println("⚠️ Possible duplicate: " + match);
+        }
     }
 
     // Display all calls filtered by service
@@ -168,8 +158,16 @@ public class MainMenu {
 
         // Valid removal or cancel option
         if (index >= 1 && index <= calls.size()) {
-            callList.removeCall(calls.get(index - 1));
-            System.out.println("✅ Call removed.");
+            EmergencyCall call = calls.get(index - 1);
+            if (!callList.removeCall(call)) {
+                System.out.println("❌ The call was already removed.");
+                return;
+            }
+            System.out.print("✅ Call removed. Type U to undo, or press Enter to continue: ");
+            if (scanner.nextLine().trim().equalsIgnoreCase("u")) {
+                System.out.println(callList.restoreCall(call.getId()) != null
+                        ? "↩️ Call restored." : "❌ The call can no longer be restored.");
+            }
         } else if (index == 0) {
             System.out.println("Cancelled.");
         } else {
@@ -177,6 +175,66 @@ public class MainMenu {
         }
     }
 
+    // Search descriptions, optionally limited to some services
+    private static void searchCalls() {
+        System.out.println("----- Search Calls -----");
+        System.out.println("Words must all match, use smo* for prefixes and \"baker street\" for phrases.");
+        System.out.print("Search for: ");
+        String query = scanner.nextLine().trim();
+        if (query.isEmpty()) {
+            System.out.println("❌ Please enter something to search for.");
+            return;
+        }
+
+        System.out.print("Limit to services (F, P, A or Enter for all): ");
+        String input = scanner.nextLine();
+        EnumSet<Service> services = null;
+        if (!input.trim().isEmpty()) {
+            services = CallValidator.parseServiceCodes(input);
+            if (services == null) {
+                System.out.println("❌ " + CallValidator.serviceCodesError(input));
+                return;
+            }
+        }
+
+        ArrayList<EmergencyCall> calls = callList.search(query, services);
+        if (calls.isEmpty()) {
+            System.out.println("No calls found.");
+            return;
+        }
+        printTable(calls);
+    }
+
+    // Import calls in bulk from a .csv or .jsonl file
+    private static void importCalls() {
+        System.out.print("Enter file to import (.csv or .jsonl): ");
+        Path file = Paths.get(scanner.nextLine().trim());
+        try {
+            CallTransfer.ImportReport report = CallTransfer.importCalls(callList, file);
+            System.out.println("✅ " + report);
+            for (String rejection : report.getRejections()) {
+                System.out.println("❌ " + rejection);
+            }
+            if (report.getRejected() > report.getRejections().size()) {
+                System.out.println("... " + (report.getRejected() - report.getRejections().size()) + " more rejected rows.");
+            }
+        } catch (IOException e) {
+            System.out.println("❌ Import failed: " + e.getMessage());
+        }
+    }
+
+    // Export all calls to a .csv or .jsonl file
+    private static void exportCalls() {
+        System.out.print("Enter file to export to (.csv or .jsonl): ");
+        Path file = Paths.get(scanner.nextLine().trim());
+        try {
+            long written = CallTransfer.exportCalls(callList, file);
+            System.out.println("✅ Exported " + written + " calls to " + file + ".");
+        } catch (IOException e) {
+            System.out.println("❌ Export failed: " + e.getMessage());
+        }
+    }
+
     // ======================================
     // AUTO-WRAP PROFESSIONAL TABLE FUNCTION
     // ======================================
@@ -0,0 +1,794 @@
+// ==================================
+// OffHeapCallStore.java
+// Description: Call store that keeps call records in direct memory instead of the Java heap
+// ==================================
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+/**
+ * A call store for working sets of millions of calls. Each call is kept as its encoded
+ * log record (see CallLogFile.encodeAdd) in large direct-memory slabs, and an off-heap
+ * table maps every id to its record. The heap holds only the slab and table handles,
+ * so garbage collection does not slow down as the store grows. The change feed and the
+ * duplicate detector keep ids and look the calls up here.
+ *
+ * Calls are decoded into EmergencyCall objects on demand. Two reads of the same call
+ * return different objects, which are equal (see EmergencyCall.equals). Service, time
+ * and phone number criteria are checked on the raw records, so only matching calls are
+ * decoded. While calls arrive in time order, time-ordered and time-range queries walk
+ * the ids directly and stop at the limit. Once a call arrives out of order, compaction
+ * sorts the ids by time into an off-heap time index that those queries walk instead.
+ * There is no text or caller name index: those criteria scan and decode every call.
+ *
+ * Removing a call only marks its id table entry, so it can be restored within the undo
+ * window. Once enough removed calls pile up, a background compaction copies the rest
+ * into fresh slabs and compacts the store file.
+ *
+ * Uses the same store file as CallList, so either can open it.
+ */
+@SuppressWarnings("try") // Log locks are held by try-with-resources variables that are never read
+public class OffHeapCallStore implements CallStore {
+
+    private static final String DATA_FILE = "calls.dat";
+    private static final int SLAB_SIZE = 32 * 1024 * 1024;   // Bytes per slab
+    private static final int INITIAL_IDS = 1024;             // Initial id table size
+    private static final int MAX_IDS = Integer.MAX_VALUE / 8; // Largest id table one direct buffer holds
+
+    // Offsets inside a framed add record: length, type, id, then the three strings
+    private static final int NAME_OFFSET = 4 + 1 + 8;
+
+    private final List<ByteBuffer> slabs = new ArrayList<>(); // Records; a slab is full when a record does not fit
+    private LongBuffer locations;             // Indexed by id: slab << 32 | offset, plus one; negated once removed; 0 if unused
+    private LongBuffer removedTimes;          // Indexed by id: epoch millis a removed call was removed
+    private long maxId;                       // Highest id in the table
+    private int liveCount;                    // Calls not removed
+    private int removedCount;                 // Removed calls not yet compacted
+    private boolean timeOrdered;              // Walking timeOrder, then the ids after sortedMaxId, visits calls in time order
+    private LongBuffer timeOrder;             // Ids up to sortedMaxId by time, built by compaction; null while id order is time order
+    private long sortedMaxId;                 // Highest id covered by timeOrder
+    private long latestTime;                  // Time key of the most recent call
+    private long loads;                       // Counts (re)loads, so a compaction can tell its snapshot is stale
+    private volatile DuplicateDetector duplicateDetector;
+    private long nextId = 1;                  // Next id to assign
+    private CallLogFile log;                  // Shared store file, null if unavailable
+    private long logOffset;                   // Offset of the first record not yet applied
+    private Closeable watcher;                // Notices appends by other processes
+    private ReplicationServer replication;    // Ships the store file to standbys, null if not started
+    private final CallChangeFeed changes = new CallChangeFeed(CallChangeFeed.DEFAULT_CAPACITY, this::findStored);
+    private boolean publishing;               // False while (re)loading the whole store
+    private boolean compactionScheduled;      // A compaction is waiting to run
+
+    /*** Opens the store in the default file. */
+    public OffHeapCallStore() {
+        this(DATA_FILE);
+    }
+
+    /**
+     * Opens the store in the given file and starts watching it for changes.
+     * @param dataFile The store file, created if missing.
+     */
+    public OffHeapCallStore(String dataFile) {
+        reset();
+        try {
+            log = new CallLogFile(Paths.get(dataFile));
+            try (CallLogFile.Lock ignored = log.lockShared()) {
+                logOffset = log.read(CallLogFile.HEADER_SIZE, applier);
+            }
+            watcher = log.watch(this::refresh);
+        } catch (IOException e) {
+            System.out.println("Error loading calls: " + e.getMessage() + " (changes will not be saved)");
+            log = null;
+        }
+        publishing = true; // The loaded calls are the starting snapshot, not changes
+    }
+
+    @Override
+    public CallChangeFeed getChangeFeed() {
+        return changes;
+    }
+
+    /**
+     * Direct memory held by records and the id table, for diagnostics.
+     * @return Bytes allocated outside the heap.
+     */
+    public synchronized long offHeapBytes() {
+        long total = (long) (locations.capacity() + removedTimes.capacity() + (timeOrder == null ? 0 : timeOrder.capacity())) * 8;
+        for (ByteBuffer slab : slabs) total += slab.capacity();
+        return total;
+    }
+
+    // --- Writes ---
+
+    @Override
+    public synchronized List<DuplicateDetector.Match> addCall(EmergencyCall call) {
+        List<DuplicateDetector.Match> duplicates = duplicateDetector.check(call);
+        persist(Collections.singletonList(call), true);
+        duplicateDetector.index(call); // Once it has its id, so removing it can take it out again
+        return duplicates;
+    }
+
+    @Override
+    public synchronized void addCalls(Collection<EmergencyCall> batch) {
+        insertBatch(batch);
+        commit();
+    }
+
+    /**
+     * Appends calls without flushing them to disk, for bulk import. Call commit() afterwards.
+     * Bulk calls are indexed for duplicate detection but not checked.
+     * @param batch The calls to be added.
+     */
+    @Override
+    public synchronized void insertBatch(Collection<EmergencyCall> batch) {
+        persist(batch, false);
+        for (EmergencyCall call : batch) {
+            duplicateDetector.index(call);
+        }
+    }
+
+    @Override
+    public synchronized void commit() {
+        if (log == null) return;
+        try {
+            log.force();
+        } catch (IOException e) {
+            System.out.println("Error saving calls: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Removes a call and saves the change. The record stays in its slab until compacted;
+     * only the id table entry is marked removed.
+     * @param call The EmergencyCall to be removed, or any call with the same id.
+     * @return true if removal was successful, false otherwise, e.g. if it could not be saved.
+     */
+    @Override
+    public synchronized boolean removeCall(EmergencyCall call) {
+        long removedAt = System.currentTimeMillis();
+        if (log != null) {
+            try (CallLogFile.Lock ignored = log.lockExclusive()) {
+                catchUp();
+                if (entry(call.getId()) <= 0) return false; // Already removed elsewhere
+                logOffset = log.append(Collections.singletonList(CallLogFile.encodeRemove(call.getId(), removedAt)));
+                log.force();
+            } catch (IOException e) {
+                System.out.println("Error saving calls: " + e.getMessage());
+                return false; // Still stored, so it must not disappear here only
+            }
+        }
+        return unstore(call.getId(), removedAt);
+    }
+
+    @Override
+    public synchronized EmergencyCall restoreCall(long id) {
+        if (log != null) {
+            try (CallLogFile.Lock ignored = log.lockExclusive()) {
+                catchUp(); // It may have been restored or compacted elsewhere
+                if (!canRestore(id)) return null;
+                logOffset = log.append(Collections.singletonList(CallLogFile.encodeRestore(id)));
+                log.force();
+            } catch (IOException e) {
+                System.out.println("Error saving calls: " + e.getMessage());
+                return null; // Still removed in the store file
+            }
+        }
+        return canRestore(id) ? revive(id) : null;
+    }
+
+    // --- Reads ---
+
+    @Override
+    public ArrayList<EmergencyCall> getAllCalls() {
+        return query(CallQuery.create());
+    }
+
+    @Override
+    public synchronized ArrayList<EmergencyCall> getCallsAfter(long afterId, int limit) {
+        ArrayList<EmergencyCall> page = new ArrayList<>();
+        for (long id = Math.max(afterId, 0) + 1; id <= maxId && page.size() < limit; id++) {
+            long entry = locations.get((int) id);
+            if (entry > 0) page.add(view(entry - 1));
+        }
+        return page;
+    }
+
+    @Override
+    public ArrayList<EmergencyCall> getCallsByService(Service service) {
+        return query(CallQuery.create().services(EnumSet.of(service)));
+    }
+
+    @Override
+    public ArrayList<EmergencyCall> search(String query, EnumSet<Service> services) {
+        if (CallSearchIndex.tokenize(query).isEmpty()) return new ArrayList<>();
+        return query(CallQuery.create().text(query).services(services));
+    }
+
+    /**
+     * Runs a query. When the walk is in the requested order it stops at the limit;
+     * otherwise the matches are sorted afterwards.
+     * @param query The query.
+     * @return Matching calls in the requested order.
+     */
+    @Override
+    public synchronized ArrayList<EmergencyCall> query(CallQuery query) {
+        ArrayList<EmergencyCall> matches = new ArrayList<>();
+        boolean ordered = walksInOrder(query);
+        walk(query, ordered ? query.getLimit() : Integer.MAX_VALUE, matches);
+        if (!ordered) {
+            matches.sort(query.comparator());
+            if (matches.size() > query.getLimit()) matches.subList(query.getLimit(), matches.size()).clear();
+        }
+        return matches;
+    }
+
+    /**
+     * Counts the calls a query matches. Calls are decoded only for the caller name
+     * and text criteria.
+     * @param query The query; its order is ignored.
+     * @return Number of matching calls, at most the query's limit.
+     */
+    @Override
+    public synchronized int count(CallQuery query) {
+        return walk(query, query.getLimit(), null);
+    }
+
+    @Override
+    public synchronized String explain(CallQuery query) {
+        boolean byTime = walksByTime(query);
+        long[] range = positionRange(query, byTime);
+        return String.format("OFF_HEAP %s %s %d..%d (~%d candidates)%s",
+                walksInOrder(query) ? "WALK" : "SCAN", byTime && timeOrder != null ? "time index" : "ids", range[0], range[1],
+                Math.max(0, Math.min(liveCount, range[1] - range[0] + 1)), walksInOrder(query) ? "" : ", sorted");
+    }
+
+    @Override
+    public synchronized EmergencyCall getCall(long id) {
+        long entry = entry(id);
+        return entry > 0 ? view(entry - 1) : null;
+    }
+
+    // A call still held, removed or not, for change feed delivery; null once compacted away
+    private synchronized EmergencyCall findStored(long id) {
+        long entry = entry(id);
+        return entry != 0 ? view(Math.abs(entry) - 1) : null;
+    }
+
+    /**
+     * Applies changes other processes appended to the store file since the last read.
+     * Runs automatically when the file changes; can also be called directly.
+     */
+    @Override
+    public synchronized void refresh() {
+        if (log == null) return;
+        try (CallLogFile.Lock ignored = log.lockShared()) {
+            catchUp();
+        } catch (IOException e) {
+            System.out.println("Error loading calls: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Starts shipping the store file to standbys (see ReplicaCallStore). The server is
+     * closed with the store.
+     * @param port Port to listen on.
+     */
+    synchronized void startReplication(int port) {
+        if (log == null) {
+            System.out.println("Error starting replication: the store file is not open");
+            return;
+        }
+        try {
+            replication = new ReplicationServer(log.getPath(), port);
+            replication.start();
+        } catch (IOException e) {
+            System.out.println("Error starting replication: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Stops replication and watching the store file, and closes it. The direct memory is
+     * freed once the store is no longer referenced.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (replication != null) replication.close();
+        if (watcher != null) watcher.close();
+        if (log != null) log.close();
+        log = null; // A refresh already waiting for the lock finds nothing to read
+    }
+
+    // --- Query walk ---
+
+    // Calls can be walked in the requested order: recorded order is id order, and time order is known while timeOrdered
+    private boolean walksInOrder(CallQuery query) {
+        return query.getOrder() == CallQuery.Order.RECORDED || timeOrdered;
+    }
+
+    // Walk in time order, which recorded order is too unless compaction had to build a time index
+    private boolean walksByTime(CallQuery query) {
+        return timeOrdered && (query.getOrder() != CallQuery.Order.RECORDED || timeOrder == null);
+    }
+
+    // The id at a position of the walk: with a time index, its ids and then those after it; otherwise the id itself
+    private long idAt(long position, boolean byTime) {
+        if (!byTime || timeOrder == null) return position;
+        return position < timeOrder.limit() ? timeOrder.get((int) position) : sortedMaxId + 1 + position - timeOrder.limit();
+    }
+
+    // First and last position that can match; a time range narrows them when walking in time order
+    private long[] positionRange(CallQuery query, boolean byTime) {
+        boolean indexed = byTime && timeOrder != null;
+        long first = indexed ? 0 : 1;
+        long last = indexed ? timeOrder.limit() + maxId - sortedMaxId - 1 : maxId;
+        if (byTime && query.hasTimeRange()) {
+            long end = last + 1;
+            if (query.getFrom() != null) first = firstPositionAtOrAfter(timeKey(query.getFrom()), first, end);
+            if (query.getTo() != null) last = firstPositionAtOrAfter(timeKey(query.getTo()), first, end) - 1;
+        }
+        return new long[] {first, last};
+    }
+
+    // Visits matching calls in id order (reversed for newest first), adding them to out if given
+    private int walk(CallQuery query, int limit, List<EmergencyCall> out) {
+        int serviceMask = query.getServices() == null ? 0 : CallLogFile.serviceMask(query.getServices());
+        long from = query.getFrom() == null ? Long.MIN_VALUE : timeKey(query.getFrom());
+        long to = query.getTo() == null ? Long.MAX_VALUE : timeKey(query.getTo());
+        String phonePrefix = query.getPhonePrefix();
+        boolean decode = out != null || query.getCallerName() != null || query.getText() != null;
+        boolean descending = query.getOrder() == CallQuery.Order.NEWEST_FIRST;
+
+        boolean byTime = walksByTime(query);
+        long[] range = positionRange(query, byTime);
+        int found = 0;
+        for (long i = 0; i <= range[1] - range[0] && found < limit; i++) {
+            long entry = locations.get((int) idAt(descending ? range[1] - i : range[0] + i, byTime));
+            if (entry <= 0) continue; // Unused or removed
+            long loc = entry - 1;
+            ByteBuffer slab = slabs.get((int) (loc >>> 32));
+            int offset = (int) loc;
+
+            int fieldsAt = skipStrings(slab, offset + NAME_OFFSET, 3);
+            if (serviceMask != 0 && (slab.get(fieldsAt) & serviceMask) == 0) continue;
+            long time = timeKey(slab, fieldsAt + 1);
+            if (time < from || time >= to) continue;
+            if (phonePrefix != null && !phoneStartsWith(slab, skipStrings(slab, offset + NAME_OFFSET, 1), phonePrefix)) continue;
+            if (decode) {
+                EmergencyCall call = view(loc);
+                if (!query.matches(call)) continue;
+                if (out != null) out.add(call);
+            }
+            found++;
+        }
+        return found;
+    }
+
+    // Smallest position in low..high whose call is at or after the time key, walking in time order
+    private long firstPositionAtOrAfter(long key, long low, long high) {
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            long probe = mid;
+            while (probe < high && locations.get((int) idAt(probe, true)) == 0) probe++; // Skip ids never used
+            if (probe < high && timeKey(Math.abs(locations.get((int) idAt(probe, true))) - 1) < key) {
+                low = probe + 1;
+            } else {
+                high = mid; // Positions mid..probe-1 hold no call, so any of them is a valid answer
+            }
+        }
+        return low;
+    }
+
+    // --- Record access ---
+
+    // Id table entry, 0 for ids never used
+    private long entry(long id) {
+        return id > 0 && id <= maxId ? locations.get((int) id) : 0;
+    }
+
+    // Decodes the record at a location into a new EmergencyCall
+    private EmergencyCall view(long loc) {
+        ByteBuffer record = slabs.get((int) (loc >>> 32)).duplicate();
+        record.position((int) loc + 4 + 1);
+        return CallLogFile.decodeCall(record);
+    }
+
+    private long timeKey(long loc) {
+        return timeKey(slabs, loc);
+    }
+
+    private static long timeKey(List<ByteBuffer> slabs, long loc) {
+        ByteBuffer slab = slabs.get((int) (loc >>> 32));
+        return timeKey(slab, skipStrings(slab, (int) loc + NAME_OFFSET, 3) + 1);
+    }
+
+    // Seconds and nanoseconds as one sortable number; fits a long until the year 2262
+    private static long timeKey(ByteBuffer slab, int at) {
+        return slab.getLong(at) * 1_000_000_000L + slab.getInt(at + 8);
+    }
+
+    private static long timeKey(LocalDateTime time) {
+        return time.toEpochSecond(ZoneOffset.UTC) * 1_000_000_000L + time.getNano();
+    }
+
+    private static int skipStrings(ByteBuffer slab, int at, int count) {
+        for (int i = 0; i < count; i++) at += 4 + slab.getInt(at);
+        return at;
+    }
+
+    // Whether the length-prefixed phone number at a position starts with the prefix once
+    // normalized; only the number is decoded, since older records may not be in stored form
+    private static boolean phoneStartsWith(ByteBuffer slab, int at, String prefix) {
+        byte[] phone = new byte[slab.getInt(at)];
+        ByteBuffer field = slab.duplicate();
+        field.position(at + 4);
+        field.get(phone);
+        return CallValidator.canonicalPhone(new String(phone, StandardCharsets.UTF_8)).startsWith(prefix);
+    }
+
+    // --- Storage ---
+
+    private void reset() {
+        slabs.clear();
+        locations = ByteBuffer.allocateDirect(INITIAL_IDS * 8).asLongBuffer();
+        removedTimes = ByteBuffer.allocateDirect(INITIAL_IDS * 8).asLongBuffer();
+        maxId = 0;
+        liveCount = 0;
+        removedCount = 0;
+        timeOrdered = true;
+        timeOrder = null;
+        sortedMaxId = 0;
+        latestTime = Long.MIN_VALUE;
+        loads++;
+        duplicateDetector = new DuplicateDetector(DuplicateDetector.DEFAULT_WINDOW, this::getCall);
+    }
+
+    // Copies bytes to the end of the last slab, starting a new one when they do not fit
+    private long append(ByteBuffer bytes) {
+        ByteBuffer slab = slabs.isEmpty() ? null : slabs.get(slabs.size() - 1);
+        if (slab == null || slab.remaining() < bytes.remaining()) {
+            slab = ByteBuffer.allocateDirect(Math.max(SLAB_SIZE, bytes.remaining())); // Oversized records get their own slab
+            slabs.add(slab);
+        }
+        long loc = (long) (slabs.size() - 1) << 32 | slab.position();
+        slab.put(bytes);
+        return loc;
+    }
+
+    // The framed record at a location, as a buffer over the slab
+    private static ByteBuffer record(List<ByteBuffer> slabs, long loc) {
+        ByteBuffer record = slabs.get((int) (loc >>> 32)).duplicate();
+        int offset = (int) loc;
+        record.position(offset);
+        record.limit(offset + 4 + record.getInt(offset) + 4);
+        return record;
+    }
+
+    // Copies an encoded add record into a slab and points the call's id at it
+    private void store(EmergencyCall call, byte[] record) {
+        long loc = append(ByteBuffer.wrap(record));
+
+        long id = call.getId();
+        long time = timeKey(call.getTimestamp());
+        if ((time < latestTime || id <= maxId) && timeOrdered) {
+            timeOrdered = false;
+            scheduleCompaction(); // Which sorts the ids by time again
+        }
+        latestTime = Math.max(latestTime, time);
+
+        if (id >= locations.capacity()) growTable(id);
+        if (locations.get((int) id) > 0) liveCount--; // Replaced, e.g. a record applied twice
+        locations.put((int) id, loc + 1);
+        maxId = Math.max(maxId, id);
+        liveCount++;
+        if (publishing) changes.publish(CallChangeFeed.Type.ADDED, call);
+    }
+
+    private void growTable(long id) {
+        if (id >= MAX_IDS) throw new IllegalStateException("Call id " + id + " is too large for the off-heap store.");
+        long capacity = locations.capacity();
+        while (capacity <= id) capacity *= 2;
+        int size = (int) Math.min(capacity, MAX_IDS);
+        locations = grow(locations, size);
+        removedTimes = grow(removedTimes, size);
+    }
+
+    private static LongBuffer grow(LongBuffer table, int size) {
+        LongBuffer grown = ByteBuffer.allocateDirect(size * 8).asLongBuffer();
+        table.clear();
+        grown.put(table);
+        grown.clear();
+        return grown;
+    }
+
+    // Marks a call removed in the id table
+    private boolean unstore(long id, long removedAt) {
+        long entry = entry(id);
+        if (entry <= 0) return false;
+        locations.put((int) id, -entry);
+        liveCount--;
+        removedCount++;
+        removedTimes.put((int) id, removedAt);
+        duplicateDetector.remove(id);
+        if (publishing) changes.publish(CallChangeFeed.Type.REMOVED, view(entry - 1));
+        if (Compactor.isDue(removedCount, liveCount + removedCount)) scheduleCompaction();
+        return true;
+    }
+
+    private boolean canRestore(long id) {
+        return entry(id) < 0 && System.currentTimeMillis() - removedTimes.get((int) id) <= UNDO_WINDOW.toMillis();
+    }
+
+    // Marks a removed call live again
+    private EmergencyCall revive(long id) {
+        long entry = entry(id);
+        if (entry >= 0) return null;
+        locations.put((int) id, -entry);
+        liveCount++;
+        removedCount--;
+        removedTimes.put((int) id, 0);
+        EmergencyCall call = view(-entry - 1);
+        duplicateDetector.index(call);
+        if (publishing) changes.publish(CallChangeFeed.Type.ADDED, call);
+        return call;
+    }
+
+    // --- Compaction ---
+
+    private void scheduleCompaction() {
+        if (compactionScheduled) return;
+        compactionScheduled = true;
+        Compactor.schedule(this::compact);
+    }
+
+    /**
+     * Drops calls removed longer ago than the undo window: the other records are copied
+     * into fresh slabs and the store file is compacted. The compacted file is written
+     * from the old slabs without holding the store lock; the records appended meanwhile
+     * are copied onto it when it is swapped in. If calls arrived out of time order, the
+     * ids are also sorted by time into a new time index.
+     */
+    void compact() {
+        Set<Long> purged = new HashSet<>();
+        List<byte[]> stillRemoved = new ArrayList<>();
+        long cutoff = System.currentTimeMillis() - UNDO_WINDOW.toMillis();
+        boolean sort;
+        List<ByteBuffer> snapshotSlabs;
+        LongBuffer snapshotTable;
+        long snapshotMaxId;
+        long snapshotOffset;
+        long snapshotLoads;
+        CallLogFile file;
+        long generation;
+        synchronized (this) {
+            compactionScheduled = false;
+            for (long id = 1; id <= maxId; id++) {
+                if (locations.get((int) id) >= 0) continue;
+                if (removedTimes.get((int) id) <= cutoff) {
+                    purged.add(id);
+                } else {
+                    stillRemoved.add(CallLogFile.encodeRemove(id, removedTimes.get((int) id))); // Keeps its undo time
+                }
+            }
+            sort = !timeOrdered;
+            if (purged.isEmpty() && !sort) return;
+            // Records up to snapshotMaxId are never moved or overwritten until the swap below
+            snapshotSlabs = new ArrayList<>(slabs);
+            snapshotTable = locations;
+            snapshotMaxId = maxId;
+            snapshotOffset = logOffset;
+            snapshotLoads = loads;
+            file = log;
+            generation = file == null ? 0 : file.getGeneration();
+        }
+
+        long[] byTime = sort ? sortByTime(snapshotSlabs, snapshotTable, snapshotMaxId, purged) : null;
+        Path compacted = null;
+        if (file != null && !purged.isEmpty()) {
+            Stream<byte[]> adds = LongStream.rangeClosed(1, snapshotMaxId)
+                    .filter(id -> snapshotTable.get((int) id) != 0 && !purged.contains(id))
+                    .mapToObj(id -> {
+                        ByteBuffer record = record(snapshotSlabs, Math.abs(snapshotTable.get((int) id)) - 1);
+                        byte[] bytes = new byte[record.remaining()];
+                        record.get(bytes);
+                        return bytes;
+                    });
+            try {
+                compacted = file.writeCompacted(() -> Stream.concat(adds,
+                        stillRemoved.stream()).iterator());
+            } catch (IOException e) {
+                System.out.println("Error compacting calls: " + e.getMessage());
+                return;
+            }
+        }
+
+        synchronized (this) {
+            if (compacted != null) {
+                if (log == null) { // Closed meanwhile
+                    compacted.toFile().delete();
+                    return;
+                }
+                try (CallLogFile.Lock ignored = log.lockExclusive()) {
+                    catchUp();
+                    // Give up if the file was replaced or a purged call was restored elsewhere meanwhile
+                    if (log.getGeneration() != generation || loads != snapshotLoads || !stillPurgeable(purged, cutoff)) {
+                        Files.deleteIfExists(compacted);
+                        return;
+                    }
+                    logOffset = log.replaceWithCompacted(compacted, snapshotOffset);
+                } catch (IOException e) {
+                    System.out.println("Error compacting calls: " + e.getMessage());
+                    return;
+                }
+            } else if (loads != snapshotLoads || !stillPurgeable(purged, cutoff)) {
+                return;
+            }
+            if (!purged.isEmpty()) {
+                List<ByteBuffer> oldSlabs = new ArrayList<>(slabs);
+                slabs.clear();
+                for (long id = 1; id <= maxId; id++) {
+                    long entry = locations.get((int) id);
+                    if (entry == 0) continue;
+                    if (purged.contains(id)) {
+                        locations.put((int) id, 0);
+                        removedTimes.put((int) id, 0);
+                        continue;
+                    }
+                    long loc = append(record(oldSlabs, Math.abs(entry) - 1));
+                    locations.put((int) id, entry > 0 ? loc + 1 : -(loc + 1));
+                }
+                removedCount -= purged.size();
+            }
+            if (byTime != null) useTimeOrder(byTime, snapshotMaxId);
+        }
+    }
+
+    // Whether every purged call is still removed, and not removed again since the cutoff
+    private boolean stillPurgeable(Set<Long> purged, long cutoff) {
+        for (long id : purged) {
+            if (entry(id) >= 0 || removedTimes.get((int) id) > cutoff) return false;
+        }
+        return true;
+    }
+
+    // Ids up to maxId that are held and not purged, sorted by time; equal times keep id order
+    private static long[] sortByTime(List<ByteBuffer> slabs, LongBuffer table, long maxId, Set<Long> purged) {
+        long[] ids = LongStream.rangeClosed(1, maxId)
+                .filter(id -> table.get((int) id) != 0 && !purged.contains(id))
+                .toArray();
+        long[] keys = new long[ids.length];
+        for (int i = 0; i < ids.length; i++) keys[i] = timeKey(slabs, Math.abs(table.get((int) ids[i])) - 1);
+        long[] sortedKeys = keys.clone();
+        Arrays.sort(sortedKeys);
+        long[] sorted = new long[ids.length];
+        int[] taken = new int[ids.length]; // Slots used so far, counted at the first slot of each time
+        for (int i = 0; i < ids.length; i++) {
+            int first = firstIndexOf(sortedKeys, keys[i]);
+            sorted[first + taken[first]++] = ids[i];
+        }
+        return sorted;
+    }
+
+    private static int firstIndexOf(long[] sorted, long key) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // Walks time order through the sorted ids from now on, if the calls added since they were sorted follow them in time
+    private void useTimeOrder(long[] sorted, long upToId) {
+        long last = Long.MIN_VALUE;
+        for (int i = sorted.length - 1; i >= 0 && last == Long.MIN_VALUE; i--) {
+            long entry = locations.get((int) sorted[i]);
+            if (entry != 0) last = timeKey(Math.abs(entry) - 1);
+        }
+        for (long id = upToId + 1; id <= maxId; id++) {
+            long entry = locations.get((int) id);
+            if (entry == 0) continue;
+            long time = timeKey(Math.abs(entry) - 1);
+            if (time < last) {
+                scheduleCompaction(); // Out of order again, so sort them next time
+                return;
+            }
+            last = time;
+        }
+        LongBuffer order = ByteBuffer.allocateDirect(sorted.length * 8).asLongBuffer();
+        order.put(sorted);
+        order.flip();
+        timeOrder = order;
+        sortedMaxId = upToId;
+        timeOrdered = true;
+    }
+
+    // --- Persistence ---
+
+    // Applies records read from the log
+    private final CallLogFile.RecordHandler applier = new CallLogFile.RecordHandler() {
+        @Override
+        public void onAdd(EmergencyCall call) {
+            nextId = Math.max(nextId, call.getId() + 1);
+            store(call, CallLogFile.encodeAdd(call));
+            duplicateDetector.index(call);
+        }
+
+        @Override
+        public void onRemove(long id, long removedAt) {
+            unstore(id, removedAt > 0 ? removedAt : System.currentTimeMillis());
+        }
+
+        @Override
+        public void onRestore(long id) {
+            revive(id);
+        }
+    };
+
+    // Assigns ids and appends add records under the exclusive lock, then stores the calls
+    private void persist(Collection<EmergencyCall> batch, boolean force) {
+        List<byte[]> records = new ArrayList<>(batch.size());
+        if (log == null) {
+            encodeWithIds(batch, records);
+        } else {
+            try (CallLogFile.Lock ignored = log.lockExclusive()) {
+                catchUp(); // Ids must follow those other processes already used
+                encodeWithIds(batch, records);
+                logOffset = log.append(records);
+                if (force) log.force();
+            } catch (IOException e) {
+                System.out.println("Error saving calls: " + e.getMessage());
+                if (records.size() < batch.size()) encodeWithIds(batch, records); // Kept in memory only
+            }
+        }
+        int i = 0;
+        for (EmergencyCall call : batch) {
+            store(call, records.get(i++)); // The record just written is the stored copy
+        }
+    }
+
+    private void encodeWithIds(Collection<EmergencyCall> batch, List<byte[]> records) {
+        records.clear();
+        for (EmergencyCall call : batch) {
+            call.setId(nextId++);
+            records.add(CallLogFile.encodeAdd(call));
+        }
+    }
+
+    // Reads records appended since logOffset; the caller holds a log lock
+    private void catchUp() throws IOException {
+        if (log.generationChanged() || log.size() < logOffset) {
+            // The file was rewritten: offsets no longer apply, so load it again and tell subscribers
+            boolean wasPublishing = publishing;
+            publishing = false;
+            reset();
+            logOffset = log.read(CallLogFile.HEADER_SIZE, applier);
+            publishing = wasPublishing;
+            if (publishing) changes.publish(CallChangeFeed.Type.RESET, null);
+            return;
+        }
+        logOffset = log.read(logOffset, applier);
+    }
+}
@@ -0,0 +1,335 @@
+// ==================================
+// ReplicaCallStore.java
+// Description: Read-only standby copy of a call store, kept current by log shipping
+// ==================================
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Scanner;
+
+/**
+ * Standby side of log-shipping replication. Receives the primary's log records from a
+ * ReplicationServer, appends them unchanged to a local replica log and applies them to
+ * a CallList over that log, so the standby has its own indexes and answers queries
+ * without touching the primary. Lost connections are retried until promoted.
+ *
+ * Until promote() the store is read-only and every write throws IllegalStateException.
+ * Promotion stops replication; the CallList is already current up to the last record
+ * received, so the replica log then serves as the store file of the new primary.
+ *
+ * A standby of one shard must use a CallList with that shard's id stride and offset, or
+ * its new ids collide with other shards once promoted; ShardedReplicaCallStore does that
+ * for every shard of a ShardedCallList.
+ */
+@SuppressWarnings("try") // Log locks are held by try-with-resources variables that are never read
+public class ReplicaCallStore implements CallStore {
+
+    public static final String DEFAULT_REPLICA_FILE = "calls-replica.dat";
+
+    private static final long RETRY_MILLIS = 1000;                                   // Wait before reconnecting
+    private static final int READ_TIMEOUT = (int) (3 * ReplicationServer.HEARTBEAT_MILLIS); // Primary presumed gone
+
+    private final int primaryPort;
+    private final CallLogFile replicaLog;  // Written by replication only
+    private final CallList callList;       // Reads the replica log
+    private final Thread replicator;
+    private volatile boolean promoted;
+    private volatile boolean stopped;      // Replication has ended, by promotion or close
+    private final Object retryWait = new Object(); // Notified to cut a reconnect wait short
+    private volatile Socket connection;    // Current connection to the primary, null while disconnected
+    private volatile long primaryEnd;      // End of the primary's log at its last frame
+    private volatile long lastContact;     // Epoch millis of the last frame
+
+    /**
+     * Opens the replica log, creating it if missing, and starts replicating.
+     * @param primaryPort Port of the primary's ReplicationServer on this machine.
+     * @param replicaFile The replica log.
+     * @throws IOException If the replica log cannot be opened.
+     */
+    public ReplicaCallStore(int primaryPort, String replicaFile) throws IOException {
+        this(primaryPort, replicaFile, new CallList(replicaFile));
+    }
+
+    /**
+     * Opens the replica log and starts replicating into a CallList opened over it.
+     * @param primaryPort Port of the primary's ReplicationServer on this machine.
+     * @param replicaFile The replica log.
+     * @param callList    CallList over the replica log, e.g. one shard of a ShardedCallList; closed with the standby.
+     * @throws IOException If the replica log cannot be opened.
+     */
+    ReplicaCallStore(int primaryPort, String replicaFile, CallList callList) throws IOException {
+        this.primaryPort = primaryPort;
+        this.replicaLog = new CallLogFile(Paths.get(replicaFile));
+        this.callList = callList;
+        callList.setCompacting(false);
+        this.replicator = new Thread(this::replicate, "replication-client");
+        replicator.setDaemon(true);
+        replicator.start();
+    }
+
+    /** True once promoted to primary. */
+    public boolean isPromoted() {
+        return promoted;
+    }
+
+    /** True while receiving from the primary. */
+    public boolean isConnected() {
+        return connection != null;
+    }
+
+    /**
+     * Bytes of the primary's log not yet applied here, as of the last frame received.
+     */
+    public long getLagBytes() {
+        return Math.max(0, primaryEnd - replicaEnd());
+    }
+
+    /** Epoch millis of the last frame from the primary, 0 if none. */
+    public long getLastContact() {
+        return lastContact;
+    }
+
+    /**
+     * Stops replicating and makes the store writable. Call after the primary is gone;
+     * records the primary wrote after the last frame received are not on this copy.
+     */
+    public void promote() {
+        stopReplication();
+        callList.refresh(); // Apply everything received
+        callList.setCompacting(true);
+        promoted = true;
+    }
+
+    // --- Writes, once promoted ---
+
+    @Override
+    public List<DuplicateDetector.Match> addCall(EmergencyCall call) {
+        checkWritable();
+        return callList.addCall(call);
+    }
+
+    @Override
+    public void addCalls(Collection<EmergencyCall> batch) {
+        checkWritable();
+        callList.addCalls(batch);
+    }
+
+    @Override
+    public void insertBatch(Collection<EmergencyCall> batch) {
+        checkWritable();
+        callList.insertBatch(batch);
+    }
+
+    @Override
+    public void commit() {
+        checkWritable();
+        callList.commit();
+    }
+
+    @Override
+    public boolean removeCall(EmergencyCall call) {
+        checkWritable();
+        return callList.removeCall(call);
+    }
+
+    @Override
+    public EmergencyCall restoreCall(long id) {
+        checkWritable();
+        return callList.restoreCall(id);
+    }
+
+    private void checkWritable() {
+        if (!promoted) throw new IllegalStateException("This is a read-only standby; promote it to make changes.");
+    }
+
+    // --- Reads ---
+
+    @Override
+    public ArrayList<EmergencyCall> getAllCalls() {
+        return callList.getAllCalls();
+    }
+
+    @Override
+    public ArrayList<EmergencyCall> getCallsAfter(long afterId, int limit) {
+        return callList.getCallsAfter(afterId, limit);
+    }
+
+    @Override
+    public ArrayList<EmergencyCall> getCallsByService(Service service) {
+        return callList.getCallsByService(service);
+    }
+
+    @Override
+    public ArrayList<EmergencyCall> search(String query, EnumSet<Service> services) {
+        return callList.search(query, services);
+    }
+
+    @Override
+    public ArrayList<EmergencyCall> query(CallQuery query) {
+        return callList.query(query);
+    }
+
+    @Override
+    public int count(CallQuery query) {
+        return callList.count(query);
+    }
+
+    @Override
+    public String explain(CallQuery query) {
+        return callList.explain(query);
+    }
+
+    @Override
+    public EmergencyCall getCall(long id) {
+        return callList.getCall(id);
+    }
+
+    @Override
+    public CallChangeFeed getChangeFeed() {
+        return callList.getChangeFeed();
+    }
+
+    @Override
+    public void refresh() {
+        callList.refresh();
+    }
+
+    @Override
+    public void close() throws IOException {
+        stopReplication();
+        callList.close();
+        replicaLog.close();
+    }
+
+    // --- Replication ---
+
+    private void stopReplication() {
+        stopped = true;
+        synchronized (retryWait) {
+            retryWait.notifyAll();
+        }
+        Socket socket = connection;
+        if (socket != null) {
+            try {
+                socket.close(); // Unblocks a read in progress
+            } catch (IOException e) {
+                // Already closed
+            }
+        }
+        try {
+            replicator.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private long replicaEnd() {
+        try (CallLogFile.Lock ignored = replicaLog.lockShared()) {
+            return replicaLog.size();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    // Connects to the primary and applies frames, reconnecting until promoted or closed
+    private void replicate() {
+        while (!stopped) {
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), primaryPort));
+                socket.setSoTimeout(READ_TIMEOUT);
+                connection = socket;
+                receive(socket);
+            } catch (IOException e) {
+                // Primary not reachable; retry below
+            } finally {
+                connection = null;
+            }
+            try {
+                synchronized (retryWait) {
+                    if (!stopped) retryWait.wait(RETRY_MILLIS);
+                }
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+    }
+
+    private void receive(Socket socket) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        try (CallLogFile.Lock ignored = replicaLog.lockShared()) {
+            replicaLog.generationChanged();
+            out.writeLong(replicaLog.getGeneration());
+            out.writeLong(replicaLog.size());
+        }
+        out.flush();
+
+        while (!stopped) {
+            long generation = in.readLong();
+            long offset = in.readLong();
+            byte[] records = new byte[in.readInt()];
+            in.readFully(records);
+            if (stopped) return; // Nothing more is applied once promoted
+            try (CallLogFile.Lock ignored = replicaLog.lockExclusive()) {
+                replicaLog.generationChanged();
+                if (generation != replicaLog.getGeneration()) {
+                    if (offset != CallLogFile.HEADER_SIZE) throw new IOException("Replica is out of step with the primary.");
+                    replicaLog.resetTo(generation); // The primary's log was replaced: start over
+                    replicaLog.generationChanged();
+                }
+                long end = replicaLog.size();
+                if (offset != end) throw new IOException("Replica is out of step with the primary.");
+                if (records.length > 0) {
+                    replicaLog.appendRaw(records);
+                    replicaLog.force();
+                }
+            }
+            primaryEnd = offset + records.length;
+            lastContact = System.currentTimeMillis();
+            if (records.length > 0 || offset == CallLogFile.HEADER_SIZE) callList.refresh();
+        }
+    }
+
+    /**
+     * Runs a standby: java ReplicaCallStore [primaryPort] [replicaFile]
+     * Type "status" to see how far behind it is, or "promote [port]" to make it the
+     * primary and accept calls on a CallIntakeServer.
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : ReplicationServer.DEFAULT_PORT;
+        String replicaFile = args.length > 1 ? args[1] : DEFAULT_REPLICA_FILE;
+        ReplicaCallStore replica = new ReplicaCallStore(port, replicaFile);
+        System.out.println("Standby of 127.0.0.1:" + port + " in " + replicaFile + ". Commands: status, promote [port], quit");
+
+        Scanner scanner = new Scanner(System.in);
+        while (scanner.hasNextLine()) {
+            String[] command = scanner.nextLine().trim().split("\\s+");
+            switch (command[0].toLowerCase()) {
+                case "status":
+                    System.out.println((replica.isPromoted() ? "Primary" : replica.isConnected() ? "Connected" : "Disconnected")
+                            + ", " + replica.count(CallQuery.create()) + " calls, " + replica.getLagBytes() + " bytes behind");
+                    break;
+                case "promote":
+                    replica.promote();
+                    int intakePort = command.length > 1 ? Integer.parseInt(command[1]) : CallIntakeServer.DEFAULT_PORT;
+                    CallIntakeServer server = new CallIntakeServer(replica, intakePort);
+                    server.start();
+                    System.out.println("Promoted; accepting calls on 127.0.0.1:" + server.getPort());
+                    break;
+                case "quit":
+                    replica.close();
+                    return;
+                default:
+                    System.out.println("Commands: status, promote [port], quit");
+            }
+        }
+        replica.close();
+    }
+}
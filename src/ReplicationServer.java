@@ -0,0 +1,161 @@
+// ==================================
+// ReplicationServer.java
+// Description: Ships the call store log to standby replicas over a local socket
+// ==================================
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Primary side of log-shipping replication. Every standby (see ReplicaCallStore)
+ * connects and sends the generation and end offset of its replica log; the server then
+ * streams the primary's log records from that offset onwards, byte for byte, as they
+ * are appended. Since the replica is an exact copy, offsets mean the same in both logs.
+ *
+ * Frames sent to the standby: long generation, long offset, int length, record bytes.
+ * A frame at HEADER_SIZE with a new generation tells the standby to start over, e.g.
+ * after the primary's log was compacted. A frame without records is a heartbeat that
+ * also tells the standby how far the primary's log goes.
+ *
+ * The server reads the store file itself, so it works beside any process that writes
+ * it. Run standalone with: java ReplicationServer [port] [dataFile]
+ * A sharded store needs one server per shard file.
+ */
+@SuppressWarnings("try") // Log locks are held by try-with-resources variables that are never read
+public class ReplicationServer implements Closeable {
+
+    public static final int DEFAULT_PORT = 5060;
+
+    static final int MAX_FRAME_BYTES = 1 << 20;  // Records per frame, at least one
+    static final long HEARTBEAT_MILLIS = 1000;   // Longest quiet period on a connection
+
+    private final CallLogFile log;
+    private final Closeable watcher;
+    private final Object appended = new Object(); // Notified when the log file changes
+    private long changeCount;                     // Log file changes seen, guarded by appended
+    private final ServerSocket serverSocket;
+    private final ExecutorService standbys = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "replication-standby");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * Listens on the loopback interface. Call start() to accept standbys.
+     * @param dataFile The primary's store file.
+     * @param port     Port to listen on, 0 for any free port.
+     * @throws IOException If the file or the port cannot be opened.
+     */
+    public ReplicationServer(Path dataFile, int port) throws IOException {
+        this.log = new CallLogFile(dataFile);
+        this.watcher = log.watch(() -> {
+            synchronized (appended) {
+                changeCount++;
+                appended.notifyAll();
+            }
+        });
+        this.serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+    }
+
+    /** The port actually listened on. */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Accepts standbys on a background thread until closed.
+     */
+    public void start() {
+        Thread acceptor = new Thread(() -> {
+            try {
+                while (true) {
+                    Socket standby = serverSocket.accept();
+                    standbys.execute(() -> serve(standby));
+                }
+            } catch (IOException e) {
+                // Server closed
+            }
+        }, "replication-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        standbys.shutdownNow();
+        watcher.close();
+        log.close();
+    }
+
+    // Streams records to one standby until it disconnects
+    private void serve(Socket standby) {
+        try (Socket socket = standby;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+            socket.setTcpNoDelay(true);
+            long generation = in.readLong();
+            long offset = in.readLong();
+            while (!Thread.currentThread().isInterrupted()) {
+                byte[] records;
+                boolean restart = false;
+                long seen;
+                synchronized (appended) {
+                    seen = changeCount;
+                }
+                try (CallLogFile.Lock ignored = log.lockShared()) {
+                    log.generationChanged();
+                    if (log.getGeneration() != generation || offset < CallLogFile.HEADER_SIZE || offset > log.size()) {
+                        generation = log.getGeneration(); // The standby's copy is from another file: send it all
+                        offset = CallLogFile.HEADER_SIZE;
+                        restart = true;
+                    }
+                    records = log.readRaw(offset, MAX_FRAME_BYTES);
+                }
+                if (records.length == 0 && !restart) {
+                    boolean changed;
+                    synchronized (appended) {
+                        if (changeCount == seen) appended.wait(HEARTBEAT_MILLIS);
+                        changed = changeCount != seen;
+                    }
+                    if (changed) continue; // Read the new records instead of sending a heartbeat
+                }
+                out.writeLong(generation);
+                out.writeLong(offset);
+                out.writeInt(records.length);
+                out.write(records);
+                out.flush();
+                offset += records.length;
+            }
+        } catch (SocketException | EOFException e) {
+            // Standby went away
+        } catch (InterruptedException e) {
+            // Server closed
+        } catch (IOException e) {
+            System.out.println("Replication connection failed: " + e.getMessage());
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        Path dataFile = Paths.get(args.length > 1 ? args[1] : "calls.dat");
+        ReplicationServer server = new ReplicationServer(dataFile, port);
+        server.start();
+        System.out.println("Shipping " + dataFile + " to standbys on 127.0.0.1:" + server.getPort() + " (Ctrl+C to stop)");
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+            } catch (IOException e) {
+                System.out.println("Error closing store: " + e.getMessage());
+            }
+        }));
+        Thread.currentThread().join(); // Serve until the process is stopped
+    }
+}
@@ -0,0 +1,320 @@
+// ==================================
+// ShardedCallList.java
+// Description: Call store partitioned over several independent CallList shards
+// ==================================
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * Spreads calls over N CallList shards, each with its own lock, indexes and store file
+ * (calls-shard-0.dat, calls-shard-1.dat, ...). Calls are routed by the caller's phone
+ * number, so adds for different callers usually take different locks and are written
+ * and flushed in parallel, and all calls from one caller share a shard.
+ *
+ * Shard i assigns ids i + 1, i + 1 + N, i + 1 + 2N, ... so ids are unique and the id
+ * alone finds the shard. Queries run on every shard in parallel and the sorted shard
+ * results are merged by timestamp; ids break ties. Recorded order is merged by timestamp
+ * too, since shard ids interleave and do not say which shard recorded a call first; the
+ * shards are then queried oldest first, so each sorts and limits its results the same way.
+ *
+ * All shards share one DuplicateDetector, so an add is checked against the whole store
+ * without taking the other shards' locks.
+ *
+ * The shard count is fixed when the files are created; reopening with a different
+ * count keeps the existing one. Calls in a single-file calls.dat store are not moved
+ * into shards; export and import them with CallTransfer to switch modes.
+ */
+public class ShardedCallList implements CallStore {
+
+    private static final String SHARD_FILE = "calls-shard-%d.dat";
+
+    private final CallList[] shards;
+    private final CallChangeFeed changes = new CallChangeFeed(); // Shared by all shards
+    private final DuplicateDetector duplicates = new DuplicateDetector(); // Shared by all shards
+    private final ExecutorService fanOut;                       // Runs per-shard work in parallel
+
+    /**
+     * Opens the shards in the working directory.
+     * @param shardCount Number of shards for a new store.
+     */
+    public ShardedCallList(int shardCount) {
+        this(SHARD_FILE, shardCount);
+    }
+
+    /**
+     * Opens the shards, creating missing files.
+     * @param filePattern Shard file name with a %d for the shard index.
+     * @param shardCount  Number of shards for a new store.
+     */
+    public ShardedCallList(String filePattern, int shardCount) {
+        int existing = 0;
+        while (new File(String.format(filePattern, existing)).exists()) existing++;
+        if (existing > 0 && existing != shardCount) {
+            System.out.println("Call store has " + existing + " shards; using " + existing + " instead of " + shardCount + ".");
+            shardCount = existing;
+        }
+        int count = shardCount;
+        shards = new CallList[count];
+        fanOut = Executors.newFixedThreadPool(Math.min(count, Runtime.getRuntime().availableProcessors()), r -> {
+            Thread t = new Thread(r, "call-shard-worker");
+            t.setDaemon(true);
+            return t;
+        });
+        List<CallList> opened = inParallel(shardIndexes(), i -> new CallList(String.format(filePattern, i), changes, duplicates, count, i));
+        opened.toArray(shards);
+    }
+
+    /** Number of shards. */
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * @param index Shard index.
+     * @return The shard's CallList.
+     */
+    CallList getShard(int index) {
+        return shards[index];
+    }
+
+    // --- Writes ---
+
+    /**
+     * Adds a call to its caller's shard. The shared detector checks it against recent
+     * calls in every shard.
+     */
+    @Override
+    public List<DuplicateDetector.Match> addCall(EmergencyCall call) {
+        return shardFor(call).addCall(call);
+    }
+
+    @Override
+    public void addCalls(Collection<EmergencyCall> batch) {
+        List<List<EmergencyCall>> parts = partition(batch);
+        inParallel(shardIndexes(), i -> {
+            if (!parts.get(i).isEmpty()) shards[i].addCalls(parts.get(i));
+            return null;
+        });
+    }
+
+    @Override
+    public void insertBatch(Collection<EmergencyCall> batch) {
+        List<List<EmergencyCall>> parts = partition(batch);
+        inParallel(shardIndexes(), i -> {
+            if (!parts.get(i).isEmpty()) shards[i].insertBatch(parts.get(i));
+            return null;
+        });
+    }
+
+    @Override
+    public void commit() {
+        inParallel(shardIndexes(), i -> {
+            shards[i].commit();
+            return null;
+        });
+    }
+
+    @Override
+    public boolean removeCall(EmergencyCall call) {
+        return call.getId() > 0 && shardForId(call.getId()).removeCall(call);
+    }
+
+    @Override
+    public EmergencyCall restoreCall(long id) {
+        return id > 0 ? shardForId(id).restoreCall(id) : null;
+    }
+
+    // --- Reads ---
+
+    @Override
+    public ArrayList<EmergencyCall> getAllCalls() {
+        return query(CallQuery.create());
+    }
+
+    /**
+     * Takes a page from every shard and merges them by id.
+     */
+    @Override
+    public ArrayList<EmergencyCall> getCallsAfter(long afterId, int limit) {
+        return merge(inParallel(shardIndexes(), i -> shards[i].getCallsAfter(afterId, limit)),
+                Comparator.comparingLong(EmergencyCall::getId), limit);
+    }
+
+    @Override
+    public ArrayList<EmergencyCall> getCallsByService(Service service) {
+        return query(CallQuery.create().services(EnumSet.of(service)));
+    }
+
+    @Override
+    public ArrayList<EmergencyCall> search(String query, EnumSet<Service> services) {
+        if (CallSearchIndex.tokenize(query).isEmpty()) return new ArrayList<>();
+        return query(CallQuery.create().text(query).services(services));
+    }
+
+    /**
+     * Runs the query on every shard in parallel and merges the sorted results.
+     */
+    @Override
+    public ArrayList<EmergencyCall> query(CallQuery query) {
+        CallQuery perShard = shardQuery(query);
+        return merge(inParallel(shardIndexes(), i -> shards[i].query(perShard)), perShard.comparator(), query.getLimit());
+    }
+
+    // Recorded order is merged by time, so the shards must sort and limit their results by time too
+    private static CallQuery shardQuery(CallQuery query) {
+        return query.getOrder() == CallQuery.Order.RECORDED ? query.copy().order(CallQuery.Order.OLDEST_FIRST) : query;
+    }
+
+    // k-way merge of results each sorted by the order: the queue holds the next call of each result
+    private ArrayList<EmergencyCall> merge(List<ArrayList<EmergencyCall>> results, Comparator<EmergencyCall> order, int limit) {
+        PriorityQueue<PeekingIterator> heads = new PriorityQueue<>(shards.length,
+                (a, b) -> order.compare(a.peek(), b.peek()));
+        int total = 0;
+        for (ArrayList<EmergencyCall> result : results) {
+            total += result.size();
+            if (!result.isEmpty()) heads.add(new PeekingIterator(result.iterator()));
+        }
+        ArrayList<EmergencyCall> merged = new ArrayList<>(Math.min(total, limit));
+        while (!heads.isEmpty() && merged.size() < limit) {
+            PeekingIterator head = heads.remove();
+            merged.add(head.next());
+            if (head.hasNext()) heads.add(head);
+        }
+        return merged;
+    }
+
+    @Override
+    public int count(CallQuery query) {
+        long total = 0;
+        for (int n : inParallel(shardIndexes(), i -> shards[i].count(query))) total += n;
+        return (int) Math.min(total, query.getLimit());
+    }
+
+    @Override
+    public String explain(CallQuery query) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < shards.length; i++) {
+            if (i > 0) sb.append("; ");
+            sb.append("shard ").append(i).append(": ").append(shards[i].explain(shardQuery(query)));
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public EmergencyCall getCall(long id) {
+        return id > 0 ? shardForId(id).getCall(id) : null;
+    }
+
+    @Override
+    public CallChangeFeed getChangeFeed() {
+        return changes;
+    }
+
+    @Override
+    public void refresh() {
+        inParallel(shardIndexes(), i -> {
+            shards[i].refresh();
+            return null;
+        });
+    }
+
+    /**
+     * Starts shipping every shard file to standbys, shard i on port + i, so each shard
+     * has a standby of its own. The servers are closed with the shards.
+     * @param port Port of shard 0.
+     */
+    void startReplication(int port) {
+        for (int i = 0; i < shards.length; i++) shards[i].startReplication(port + i);
+    }
+
+    @Override
+    public void close() throws IOException {
+        fanOut.shutdown();
+        for (CallList shard : shards) shard.close();
+    }
+
+    // --- Routing ---
+
+    private CallList shardFor(EmergencyCall call) {
+        String phone = CallValidator.nationalNumber(call.getPhoneNumber());
+        return shards[Math.floorMod(phone.hashCode(), shards.length)];
+    }
+
+    private CallList shardForId(long id) {
+        return shards[(int) ((id - 1) % shards.length)];
+    }
+
+    private List<List<EmergencyCall>> partition(Collection<EmergencyCall> batch) {
+        List<List<EmergencyCall>> parts = new ArrayList<>(shards.length);
+        for (int i = 0; i < shards.length; i++) parts.add(new ArrayList<>());
+        for (EmergencyCall call : batch) {
+            String phone = CallValidator.nationalNumber(call.getPhoneNumber());
+            parts.get(Math.floorMod(phone.hashCode(), shards.length)).add(call);
+        }
+        return parts;
+    }
+
+    private List<Integer> shardIndexes() {
+        List<Integer> indexes = new ArrayList<>(shards.length);
+        for (int i = 0; i < shards.length; i++) indexes.add(i);
+        return indexes;
+    }
+
+    // Runs the task for each input on the worker pool and returns the results in input order
+    private <T, R> List<R> inParallel(List<T> inputs, Function<T, R> task) {
+        List<Future<R>> futures = new ArrayList<>(inputs.size());
+        for (T input : inputs) futures.add(fanOut.submit(() -> task.apply(input)));
+        List<R> results = new ArrayList<>(inputs.size());
+        try {
+            for (Future<R> future : futures) results.add(future.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for shards.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IllegalStateException(cause);
+        }
+        return results;
+    }
+
+    // Iterator that can show its next element without consuming it
+    private static class PeekingIterator implements Iterator<EmergencyCall> {
+        private final Iterator<EmergencyCall> source;
+        private EmergencyCall next;
+
+        PeekingIterator(Iterator<EmergencyCall> source) {
+            this.source = source;
+            this.next = source.next();
+        }
+
+        EmergencyCall peek() {
+            return next;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public EmergencyCall next() {
+            EmergencyCall current = next;
+            next = source.hasNext() ? source.next() : null;
+            return current;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+// ==================================
+// ShardedReplicaCallStore.java
+// Description: Read-only standby copy of a sharded call store, one replica per shard
+// ==================================
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * Standby of a ShardedCallList. A sharded primary ships shard i on its replication port
+ * + i; this store runs one ReplicaCallStore per shard, each replicating into its own
+ * file (calls-replica-shard-0.dat, calls-replica-shard-1.dat, ...). The replica files
+ * are opened as a ShardedCallList with the primary's shard count, so every shard keeps
+ * the primary's id stride and offset and reads are merged across shards as on the primary.
+ *
+ * Until promote() the store is read-only and every write throws IllegalStateException.
+ * Promotion stops replication on every shard; new calls then get ids that cannot
+ * collide with the calls replicated from other shards.
+ *
+ * The shard count must match the primary's.
+ */
+public class ShardedReplicaCallStore implements CallStore {
+
+    public static final String DEFAULT_REPLICA_FILE = "calls-replica-shard-%d.dat";
+
+    private final ShardedCallList sharded;     // Reads the replica files
+    private final ReplicaCallStore[] replicas; // Replica i follows the primary's shard i
+    private volatile boolean promoted;
+
+    /**
+     * Opens the replica files, creating missing ones, and starts replicating every shard.
+     * @param primaryPort Replication port of the primary's shard 0; shard i is on primaryPort + i.
+     * @param filePattern Replica file name with a %d for the shard index.
+     * @param shardCount  Number of shards of the primary.
+     * @throws IOException If a replica file cannot be opened.
+     */
+    public ShardedReplicaCallStore(int primaryPort, String filePattern, int shardCount) throws IOException {
+        this.sharded = new ShardedCallList(filePattern, shardCount);
+        this.replicas = new ReplicaCallStore[sharded.getShardCount()];
+        try {
+            for (int i = 0; i < replicas.length; i++) {
+                replicas[i] = new ReplicaCallStore(primaryPort + i, String.format(filePattern, i), sharded.getShard(i));
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /** Number of shards. */
+    public int getShardCount() {
+        return replicas.length;
+    }
+
+    /** True once promoted to primary. */
+    public boolean isPromoted() {
+        return promoted;
+    }
+
+    /** True while every shard is receiving from the primary. */
+    public boolean isConnected() {
+        for (ReplicaCallStore replica : replicas) {
+            if (!replica.isConnected()) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Bytes of the primary's shard logs not yet applied here, summed over the shards.
+     */
+    public long getLagBytes() {
+        long lag = 0;
+        for (ReplicaCallStore replica : replicas) lag += replica.getLagBytes();
+        return lag;
+    }
+
+    /** Epoch millis of the last frame from the shard heard from least recently, 0 if one has none. */
+    public long getLastContact() {
+        long oldest = Long.MAX_VALUE;
+        for (ReplicaCallStore replica : replicas) oldest = Math.min(oldest, replica.getLastContact());
+        return oldest;
+    }
+
+    /**
+     * Stops replicating every shard and makes the store writable. Call after the primary
+     * is gone; records a shard wrote after its last frame received are not on this copy.
+     */
+    public void promote() {
+        for (ReplicaCallStore replica : replicas) replica.promote();
+        promoted = true;
+    }
+
+    // --- Writes, once promoted ---
+
+    @Override
+    public List<DuplicateDetector.Match> addCall(EmergencyCall call) {
+        checkWritable();
+        return sharded.addCall(call);
+    }
+
+    @Override
+    public void addCalls(Collection<EmergencyCall> batch) {
+        checkWritable();
+        sharded.addCalls(batch);
+    }
+
+    @Override
+    public void insertBatch(Collection<EmergencyCall> batch) {
+        checkWritable();
+        sharded.insertBatch(batch);
+    }
+
+    @Override
+    public void commit() {
+        checkWritable();
+        sharded.commit();
+    }
+
+    @Override
+    public boolean removeCall(EmergencyCall call) {
+        checkWritable();
+        return sharded.removeCall(call);
+    }
+
+    @Override
+    public EmergencyCall restoreCall(long id) {
+        checkWritable();
+        return sharded.restoreCall(id);
+    }
+
+    private void checkWritable() {
+        if (!promoted) throw new IllegalStateException("This is a read-only standby; promote it to make changes.");
+    }
+
+    // --- Reads ---
+
+    @Override
+    public ArrayList<EmergencyCall> getAllCalls() {
+        return sharded.getAllCalls();
+    }
+
+    @Override
+    public ArrayList<EmergencyCall> getCallsAfter(long afterId, int limit) {
+        return sharded.getCallsAfter(afterId, limit);
+    }
+
+    @Override
+    public ArrayList<EmergencyCall> getCallsByService(Service service) {
+        return sharded.getCallsByService(service);
+    }
+
+    @Override
+    public ArrayList<EmergencyCall> search(String query, EnumSet<Service> services) {
+        return sharded.search(query, services);
+    }
+
+    @Override
+    public ArrayList<EmergencyCall> query(CallQuery query) {
+        return sharded.query(query);
+    }
+
+    @Override
+    public int count(CallQuery query) {
+        return sharded.count(query);
+    }
+
+    @Override
+    public String explain(CallQuery query) {
+        return sharded.explain(query);
+    }
+
+    @Override
+    public EmergencyCall getCall(long id) {
+        return sharded.getCall(id);
+    }
+
+    @Override
+    public CallChangeFeed getChangeFeed() {
+        return sharded.getChangeFeed();
+    }
+
+    @Override
+    public void refresh() {
+        sharded.refresh();
+    }
+
+    /**
+     * Stops replication and closes the replica files. Each replica closes its shard, so
+     * closing the ShardedCallList afterwards only stops its worker pool.
+     */
+    @Override
+    public void close() throws IOException {
+        for (ReplicaCallStore replica : replicas) {
+            if (replica != null) replica.close();
+        }
+        sharded.close();
+    }
+}
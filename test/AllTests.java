@@ -0,0 +1,33 @@
+// ==================================
+// AllTests.java
+// Description: Runs every test class in this folder
+// ==================================
+
+/**
+ * Entry point for the whole suite: java -cp out AllTests
+ * Exits with 1 if any test failed.
+ */
+public class AllTests {
+
+    private static final Class<?>[] TEST_CLASSES = {
+            DuplicateDetectorTest.class,
+            CallValidatorTest.class,
+            QueryPlanTest.class,
+            CallTransferTest.class,
+            CallLogFileTest.class,
+            CallChangeFeedTest.class,
+            ShardedCallListTest.class,
+            OffHeapCallStoreTest.class,
+            UndoAndCompactionTest.class,
+            ReplicationTest.class,
+    };
+
+    public static void main(String[] args) {
+        int failed = 0;
+        for (Class<?> testClass : TEST_CLASSES) {
+            failed += Tests.run(testClass);
+        }
+        System.out.println(failed == 0 ? "All tests passed." : failed + " test(s) failed.");
+        if (failed > 0) System.exit(1);
+    }
+}
@@ -0,0 +1,106 @@
+// ==================================
+// CallChangeFeedTest.java
+// Description: Tests change feed delivery, resuming from a saved position and gaps
+// ==================================
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class CallChangeFeedTest {
+
+    public static void main(String[] args) {
+        Tests.main(CallChangeFeedTest.class);
+    }
+
+    // Collects delivered events and gaps
+    private static class Recorder implements CallChangeFeed.Listener {
+        final List<CallChangeFeed.ChangeEvent> events = Collections.synchronizedList(new ArrayList<>());
+        volatile long gapFrom;
+
+        @Override
+        public void onChanges(List<CallChangeFeed.ChangeEvent> batch) {
+            events.addAll(batch);
+        }
+
+        @Override
+        public void onGap(long missedFrom, long resumeAt) {
+            gapFrom = missedFrom;
+        }
+    }
+
+    private static EmergencyCall call(long id) {
+        EmergencyCall call = Tests.call("Caller " + id, "+447123456789", "Call", Service.FIRE, LocalDateTime.now());
+        call.setId(id);
+        return call;
+    }
+
+    static void testResumeFromSavedPosition() throws Exception {
+        CallChangeFeed feed = new CallChangeFeed();
+        for (int i = 1; i <= 5; i++) feed.publish(CallChangeFeed.Type.ADDED, call(i));
+        Recorder recorder = new Recorder();
+        feed.subscribe(feed.getEpoch(), 3, 2, recorder);
+        Tests.eventually(() -> recorder.events.size() == 3, "events from the saved position");
+        Tests.assertEquals(3L, recorder.events.get(0).getSequence(), "first delivered");
+        Tests.assertEquals(CallChangeFeed.Type.ADDED, recorder.events.get(0).getType(), "type");
+    }
+
+    static void testResumeFromAnotherEpochResets() throws Exception {
+        CallChangeFeed feed = new CallChangeFeed();
+        for (int i = 1; i <= 5; i++) feed.publish(CallChangeFeed.Type.ADDED, call(i));
+        Recorder recorder = new Recorder();
+        CallChangeFeed.Subscription subscription = feed.subscribe(feed.getEpoch() + 1, 3, 10, recorder);
+        Tests.eventually(() -> recorder.events.size() == 1, "a reset");
+        Tests.assertEquals(CallChangeFeed.Type.RESET, recorder.events.get(0).getType(), "type");
+        feed.publish(CallChangeFeed.Type.ADDED, call(6));
+        Tests.eventually(() -> recorder.events.size() == 2, "events after the reset");
+        Tests.assertEquals(6L, recorder.events.get(1).getSequence(), "next event");
+        Tests.assertEquals(7L, subscription.getPosition(), "position");
+    }
+
+    static void testResumeAheadOfFeedResets() throws Exception {
+        CallChangeFeed feed = new CallChangeFeed();
+        feed.publish(CallChangeFeed.Type.ADDED, call(1));
+        Recorder recorder = new Recorder();
+        feed.subscribe(feed.getEpoch(), 50, 10, recorder); // E.g. a position saved before a restart
+        Tests.eventually(() -> recorder.events.size() == 1, "a reset");
+        Tests.assertEquals(CallChangeFeed.Type.RESET, recorder.events.get(0).getType(), "type");
+    }
+
+    static void testSlowSubscriberIsToldAboutGap() throws Exception {
+        CallChangeFeed feed = new CallChangeFeed(4);
+        for (int i = 1; i <= 10; i++) feed.publish(CallChangeFeed.Type.ADDED, call(i));
+        Recorder recorder = new Recorder();
+        feed.subscribe(feed.getEpoch(), 2, 10, recorder);
+        Tests.eventually(() -> recorder.events.size() == 4, "retained events");
+        Tests.assertEquals(2L, recorder.gapFrom, "gap start");
+        Tests.assertEquals(7L, recorder.events.get(0).getSequence(), "oldest retained");
+    }
+
+    static void testStoreFeedsHaveDifferentEpochs() throws Exception {
+        java.nio.file.Path dir = Tests.tempDir();
+        String file = dir.resolve("calls.dat").toString();
+        try (CallList first = new CallList(file); CallList second = new CallList(file)) {
+            Tests.assertFalse(first.getChangeFeed().getEpoch() == second.getChangeFeed().getEpoch(), "same epoch");
+        } finally {
+            Tests.delete(dir);
+        }
+    }
+
+    static void testFeedWithLookupDeliversCallsAndGapsForDroppedOnes() throws Exception {
+        java.util.Map<Long, EmergencyCall> stored = new java.util.concurrent.ConcurrentHashMap<>();
+        CallChangeFeed feed = new CallChangeFeed(16, stored::get);
+        for (long id = 1; id <= 3; id++) {
+            stored.put(id, call(id));
+            feed.publish(CallChangeFeed.Type.ADDED, stored.get(id));
+        }
+        stored.remove(2L); // E.g. compacted away before delivery
+        Recorder recorder = new Recorder();
+        feed.subscribe(feed.getEpoch(), 1, 10, recorder);
+        Tests.eventually(() -> recorder.events.size() == 2, "events whose calls are still stored");
+        Tests.assertEquals(2L, recorder.gapFrom, "gap at the dropped call");
+        Tests.assertEquals("Caller 1", recorder.events.get(0).getCall().getCallerName(), "looked up call");
+        Tests.assertEquals(3L, recorder.events.get(1).getSequence(), "event after the gap");
+    }
+}
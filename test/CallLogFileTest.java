@@ -0,0 +1,72 @@
+// ==================================
+// CallLogFileTest.java
+// Description: Tests legacy file migration and sharing the log between stores
+// ==================================
+
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class CallLogFileTest {
+
+    public static void main(String[] args) {
+        Tests.main(CallLogFileTest.class);
+    }
+
+    private static void writeLegacyFile(Path file, int count) throws Exception {
+        ArrayList<EmergencyCall> legacy = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            legacy.add(Tests.call("Caller " + i, "+447123456789", "Legacy call " + i, Service.FIRE, LocalDateTime.now()));
+        }
+        try (ObjectOutputStream out = new ObjectOutputStream(Files.newOutputStream(file))) {
+            out.writeObject(legacy);
+        }
+    }
+
+    static void testLegacyFileIsMigratedOnce() throws Exception {
+        Path dir = Tests.tempDir();
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            Path file = dir.resolve("calls.dat");
+            writeLegacyFile(file, 50);
+            List<Future<CallList>> opening = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                opening.add(pool.submit(() -> new CallList(file.toString())));
+            }
+            for (Future<CallList> future : opening) {
+                try (CallList store = future.get()) {
+                    store.refresh();
+                    Tests.assertEquals(50, store.getAllCalls().size(), "calls after migration");
+                    Tests.assertEquals(50L, store.getCall(50).getId(), "ids assigned to legacy calls");
+                }
+            }
+            try (CallList reopened = new CallList(file.toString())) {
+                Tests.assertEquals(50, reopened.getAllCalls().size(), "calls after reopening");
+            }
+        } finally {
+            pool.shutdownNow();
+            Tests.delete(dir);
+        }
+    }
+
+    static void testAppendsReachOtherStores() throws Exception {
+        Path dir = Tests.tempDir();
+        String file = dir.resolve("calls.dat").toString();
+        try (CallList writer = new CallList(file); OffHeapCallStore reader = new OffHeapCallStore(file)) {
+            writer.addCall(Tests.call("Ann", "+447123456789", "Kitchen fire", Service.FIRE, LocalDateTime.now()));
+            reader.refresh();
+            Tests.assertEquals(1, reader.getAllCalls().size(), "calls seen by the other store");
+            writer.removeCall(writer.getCall(1));
+            reader.refresh();
+            Tests.assertEquals(null, reader.getCall(1), "removal seen by the other store");
+        } finally {
+            Tests.delete(dir);
+        }
+    }
+}
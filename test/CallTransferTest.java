@@ -0,0 +1,136 @@
+// ==================================
+// CallTransferTest.java
+// Description: Tests bulk import and paged export of calls
+// ==================================
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class CallTransferTest {
+
+    public static void main(String[] args) {
+        Tests.main(CallTransferTest.class);
+    }
+
+    static void testImportRejectsBadRows() throws Exception {
+        Path dir = Tests.tempDir();
+        try {
+            Path csv = dir.resolve("in.csv");
+            Files.write(csv, Arrays.asList(CallTransfer.CSV_HEADER,
+                    "Ann,07123456789,Kitchen fire,F,2024-05-01T12:00",
+                    "Bob,12,Burglary,P,2024-05-01T12:01",
+                    "Cat,07999000000,Fall,A,2024-05-01T12:02"), StandardCharsets.UTF_8);
+            String file = dir.resolve("calls.dat").toString();
+            try (CallList store = new CallList(file); CallList other = new CallList(file)) {
+                long before = other.getChangeFeed().lastSequence();
+                CallTransfer.ImportReport report = CallTransfer.importCalls(store, csv, 2);
+                Tests.assertEquals(2L, report.getAccepted(), "accepted");
+                Tests.assertEquals(1L, report.getRejected(), "rejected");
+                Tests.assertTrue(report.getRejections().get(0).startsWith("Line 3"), report.getRejections().toString());
+                other.refresh();
+                Tests.assertEquals(2, other.getAllCalls().size(), "calls seen by another process");
+                Tests.assertEquals(before + 2, other.getChangeFeed().lastSequence(), "changes seen by another process");
+                Tests.assertEquals("+447123456789", store.getAllCalls().get(0).getPhoneNumber(), "normalized number");
+            }
+        } finally {
+            Tests.delete(dir);
+        }
+    }
+
+    static void testImportLargerThanOneBatch() throws Exception {
+        Path dir = Tests.tempDir();
+        try {
+            Path csv = dir.resolve("in.csv");
+            List<String> lines = new ArrayList<>();
+            lines.add(CallTransfer.CSV_HEADER);
+            for (int i = 0; i < 120_000; i++) {
+                lines.add("Caller " + letters(i) + ",+4471" + (10_000_000 + i) + ",Call " + i + ",F,2024-05-01T12:00");
+            }
+            Files.write(csv, lines, StandardCharsets.UTF_8);
+            String file = dir.resolve("calls.dat").toString();
+            try (CallList store = new CallList(file)) {
+                CallTransfer.ImportReport report = CallTransfer.importCalls(store, csv, 4);
+                Tests.assertEquals(120_000L, report.getAccepted(), "accepted");
+            }
+            try (CallList reopened = new CallList(file)) {
+                List<EmergencyCall> calls = reopened.getAllCalls();
+                Tests.assertEquals(120_000, calls.size(), "calls after reopening");
+                Tests.assertEquals("Caller " + letters(119_999), calls.get(calls.size() - 1).getCallerName(), "last call");
+            }
+        } finally {
+            Tests.delete(dir);
+        }
+    }
+
+    // Names may only contain letters, so number rows in base 26
+    private static String letters(int n) {
+        StringBuilder sb = new StringBuilder();
+        do {
+            sb.append((char) ('a' + n % 26));
+            n /= 26;
+        } while (n > 0);
+        return sb.toString();
+    }
+
+    static void testExportPagesThroughEveryStore() throws Exception {
+        Path dir = Tests.tempDir();
+        try {
+            List<CallStore> stores = Arrays.asList(
+                    new CallList(dir.resolve("calls.dat").toString()),
+                    new OffHeapCallStore(dir.resolve("offheap.dat").toString()),
+                    new ShardedCallList(dir.resolve("shard-%d.dat").toString(), 3));
+            for (CallStore store : stores) {
+                try (CallStore s = store) {
+                    List<EmergencyCall> batch = new ArrayList<>();
+                    LocalDateTime time = LocalDateTime.of(2024, 5, 1, 12, 0);
+                    for (int i = 0; i < 25_000; i++) {
+                        batch.add(Tests.call("Caller " + i, "+4471" + (10_000_000 + i), "Call " + i, Service.FIRE, time));
+                    }
+                    s.addCalls(batch);
+                    s.removeCall(s.getCall(batch.get(7).getId()));
+
+                    Path out = dir.resolve(store.getClass().getSimpleName() + ".jsonl");
+                    Tests.assertEquals(24_999L, CallTransfer.exportCalls(s, out), store.getClass().getSimpleName() + " written");
+                    List<String> lines = Files.readAllLines(out, StandardCharsets.UTF_8);
+                    if (!(store instanceof ShardedCallList)) { // Shards assign ids out of batch order
+                        Tests.assertTrue(lines.get(0).contains("Caller 0\""), "first line " + lines.get(0));
+                        Tests.assertTrue(lines.get(lines.size() - 1).contains("Caller 24999\""), "in id order");
+                    }
+                    Tests.assertEquals(24_999L, lines.stream().distinct().count(), "distinct calls");
+                    Tests.assertFalse(String.join("\n", lines).contains("Caller 7\""), "removed call exported");
+                }
+            }
+        } finally {
+            Tests.delete(dir);
+        }
+    }
+
+    static void testGetCallsAfterPagesInIdOrder() throws Exception {
+        Path dir = Tests.tempDir();
+        try (ShardedCallList store = new ShardedCallList(dir.resolve("shard-%d.dat").toString(), 4)) {
+            List<EmergencyCall> batch = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                batch.add(Tests.call("Caller " + i, "+4471" + (10_000_000 + i), "Call", Service.POLICE, LocalDateTime.now()));
+            }
+            store.addCalls(batch);
+            long lastId = 0;
+            int seen = 0;
+            List<EmergencyCall> page;
+            while (!(page = store.getCallsAfter(lastId, 7)).isEmpty()) {
+                for (EmergencyCall call : page) {
+                    Tests.assertTrue(call.getId() > lastId, "ids ascend");
+                    lastId = call.getId();
+                    seen++;
+                }
+            }
+            Tests.assertEquals(100, seen, "calls paged");
+        } finally {
+            Tests.delete(dir);
+        }
+    }
+}
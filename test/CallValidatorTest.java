@@ -0,0 +1,70 @@
+// ==================================
+// CallValidatorTest.java
+// Description: Tests phone number normalization and phone prefix queries
+// ==================================
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+
+public class CallValidatorTest {
+
+    public static void main(String[] args) {
+        Tests.main(CallValidatorTest.class);
+    }
+
+    static void testNormalizePhoneStoresOneForm() {
+        Tests.assertEquals("+447123456789", CallValidator.normalizePhone("07123456789"), "national with trunk 0");
+        Tests.assertEquals("+447123456789", CallValidator.normalizePhone("7123456789"), "national without trunk 0");
+        Tests.assertEquals("+447123456789", CallValidator.normalizePhone("+447123456789"), "international");
+        Tests.assertEquals("+447123456789", CallValidator.normalizePhone("+4407123456789"), "international with trunk 0");
+        Tests.assertEquals(null, CallValidator.normalizePhone("12345"), "too short");
+    }
+
+    static void testNormalizePhonePrefix() {
+        Tests.assertEquals("+447123", CallValidator.normalizePhonePrefix("07123"), "national");
+        Tests.assertEquals("+447123", CallValidator.normalizePhonePrefix("7123"), "without trunk 0");
+        Tests.assertEquals("+447123", CallValidator.normalizePhonePrefix("+4407123"), "international with trunk 0");
+        Tests.assertEquals("+447123", CallValidator.normalizePhonePrefix("+447123"), "international");
+        Tests.assertEquals("+4", CallValidator.normalizePhonePrefix("+4"), "part of the country code");
+        Tests.assertEquals("+1202", CallValidator.normalizePhonePrefix("+1202"), "another country");
+    }
+
+    static void testPhonePrefixQueryFindsEveryStoredForm() throws Exception {
+        Path dir = Tests.tempDir();
+        try {
+            for (boolean offHeap : new boolean[] {false, true}) {
+                String file = dir.resolve(offHeap ? "offheap.dat" : "calls.dat").toString();
+                try (CallStore store = offHeap ? new OffHeapCallStore(file) : new CallList(file)) {
+                    LocalDateTime now = LocalDateTime.now();
+                    store.addCall(Tests.call("Ann", CallValidator.normalizePhone("07123456789"), "Fire", Service.FIRE, now));
+                    store.addCall(Tests.call("Bob", "+4407123000000", "Theft", Service.POLICE, now)); // Stored before normalization
+                    store.addCall(Tests.call("Cat", CallValidator.normalizePhone("07999000000"), "Fall", Service.AMBULANCE, now));
+                    for (String prefix : new String[] {"07123", "+4407123", "+447123", "7123"}) {
+                        CallQuery query = CallQuery.create().phonePrefix(prefix);
+                        Tests.assertEquals(2, store.query(query).size(), store.getClass().getSimpleName() + " prefix " + prefix);
+                        Tests.assertEquals(2, store.count(query), "count for " + prefix);
+                    }
+                }
+            }
+        } finally {
+            Tests.delete(dir);
+        }
+    }
+
+    static void testPhonePrefixQueryUsesPhoneIndex() throws Exception {
+        Path dir = Tests.tempDir();
+        try (CallList store = new CallList(dir.resolve("calls.dat").toString())) {
+            LocalDateTime now = LocalDateTime.now();
+            store.addCall(Tests.call("Bob", "+4407123000000", "Theft", Service.POLICE, now));
+            for (int i = 0; i < 100; i++) {
+                store.insertBatch(java.util.Collections.singletonList(Tests.call("Caller " + i,
+                        CallValidator.normalizePhone("0790000" + (1000 + i)), "Fall", Service.AMBULANCE, now)));
+            }
+            CallQuery query = CallQuery.create().phonePrefix("07123");
+            Tests.assertTrue(store.explain(query).startsWith("PHONE"), "plan was " + store.explain(query));
+            Tests.assertEquals(1, store.query(query).size(), "matches");
+        } finally {
+            Tests.delete(dir);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+// ==================================
+// DuplicateDetectorTest.java
+// Description: Tests the duplicate detector's time window, caller matching and removal
+// ==================================
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+
+public class DuplicateDetectorTest {
+
+    private static final LocalDateTime NOON = LocalDateTime.of(2024, 5, 1, 12, 0);
+
+    public static void main(String[] args) {
+        Tests.main(DuplicateDetectorTest.class);
+    }
+
+    // Checks a call and indexes it under the given id, the way the stores do
+    private static List<DuplicateDetector.Match> add(DuplicateDetector detector, long id, EmergencyCall call) {
+        List<DuplicateDetector.Match> matches = detector.check(call);
+        call.setId(id);
+        detector.index(call);
+        return matches;
+    }
+
+    static void testSameCallerWithinWindowMatches() {
+        DuplicateDetector detector = new DuplicateDetector(Duration.ofMinutes(15));
+        add(detector, 1, Tests.call("Ann", "+447700900001", "Kitchen fire", Service.FIRE, NOON));
+        List<DuplicateDetector.Match> matches = add(detector, 2,
+                Tests.call("Ann", "07700 900001", "Smoke everywhere", Service.FIRE, NOON.plusMinutes(5)));
+        Tests.assertEquals(1, matches.size(), "matches");
+        Tests.assertEquals(DuplicateDetector.Reason.SAME_CALLER, matches.get(0).getReason(), "reason");
+    }
+
+    static void testSameCallerOutsideWindowDoesNotMatch() {
+        DuplicateDetector detector = new DuplicateDetector(Duration.ofMinutes(15));
+        add(detector, 1, Tests.call("Ann", "+447700900001", "Kitchen fire", Service.FIRE, NOON));
+        Tests.assertTrue(add(detector, 2, Tests.call("Ann", "+447700900001", "Burglary",
+                Service.POLICE, NOON.plusMinutes(16))).isEmpty(), "a later call past the window matched");
+    }
+
+    static void testOutOfOrderCallsOnlyMatchWithinWindow() {
+        DuplicateDetector detector = new DuplicateDetector(Duration.ofMinutes(15));
+        add(detector, 1, Tests.call("Ann", "+447700900001", "Kitchen fire", Service.FIRE, NOON));
+        // An import replays an older call: it is an hour before the first, so no duplicate
+        Tests.assertTrue(add(detector, 2, Tests.call("Ann", "+447700900001", "Kitchen fire",
+                Service.FIRE, NOON.minusHours(1))).isEmpty(), "a call an hour earlier matched");
+        // A slightly earlier call is still within the window
+        Tests.assertEquals(1, add(detector, 3, Tests.call("Ann", "+447700900001", "Garage fire",
+                Service.FIRE, NOON.minusMinutes(10))).size(), "a call ten minutes earlier");
+    }
+
+    static void testSimilarDescriptionMatches() {
+        DuplicateDetector detector = new DuplicateDetector();
+        add(detector, 1, Tests.call("Ann", "+447700900001",
+                "Two car collision on the high street near the station", Service.AMBULANCE, NOON));
+        List<DuplicateDetector.Match> matches = add(detector, 2, Tests.call("Bob", "+447700900002",
+                "Two car collision on the high street near the station", Service.AMBULANCE, NOON.plusMinutes(1)));
+        Tests.assertEquals(1, matches.size(), "matches");
+        Tests.assertEquals(DuplicateDetector.Reason.SIMILAR_DESCRIPTION, matches.get(0).getReason(), "reason");
+    }
+
+    static void testNumbersWithoutDigitsAreNotTheSameCaller() {
+        DuplicateDetector detector = new DuplicateDetector();
+        add(detector, 1, Tests.call("Ann", "unknown", "Kitchen fire", Service.FIRE, NOON));
+        Tests.assertTrue(add(detector, 2, Tests.call("Bob", "withheld", "Burglary in progress",
+                Service.POLICE, NOON.plusMinutes(1))).isEmpty(), "calls without a number matched each other");
+    }
+
+    static void testRemovedCallNoLongerMatches() {
+        DuplicateDetector detector = new DuplicateDetector();
+        add(detector, 1, Tests.call("Ann", "+447700900001", "Kitchen fire", Service.FIRE, NOON));
+        add(detector, 2, Tests.call("Ann", "+447700900001", "Kitchen fire", Service.FIRE, NOON.plusMinutes(1)));
+        detector.remove(1);
+        List<DuplicateDetector.Match> matches = add(detector, 3,
+                Tests.call("Ann", "+447700900001", "Kitchen fire", Service.FIRE, NOON.plusMinutes(2)));
+        Tests.assertEquals(1, matches.size(), "matches after removal");
+        Tests.assertEquals(2L, matches.get(0).getOriginal().getId(), "remaining match");
+    }
+
+    static void testStoreRemovalTakesCallOutOfDetector() throws Exception {
+        java.nio.file.Path dir = Tests.tempDir();
+        try (CallList store = new CallList(dir.resolve("calls.dat").toString())) {
+            EmergencyCall first = Tests.call("Ann", "+447700900001", "Kitchen fire", Service.FIRE, LocalDateTime.now());
+            store.addCall(first);
+            store.removeCall(first);
+            Tests.assertTrue(store.addCall(Tests.call("Ann", "+447700900001", "Kitchen fire", Service.FIRE,
+                    LocalDateTime.now())).isEmpty(), "a removed call was reported as a duplicate");
+        } finally {
+            Tests.delete(dir);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+// ==================================
+// OffHeapCallStoreTest.java
+// Description: Tests the off-heap store's time index, change feed and duplicate lookups
+// ==================================
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class OffHeapCallStoreTest {
+
+    private static final LocalDateTime NOON = LocalDateTime.of(2024, 5, 1, 12, 0);
+
+    public static void main(String[] args) {
+        Tests.main(OffHeapCallStoreTest.class);
+    }
+
+    private static List<String> names(List<EmergencyCall> calls) {
+        List<String> names = new ArrayList<>();
+        for (EmergencyCall call : calls) names.add(call.getCallerName());
+        return names;
+    }
+
+    static void testCompactionRestoresTimeOrder() throws Exception {
+        Path dir = Tests.tempDir();
+        try (OffHeapCallStore store = new OffHeapCallStore(dir.resolve("calls.dat").toString())) {
+            int[] minutes = {5, 1, 4, 2, 3, 0};
+            for (int minute : minutes) {
+                store.addCall(Tests.call("At " + minute, "+4477009000" + (10 + minute), "Call", Service.FIRE, NOON.plusMinutes(minute)));
+            }
+            CallQuery newest = CallQuery.create().newestFirst().limit(3);
+            Tests.assertTrue(store.explain(newest).startsWith("OFF_HEAP SCAN"), "plan was " + store.explain(newest));
+
+            store.compact();
+            Tests.assertTrue(store.explain(newest).startsWith("OFF_HEAP WALK time index"), "plan was " + store.explain(newest));
+            Tests.assertEquals(java.util.Arrays.asList("At 5", "At 4", "At 3"), names(store.query(newest)), "newest first");
+            CallQuery range = CallQuery.create().between(NOON.plusMinutes(1), NOON.plusMinutes(4))
+                    .order(CallQuery.Order.OLDEST_FIRST);
+            Tests.assertEquals(java.util.Arrays.asList("At 1", "At 2", "At 3"), names(store.query(range)), "time range");
+            Tests.assertEquals("At 5", store.getAllCalls().get(0).getCallerName(), "recorded order is still id order");
+
+            // A later call keeps the order; an earlier one loses it until the next compaction
+            store.addCall(Tests.call("At 6", "+447700900016", "Call", Service.FIRE, NOON.plusMinutes(6)));
+            Tests.assertEquals("At 6", store.query(newest).get(0).getCallerName(), "call after the index");
+            Tests.assertTrue(store.explain(newest).startsWith("OFF_HEAP WALK"), "plan was " + store.explain(newest));
+            store.addCall(Tests.call("Early", "+447700900017", "Call", Service.FIRE, NOON.minusMinutes(1)));
+            Tests.assertTrue(store.explain(newest).startsWith("OFF_HEAP SCAN"), "plan was " + store.explain(newest));
+            Tests.assertEquals("Early", store.query(CallQuery.create().order(CallQuery.Order.OLDEST_FIRST).limit(1))
+                    .get(0).getCallerName(), "oldest");
+        } finally {
+            Tests.delete(dir);
+        }
+    }
+
+    static void testFeedDeliversRemovedCalls() throws Exception {
+        Path dir = Tests.tempDir();
+        try (OffHeapCallStore store = new OffHeapCallStore(dir.resolve("calls.dat").toString())) {
+            List<CallChangeFeed.ChangeEvent> events = Collections.synchronizedList(new ArrayList<>());
+            store.getChangeFeed().subscribe(CallChangeFeed.LATEST, 10, events::addAll);
+            EmergencyCall call = Tests.call("Ann", "+447700900001", "Kitchen fire", Service.FIRE, NOON);
+            store.addCall(call);
+            store.removeCall(call);
+            Tests.eventually(() -> events.size() == 2, "added and removed events");
+            Tests.assertEquals(CallChangeFeed.Type.REMOVED, events.get(1).getType(), "type");
+            Tests.assertEquals("Ann", events.get(1).getCall().getCallerName(), "removed call");
+        } finally {
+            Tests.delete(dir);
+        }
+    }
+
+    static void testDuplicateReportsOriginalFromStore() throws Exception {
+        Path dir = Tests.tempDir();
+        try (OffHeapCallStore store = new OffHeapCallStore(dir.resolve("calls.dat").toString())) {
+            LocalDateTime now = LocalDateTime.now();
+            store.addCall(Tests.call("Ann", "+447700900001", "Kitchen fire", Service.FIRE, now));
+            List<DuplicateDetector.Match> matches = store.addCall(Tests.call("Ann", "07700 900001", "Smoke", Service.FIRE, now));
+            Tests.assertEquals(1, matches.size(), "matches");
+            Tests.assertEquals("Kitchen fire", matches.get(0).getOriginal().getDescription(), "original");
+        } finally {
+            Tests.delete(dir);
+        }
+    }
+}
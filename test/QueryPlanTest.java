@@ -0,0 +1,90 @@
+// ==================================
+// QueryPlanTest.java
+// Description: Tests that queries use the narrowest index and return what a full scan would
+// ==================================
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+public class QueryPlanTest {
+
+    private static final LocalDateTime NOON = LocalDateTime.of(2024, 5, 1, 12, 0);
+
+    public static void main(String[] args) {
+        Tests.main(QueryPlanTest.class);
+    }
+
+    // 100 calls a minute apart: every 20th is a fire reported by Fiona, the rest are police calls
+    private static void fill(CallStore store) {
+        List<EmergencyCall> batch = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            boolean fire = i % 20 == 0;
+            batch.add(Tests.call(fire ? "Fiona" : "Caller " + i, CallValidator.normalizePhone("07" + (100_000_000 + i)),
+                    fire ? "Chimney fire spreading" : "Noise complaint", fire ? Service.FIRE : Service.POLICE, NOON.plusMinutes(i)));
+        }
+        store.addCalls(batch);
+    }
+
+    private static List<Long> ids(List<EmergencyCall> calls) {
+        List<Long> ids = new ArrayList<>();
+        for (EmergencyCall call : calls) ids.add(call.getId());
+        return ids;
+    }
+
+    private static CallQuery[] queries() {
+        return new CallQuery[] {
+                CallQuery.create(),
+                CallQuery.create().services(java.util.EnumSet.of(Service.FIRE)),
+                CallQuery.create().callerName("Fiona"),
+                CallQuery.create().text("chimney"),
+                CallQuery.create().between(NOON.plusMinutes(10), NOON.plusMinutes(12)),
+                CallQuery.create().newestFirst().limit(3),
+                CallQuery.create().services(java.util.EnumSet.of(Service.POLICE)).between(NOON, NOON.plusMinutes(30)).limit(4),
+        };
+    }
+
+    static void testEachCriterionUsesItsIndex() throws Exception {
+        Path dir = Tests.tempDir();
+        try (CallList store = new CallList(dir.resolve("calls.dat").toString())) {
+            fill(store);
+            String[] expected = {"SCAN", "SERVICE", "NAME", "TEXT", "TIME", "TIME", "TIME"};
+            CallQuery[] queries = queries();
+            for (int i = 0; i < queries.length; i++) {
+                String plan = store.explain(queries[i]);
+                Tests.assertTrue(plan.startsWith(expected[i]), "query " + i + " planned as " + plan);
+            }
+        } finally {
+            Tests.delete(dir);
+        }
+    }
+
+    static void testIndexedResultsMatchFullScan() throws Exception {
+        Path dir = Tests.tempDir();
+        try (CallList indexed = new CallList(dir.resolve("calls.dat").toString());
+             OffHeapCallStore scanned = new OffHeapCallStore(dir.resolve("offheap.dat").toString())) {
+            fill(indexed);
+            fill(scanned);
+            CallQuery[] queries = queries();
+            for (int i = 0; i < queries.length; i++) {
+                Tests.assertEquals(ids(scanned.query(queries[i])), ids(indexed.query(queries[i])), "query " + i);
+                Tests.assertEquals(scanned.count(queries[i]), indexed.count(queries[i]), "count " + i);
+            }
+            Tests.assertEquals(5, indexed.query(queries[1]).size(), "fires");
+            Tests.assertEquals(2, indexed.query(queries[4]).size(), "calls in the time range");
+        } finally {
+            Tests.delete(dir);
+        }
+    }
+
+    static void testNegativeLimitIsRejected() {
+        try {
+            CallQuery.create().limit(-1);
+            throw new AssertionError("a negative limit was accepted");
+        } catch (IllegalArgumentException e) {
+            Tests.assertTrue(e.getMessage().contains("-1"), "message was " + e.getMessage());
+        }
+        Tests.assertEquals(0, CallQuery.create().limit(0).getLimit(), "zero limit");
+    }
+}
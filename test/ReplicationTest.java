@@ -0,0 +1,137 @@
+// ==================================
+// ReplicationTest.java
+// Description: Tests that standbys catch up with the primary and keep its removal times
+// ==================================
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.Set;
+
+public class ReplicationTest {
+
+    public static void main(String[] args) {
+        Tests.main(ReplicationTest.class);
+    }
+
+    private static EmergencyCall call(String name, int caller) {
+        return Tests.call(name, CallValidator.normalizePhone("07" + (100_000_000 + caller)), "Call", Service.POLICE, LocalDateTime.now());
+    }
+
+    // A port nothing listens on right now, with the next one free too
+    private static int freePorts() throws IOException {
+        for (int attempt = 0; attempt < 20; attempt++) {
+            int port;
+            try (ServerSocket probe = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+                port = probe.getLocalPort();
+            }
+            if (port < 65535 && canListen(port + 1)) return port;
+        }
+        throw new IOException("No two free ports in a row");
+    }
+
+    private static boolean canListen(int port) {
+        try {
+            new ServerSocket(port, 1, InetAddress.getLoopbackAddress()).close();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    static void testStandbyCatchesUpWithEarlierAndLaterCalls() throws Exception {
+        Path dir = Tests.tempDir();
+        int port = freePorts();
+        try (CallList primary = new CallList(dir.resolve("calls.dat").toString())) {
+            for (int i = 0; i < 50; i++) primary.addCall(call("Before " + i, i));
+            primary.startReplication(port);
+            try (ReplicaCallStore standby = new ReplicaCallStore(port, dir.resolve("replica.dat").toString())) {
+                Tests.eventually(() -> standby.getAllCalls().size() == 50, "calls written before the standby connected");
+                for (int i = 0; i < 10; i++) primary.addCall(call("After " + i, 100 + i));
+                EmergencyCall removed = primary.getAllCalls().get(0);
+                primary.removeCall(removed);
+                Tests.eventually(() -> standby.getCall(removed.getId()) == null && standby.getAllCalls().size() == 59,
+                        "calls written and removed while connected");
+                Tests.eventually(() -> standby.getLagBytes() == 0, "no lag");
+            }
+        } finally {
+            Tests.delete(dir);
+        }
+    }
+
+    static void testStandbyKeepsTheRemovalTime() throws Exception {
+        Path dir = Tests.tempDir();
+        int port = freePorts();
+        try (CallList primary = new CallList(dir.resolve("calls.dat").toString())) {
+            EmergencyCall call = call("Ann", 1);
+            primary.addCall(call);
+            primary.removeCall(call);
+            Thread.sleep(CallStore.UNDO_WINDOW.toMillis() + 300); // Removed longer ago than the undo window
+            primary.startReplication(port);
+            try (ReplicaCallStore standby = new ReplicaCallStore(port, dir.resolve("replica.dat").toString())) {
+                Tests.eventually(() -> standby.getLagBytes() == 0 && standby.getLastContact() > 0, "caught up");
+                standby.promote();
+                Tests.assertEquals(null, standby.restoreCall(call.getId()), "restored past the primary's undo window");
+            }
+        } finally {
+            Tests.delete(dir);
+        }
+    }
+
+    static void testReplicationStopsWithTheStore() throws Exception {
+        Path dir = Tests.tempDir();
+        int port = freePorts();
+        try {
+            try (CallList primary = new CallList(dir.resolve("calls.dat").toString())) {
+                primary.startReplication(port);
+                Tests.assertFalse(canListen(port), "replication is not listening");
+            }
+            Tests.assertTrue(canListen(port), "replication still listening after close");
+        } finally {
+            Tests.delete(dir);
+        }
+    }
+
+    static void testEachShardHasItsOwnStandby() throws Exception {
+        Path dir = Tests.tempDir();
+        int port = freePorts();
+        try (ShardedCallList primary = new ShardedCallList(dir.resolve("shard-%d.dat").toString(), 2)) {
+            for (int i = 0; i < 20; i++) primary.addCall(call("Caller " + i, i));
+            primary.startReplication(port);
+            try (ReplicaCallStore first = new ReplicaCallStore(port, dir.resolve("replica-0.dat").toString());
+                 ReplicaCallStore second = new ReplicaCallStore(port + 1, dir.resolve("replica-1.dat").toString())) {
+                Tests.eventually(() -> first.getAllCalls().size() + second.getAllCalls().size() == 20, "every shard replicated");
+                for (EmergencyCall call : first.getAllCalls()) Tests.assertEquals(1L, call.getId() % 2, "shard 0 id");
+                for (EmergencyCall call : second.getAllCalls()) Tests.assertEquals(0L, call.getId() % 2, "shard 1 id");
+            }
+        } finally {
+            Tests.delete(dir);
+        }
+    }
+
+    static void testPromotedShardedStandbyKeepsIdsUnique() throws Exception {
+        Path dir = Tests.tempDir();
+        int port = freePorts();
+        try (ShardedCallList primary = new ShardedCallList(dir.resolve("shard-%d.dat").toString(), 2)) {
+            for (int i = 0; i < 20; i++) primary.addCall(call("Before " + i, i));
+            primary.startReplication(port);
+            try (ShardedReplicaCallStore standby = new ShardedReplicaCallStore(port, dir.resolve("replica-%d.dat").toString(), 2)) {
+                Tests.eventually(() -> standby.getAllCalls().size() == 20 && standby.getLagBytes() == 0, "every shard replicated");
+                standby.promote();
+                for (int i = 0; i < 20; i++) standby.addCall(call("After " + i, 100 + i));
+
+                Set<Long> ids = new HashSet<>();
+                for (EmergencyCall call : standby.getAllCalls()) {
+                    Tests.assertTrue(ids.add(call.getId()), "id " + call.getId() + " assigned twice");
+                    Tests.assertEquals(call.getCallerName(), standby.getCall(call.getId()).getCallerName(), "call found by id " + call.getId());
+                }
+                Tests.assertEquals(40, ids.size(), "calls after promotion");
+            }
+        } finally {
+            Tests.delete(dir);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+// ==================================
+// ShardedCallListTest.java
+// Description: Tests merge order and duplicate detection across shards
+// ==================================
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ShardedCallListTest {
+
+    private static final LocalDateTime NOON = LocalDateTime.of(2024, 5, 1, 12, 0);
+
+    public static void main(String[] args) {
+        Tests.main(ShardedCallListTest.class);
+    }
+
+    private static String phone(int caller) {
+        return CallValidator.normalizePhone("07" + (100_000_000 + caller));
+    }
+
+    static void testRecordedOrderMergesByTimestamp() throws Exception {
+        Path dir = Tests.tempDir();
+        try (ShardedCallList store = new ShardedCallList(dir.resolve("shard-%d.dat").toString(), 4)) {
+            for (int i = 0; i < 40; i++) {
+                store.addCall(Tests.call("Caller " + i, phone(i), "Call " + i, Service.FIRE, NOON.plusMinutes(i)));
+            }
+            List<EmergencyCall> all = store.getAllCalls();
+            Tests.assertEquals(40, all.size(), "calls");
+            for (int i = 0; i < all.size(); i++) {
+                Tests.assertEquals("Caller " + i, all.get(i).getCallerName(), "call " + i + " in recorded order");
+            }
+            List<EmergencyCall> firstFive = store.query(CallQuery.create().limit(5));
+            Tests.assertEquals("Caller 4", firstFive.get(4).getCallerName(), "limited query");
+        } finally {
+            Tests.delete(dir);
+        }
+    }
+
+    static void testImportedOutOfOrderCallsMergeByTime() throws Exception {
+        Path dir = Tests.tempDir();
+        try (ShardedCallList store = new ShardedCallList(dir.resolve("shard-%d.dat").toString(), 2)) {
+            int[] minutes = {10, 20, 0, 50, 40, 30};
+            List<EmergencyCall> batch = new ArrayList<>();
+            for (int i = 0; i < minutes.length; i++) {
+                batch.add(Tests.call("At " + minutes[i], phone(i), "Call", Service.FIRE, NOON.plusMinutes(minutes[i])));
+            }
+            store.addCalls(batch);
+            List<String> expected = java.util.Arrays.asList("At 0", "At 10", "At 20", "At 30", "At 40", "At 50");
+            List<String> names = new ArrayList<>();
+            for (EmergencyCall call : store.getAllCalls()) names.add(call.getCallerName());
+            Tests.assertEquals(expected, names, "all calls");
+            names.clear();
+            for (EmergencyCall call : store.query(CallQuery.create().limit(3))) names.add(call.getCallerName());
+            Tests.assertEquals(expected.subList(0, 3), names, "three earliest calls");
+        } finally {
+            Tests.delete(dir);
+        }
+    }
+
+    static void testEqualTimestampsMergeById() throws Exception {
+        Path dir = Tests.tempDir();
+        try (ShardedCallList store = new ShardedCallList(dir.resolve("shard-%d.dat").toString(), 3)) {
+            List<EmergencyCall> batch = new ArrayList<>();
+            for (int i = 0; i < 30; i++) batch.add(Tests.call("Caller " + i, phone(i), "Call", Service.POLICE, NOON));
+            store.addCalls(batch);
+            long previous = 0;
+            for (EmergencyCall call : store.getCallsByService(Service.POLICE)) {
+                Tests.assertTrue(call.getId() > previous, "ids ascend among equal timestamps");
+                previous = call.getId();
+            }
+        } finally {
+            Tests.delete(dir);
+        }
+    }
+
+    static void testNewestFirstAcrossShards() throws Exception {
+        Path dir = Tests.tempDir();
+        try (ShardedCallList store = new ShardedCallList(dir.resolve("shard-%d.dat").toString(), 4)) {
+            for (int i = 0; i < 20; i++) {
+                store.addCall(Tests.call("Caller " + i, phone(i), "Call", Service.AMBULANCE, NOON.plusMinutes(i)));
+            }
+            List<EmergencyCall> newest = store.query(CallQuery.create().order(CallQuery.Order.NEWEST_FIRST).limit(3));
+            Tests.assertEquals("Caller 19", newest.get(0).getCallerName(), "newest");
+            Tests.assertEquals("Caller 17", newest.get(2).getCallerName(), "third newest");
+        } finally {
+            Tests.delete(dir);
+        }
+    }
+
+    static void testSimilarCallOnAnotherShardIsFlagged() throws Exception {
+        Path dir = Tests.tempDir();
+        try (ShardedCallList store = new ShardedCallList(dir.resolve("shard-%d.dat").toString(), 4)) {
+            String description = "Lorry overturned on the motorway bridge with fuel leaking onto the road";
+            LocalDateTime now = LocalDateTime.now();
+            EmergencyCall first = Tests.call("Ann", phone(1), description, Service.FIRE, now);
+            store.addCall(first);
+            // Adds for other callers until one lands on a different shard than Ann's call
+            List<DuplicateDetector.Match> matches;
+            EmergencyCall second;
+            int caller = 2;
+            do {
+                second = Tests.call("Bob", phone(caller++), description, Service.FIRE, now);
+                matches = store.addCall(second);
+            } while ((second.getId() - first.getId()) % 4 == 0);
+            boolean foundFirst = false;
+            for (DuplicateDetector.Match match : matches) {
+                if (match.getOriginal().getId() != first.getId()) continue;
+                foundFirst = true;
+                Tests.assertEquals(DuplicateDetector.Reason.SIMILAR_DESCRIPTION, match.getReason(), "reason");
+            }
+            Tests.assertTrue(foundFirst, "the call on another shard was not reported");
+        } finally {
+            Tests.delete(dir);
+        }
+    }
+
+    static void testSameCallerIsFlagged() throws Exception {
+        Path dir = Tests.tempDir();
+        try (ShardedCallList store = new ShardedCallList(dir.resolve("shard-%d.dat").toString(), 4)) {
+            LocalDateTime now = LocalDateTime.now();
+            store.addCall(Tests.call("Ann", phone(1), "Kitchen fire", Service.FIRE, now));
+            List<DuplicateDetector.Match> matches = store.addCall(Tests.call("Ann", phone(1), "Burglary", Service.POLICE, now));
+            Tests.assertEquals(1, matches.size(), "matches");
+            Tests.assertEquals(DuplicateDetector.Reason.SAME_CALLER, matches.get(0).getReason(), "reason");
+        } finally {
+            Tests.delete(dir);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+// ==================================
+// Tests.java
+// Description: Minimal test runner and assertions for the plain-Java tests in this folder
+// ==================================
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+/**
+ * Runs every static no-argument method named test* in a test class and reports the
+ * failures. The tests need nothing but the JDK: compile src and test together and run
+ * AllTests, or a single test class, e.g. java -cp out DuplicateDetectorTest
+ */
+public final class Tests {
+
+    static {
+        // A short undo window so compaction tests need not wait minutes; read when the stores load
+        if (System.getProperty(CallStore.UNDO_PROPERTY) == null) System.setProperty(CallStore.UNDO_PROPERTY, "1");
+    }
+
+    private Tests() {
+    }
+
+    /**
+     * Runs the tests of one class.
+     * @param testClass The class holding the test methods.
+     * @return Number of failed tests.
+     */
+    public static int run(Class<?> testClass) {
+        int failed = 0;
+        Method[] methods = testClass.getDeclaredMethods();
+        java.util.Arrays.sort(methods, Comparator.comparing(Method::getName));
+        for (Method method : methods) {
+            if (!method.getName().startsWith("test") || !Modifier.isStatic(method.getModifiers())
+                    || method.getParameterCount() != 0) continue;
+            String name = testClass.getSimpleName() + "." + method.getName();
+            try {
+                method.invoke(null);
+                System.out.println("PASS " + name);
+            } catch (InvocationTargetException e) {
+                failed++;
+                System.out.println("FAIL " + name + ": " + e.getCause());
+                e.getCause().printStackTrace(System.out);
+            } catch (IllegalAccessException e) {
+                failed++;
+                System.out.println("FAIL " + name + ": " + e);
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * Runs one class's tests from its main method, exiting with 1 if any failed.
+     * @param testClass The class holding the test methods.
+     */
+    public static void main(Class<?> testClass) {
+        if (run(testClass) > 0) System.exit(1);
+    }
+
+    // --- Assertions ---
+
+    public static void assertTrue(boolean condition, String message) {
+        if (!condition) throw new AssertionError(message);
+    }
+
+    public static void assertFalse(boolean condition, String message) {
+        assertTrue(!condition, message);
+    }
+
+    public static void assertEquals(Object expected, Object actual, String message) {
+        if (!Objects.equals(expected, actual)) {
+            throw new AssertionError(message + ": expected <" + expected + "> but was <" + actual + ">");
+        }
+    }
+
+    // --- Fixtures ---
+
+    /**
+     * A call with the given details and a single service.
+     */
+    public static EmergencyCall call(String name, String phone, String description, Service service, LocalDateTime time) {
+        return new EmergencyCall(name, phone, description, EnumSet.of(service), time);
+    }
+
+    /**
+     * A fresh empty directory for store files.
+     */
+    public static Path tempDir() throws IOException {
+        Path dir = Files.createTempDirectory("calls-test");
+        dir.toFile().deleteOnExit();
+        return dir;
+    }
+
+    /**
+     * Deletes a directory made by tempDir() and everything in it.
+     */
+    public static void delete(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    /**
+     * Waits until a condition holds, for changes another thread or process applies.
+     * @param condition Checked every 10 ms.
+     * @param message   Failure message if it does not hold within 10 seconds.
+     */
+    public static void eventually(java.util.function.BooleanSupplier condition, String message) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) throw new AssertionError(message);
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+// ==================================
+// UndoAndCompactionTest.java
+// Description: Tests restoring removed calls and compaction across reloads of the store file
+// ==================================
+
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.zip.CRC32;
+
+/**
+ * Runs with the one second undo window Tests sets, so each store kind is checked just
+ * inside and just past it.
+ */
+public class UndoAndCompactionTest {
+
+    public static void main(String[] args) {
+        Tests.main(UndoAndCompactionTest.class);
+    }
+
+    // Read once Tests has shortened the undo window, not when this class loads
+    private static void waitPastUndo() throws InterruptedException {
+        Thread.sleep(CallStore.UNDO_WINDOW.toMillis() + 300);
+    }
+
+    private static CallStore open(boolean offHeap, String file) {
+        return offHeap ? new OffHeapCallStore(file) : new CallList(file);
+    }
+
+    private static EmergencyCall call(String name) {
+        return Tests.call(name, "+447700900001", "Call from " + name, Service.FIRE, LocalDateTime.now());
+    }
+
+    static void testUndoWindowCountsFromTheRecordedRemoval() throws Exception {
+        Path dir = Tests.tempDir();
+        try {
+            for (boolean offHeap : new boolean[] {false, true}) {
+                String file = dir.resolve(offHeap ? "offheap.dat" : "calls.dat").toString();
+                long id;
+                try (CallStore store = open(offHeap, file)) {
+                    EmergencyCall call = call("Ann");
+                    store.addCall(call);
+                    id = call.getId();
+                    Tests.assertTrue(store.removeCall(call), "removed");
+                }
+                waitPastUndo();
+                try (CallStore reopened = open(offHeap, file)) {
+                    Tests.assertEquals(null, reopened.restoreCall(id), "restored after the window by " + reopened.getClass().getSimpleName());
+                }
+            }
+        } finally {
+            Tests.delete(dir);
+        }
+    }
+
+    static void testRestoreWithinWindowAfterReload() throws Exception {
+        Path dir = Tests.tempDir();
+        try {
+            for (boolean offHeap : new boolean[] {false, true}) {
+                String file = dir.resolve(offHeap ? "offheap.dat" : "calls.dat").toString();
+                EmergencyCall call = call("Ann");
+                try (CallStore store = open(offHeap, file)) {
+                    store.addCall(call);
+                    store.removeCall(call);
+                }
+                try (CallStore reopened = open(offHeap, file)) {
+                    Tests.assertEquals(call, reopened.restoreCall(call.getId()), "restored by " + reopened.getClass().getSimpleName());
+                    Tests.assertEquals(call, reopened.getCall(call.getId()), "live again");
+                }
+            }
+        } finally {
+            Tests.delete(dir);
+        }
+    }
+
+    static void testCompactionKeepsRecentRemovalsRestorable() throws Exception {
+        Path dir = Tests.tempDir();
+        try {
+            for (boolean offHeap : new boolean[] {false, true}) {
+                String file = dir.resolve(offHeap ? "offheap.dat" : "calls.dat").toString();
+                EmergencyCall old = call("Old");
+                EmergencyCall recent = call("Recent");
+                EmergencyCall kept = call("Kept");
+                try (CallStore store = open(offHeap, file)) {
+                    store.addCall(old);
+                    store.addCall(recent);
+                    store.addCall(kept);
+                    store.removeCall(old);
+                    waitPastUndo();
+                    store.removeCall(recent);
+                    if (offHeap) {
+                        ((OffHeapCallStore) store).compact();
+                    } else {
+                        ((CallList) store).compact();
+                    }
+                    Tests.assertEquals(null, store.restoreCall(old.getId()), "purged call restored");
+                }
+                try (CallStore reopened = open(offHeap, file)) {
+                    String kind = reopened.getClass().getSimpleName();
+                    Tests.assertEquals(1, reopened.getAllCalls().size(), "live calls in " + kind);
+                    Tests.assertEquals(null, reopened.restoreCall(old.getId()), "purged call in " + kind);
+                    Tests.assertEquals(recent, reopened.restoreCall(recent.getId()), "recent removal in " + kind);
+                    Tests.assertEquals(2, reopened.getAllCalls().size(), "live calls after restoring in " + kind);
+                }
+            }
+        } finally {
+            Tests.delete(dir);
+        }
+    }
+
+    static void testRemovalFailsWhenLogCannotBeWritten() throws Exception {
+        Path dir = Tests.tempDir();
+        try {
+            for (boolean offHeap : new boolean[] {false, true}) {
+                String file = dir.resolve(offHeap ? "offheap.dat" : "calls.dat").toString();
+                try (CallStore store = open(offHeap, file)) {
+                    EmergencyCall call = call("Ann");
+                    store.addCall(call);
+                    Field log = store.getClass().getDeclaredField("log");
+                    log.setAccessible(true);
+                    ((CallLogFile) log.get(store)).close(); // Every write now fails
+                    Tests.assertFalse(store.removeCall(call), "removed without saving by " + store.getClass().getSimpleName());
+                    Tests.assertEquals(call, store.getCall(call.getId()), "still stored");
+                }
+            }
+        } finally {
+            Tests.delete(dir);
+        }
+    }
+
+    @SuppressWarnings("try") // The lock is held by a variable that is never read
+    static void testRemoveRecordsWithoutTimeStillApply() throws Exception {
+        Path dir = Tests.tempDir();
+        try {
+            String file = dir.resolve("calls.dat").toString();
+            EmergencyCall call = call("Ann");
+            try (CallList store = new CallList(file)) {
+                store.addCall(call);
+            }
+            // The remove record as written before it carried the removal time
+            ByteBuffer body = ByteBuffer.allocate(1 + 8).put(CallLogFile.REMOVE).putLong(call.getId());
+            CRC32 crc = new CRC32();
+            crc.update(body.array(), 0, body.capacity());
+            ByteBuffer record = ByteBuffer.allocate(4 + body.capacity() + 4);
+            record.putInt(body.capacity()).put(body.array()).putInt((int) crc.getValue());
+            try (CallLogFile log = new CallLogFile(Paths.get(file)); CallLogFile.Lock ignored = log.lockExclusive()) {
+                log.appendRaw(record.array());
+            }
+            try (CallList reopened = new CallList(file)) {
+                Tests.assertEquals(null, reopened.getCall(call.getId()), "removed");
+                Tests.assertEquals(call, reopened.restoreCall(call.getId()), "restorable from the time it was read");
+            }
+        } finally {
+            Tests.delete(dir);
+        }
+    }
+}